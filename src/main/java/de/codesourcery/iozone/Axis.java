@@ -2,6 +2,7 @@ package de.codesourcery.iozone;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.util.ArrayList;
 import java.util.List;
@@ -25,6 +26,21 @@ public class Axis
     public static float INITIAL_FONT_SIZE = 12;
     public static float FONT_SCALING_FACTOR = 80000f;
     
+    /**
+     * Labels with a smaller font size are not drawn when decluttering.
+     */
+    public static float MIN_FONT_SIZE = 6;
+    
+    /**
+     * Upper bound for the font size of labels sized by an explicit font scale.
+     */
+    public static float MAX_FONT_SIZE = 32;
+    
+    /**
+     * When decluttering, labels at both ends and then every n-th label get placed first.
+     */
+    public static int LABEL_PRIORITY_STRIDE = 4;
+    
     public final float length;
     public final String name;
     
@@ -42,6 +58,58 @@ public class Axis
     }
     
     public void render(Matrix4 viewMatrix , Graphics2D gfx,Camera camera) 
+    {
+        render( viewMatrix , gfx , camera , true );
+    }
+    
+    public void render(Matrix4 viewMatrix , Graphics2D gfx,Camera camera,boolean drawLabels) 
+    {
+        render( viewMatrix , gfx , camera , drawLabels , null );
+    }
+    
+    /**
+     * Renders the axis line and its labels.
+     * 
+     * @param viewMatrix
+     * @param gfx
+     * @param camera
+     * @param drawLabels
+     * @param occupancy screen areas already covered by labels, if not <code>null</code> labels that would overlap 
+     * previously placed labels or are too small to be readable are skipped
+     */
+    public void render(Matrix4 viewMatrix , Graphics2D gfx,Camera camera,boolean drawLabels,LabelOccupancy occupancy) 
+    {
+        render( viewMatrix , new Graphics2DSink( gfx , false ) , camera , drawLabels , occupancy );
+    }
+    
+    /**
+     * Renders the axis line and its labels.
+     * 
+     * @param viewMatrix
+     * @param sink
+     * @param camera
+     * @param drawLabels
+     * @param occupancy screen areas already covered by labels, may be <code>null</code>
+     * @see #render(Matrix4, Graphics2D, Camera, boolean, LabelOccupancy)
+     */
+    public void render(Matrix4 viewMatrix , SceneSink sink,Camera camera,boolean drawLabels,LabelOccupancy occupancy) 
+    {
+        render( viewMatrix , sink , camera , drawLabels , occupancy , 0 );
+    }
+    
+    /**
+     * Renders the axis line and its labels.
+     * 
+     * @param viewMatrix
+     * @param sink
+     * @param camera
+     * @param drawLabels
+     * @param occupancy screen areas already covered by labels, may be <code>null</code>
+     * @param fontScale font size of a label at a view-space depth of one world unit, labels get smaller proportionally 
+     * to their depth. Use this when the pixels per world unit differ from the interactive viewer (e.g. when rendering at very 
+     * high resolutions). Values &lt;= 0 derive the font size from the label's distance to the camera.
+     */
+    public void render(Matrix4 viewMatrix , SceneSink sink,Camera camera,boolean drawLabels,LabelOccupancy occupancy,float fontScale) 
     {
         // calculate matrix to get from object space to world space
         final Matrix4 modelView = viewMatrix.cpy().mul( modelMatrix );
@@ -60,35 +128,102 @@ public class Axis
         
         final Vector3 tmp = new Vector3();
         
-        gfx.setColor( labelColor );
+        final Font oldFont = sink.getFont();
         
-        final Font oldFont = gfx.getFont();
-        
-        for ( int step = 0 ; step < labels.size() ; step++ ) 
+        if ( drawLabels && occupancy != null ) {
+            renderLabels( startView , stepSize , sink , camera , occupancy , fontScale );
+        }
+        for ( int step = 0 , count = drawLabels && occupancy == null ? labels.size() : 0 ; step < count ; step++ ) 
         {
             tmp.set( current );
-            final float avgDist = 1+current.dst( camera.position );
-            
-            final float scale = FONT_SCALING_FACTOR / (avgDist*avgDist);
-            final float fontSize = (INITIAL_FONT_SIZE *  scale);
-//            System.out.println("font size: "+fontSize);
+            final float fontSize = getFontSize( current , camera , fontScale );
             final Font labelFont = oldFont.deriveFont( Font.BOLD , fontSize );
-            gfx.setFont( labelFont );
             
             worldToScreen( tmp , camera );
             
-            gfx.drawString( labels.get( step ) , (int) tmp.x, (int) tmp.y );
+            sink.text( labels.get( step ) , (int) tmp.x, (int) tmp.y , labelFont , labelColor );
             current.add( stepSize );
         }
-        gfx.setFont( oldFont );
         
         // draw line
-        gfx.setColor( axisLineColor );
-        
         worldToScreen( startView , camera ); 
         worldToScreen( endView , camera ); 
         
-        gfx.drawLine( (int) startView.x,(int) startView.y,(int) endView.x,(int) endView.y );
+        sink.line( (int) startView.x,(int) startView.y,(int) endView.x,(int) endView.y , axisLineColor );
+    }
+    
+    private static float getFontSize(Vector3 view,Camera camera,float fontScale) 
+    {
+        if ( fontScale > 0 ) {
+            return Math.min( MAX_FONT_SIZE , fontScale / Math.max( camera.near , -view.z ) );
+        }
+        final float avgDist = 1+view.dst( camera.position );
+        return INITIAL_FONT_SIZE * FONT_SCALING_FACTOR / (avgDist*avgDist);
+    }
+    
+    private void renderLabels(Vector3 startView,Vector3 stepSize,SceneSink sink,Camera camera,LabelOccupancy occupancy,float fontScale) 
+    {
+        final Font oldFont = sink.getFont();
+        final Vector3 current = new Vector3();
+        for ( int step : getPlacementOrder( labels.size() ) ) 
+        {
+            current.set( stepSize ).scl( step ).add( startView );
+            final float fontSize = getFontSize( current , camera , fontScale );
+            if ( fontSize < MIN_FONT_SIZE ) {
+                continue;
+            }
+            worldToScreen( current , camera );
+            
+            final Font labelFont = oldFont.deriveFont( Font.BOLD , fontSize );
+            final FontMetrics metrics = sink.getFontMetrics( labelFont );
+            final String label = labels.get( step );
+            final int x = (int) current.x;
+            final int y = (int) current.y;
+            // labels are digits and units without notable descenders, so stacked labels may touch
+            if ( occupancy.reserve( x , y - metrics.getAscent() , metrics.stringWidth( label ) , metrics.getAscent() ) ) 
+            {
+                sink.text( label , x , y , labelFont , labelColor );
+            }
+        }
+    }
+    
+    /**
+     * Returns label indices ordered by placement priority: both ends, every {@link #LABEL_PRIORITY_STRIDE}-th label,
+     * every second label and then all the rest.
+     *  
+     * @param count
+     * @return
+     */
+    protected static int[] getPlacementOrder(int count) 
+    {
+        final int[] result = new int[ count ];
+        final boolean[] placed = new boolean[ count ];
+        int len = 0;
+        if ( count > 0 ) 
+        {
+            result[ len++ ] = 0;
+            placed[0] = true;
+            if ( count > 1 ) 
+            {
+                result[ len++ ] = count - 1;
+                placed[ count - 1 ] = true;
+            }
+        }
+        for ( int stride = Math.max( 1 , LABEL_PRIORITY_STRIDE ) ; ; stride /= 2 ) 
+        {
+            for ( int i = 0 ; i < count ; i += stride ) 
+            {
+                if ( ! placed[i] ) 
+                {
+                    placed[i] = true;
+                    result[ len++ ] = i;
+                }
+            }
+            if ( stride == 1 ) {
+                break;
+            }
+        }
+        return result;
     }
     
     public static Vector3 worldToScreen(Vector3 worldCoords,Camera camera) 
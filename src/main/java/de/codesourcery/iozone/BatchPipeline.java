@@ -0,0 +1,362 @@
+package de.codesourcery.iozone;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Turns results files into 3D chart images using a pipeline of four stages
+ * (parse, mesh, render, encode) that run concurrently.
+ *
+ * Stages are connected by bounded queues so a fast stage blocks once the queue to its
+ * successor is full, the number of jobs in flight (and thus memory use) is bounded by the
+ * queue capacity and stage parallelism no matter how many files get processed.
+ *
+ * Images go into subdirectories of the output directory that mirror the location of each results
+ * file relative to the closest directory containing all of them.
+ */
+public class BatchPipeline
+{
+    // end-of-input marker, passed on by the last worker of a stage to exit
+    private static final Job POISON = new Job( null );
+
+    public int parseThreads = 1;
+    public int meshThreads = 1;
+    public int renderThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Number of images encoded concurrently, also the number of threads the encoder filters and compresses chunks on.
+     */
+    public int encodeThreads = Math.max( 1 , Runtime.getRuntime().availableProcessors() / 2 );
+
+    /**
+     * Capacity of each queue between two stages.
+     */
+    public int queueCapacity = 8;
+
+    public int width = 640;
+    public int height = 480;
+    public CameraPreset preset = CameraPreset.DEFAULT;
+
+    /**
+     * Compression level of written images, see {@link PNGEncoder}.
+     */
+    public int pngLevel = PNGEncoder.DEFAULT;
+
+    private final File outputDir;
+
+    /**
+     * Unit of work passed from stage to stage, every stage consumes the field set by its
+     * predecessor and clears it so it can be garbage-collected early.
+     */
+    protected static final class Job
+    {
+        public final File file;
+        public File output;
+        public IOZoneReport report;
+        public IOZone3DChart chart;
+        public BufferedImage image;
+
+        public Job(File file) {
+            this.file = file;
+        }
+
+        public Job(File file,IOZoneReport report) {
+            this.file = file;
+            this.report = report;
+        }
+    }
+
+    protected interface Sink
+    {
+        public void put(Job job) throws InterruptedException;
+    }
+
+    protected interface StageFunction
+    {
+        public void process(Job job,Sink out) throws Exception;
+    }
+
+    private final class Stage
+    {
+        private final String name;
+        private final int threads;
+        private final StageFunction function;
+        private final BlockingQueue<Job> input;
+        private final BlockingQueue<Job> output;
+
+        private final AtomicInteger running = new AtomicInteger();
+
+        public Stage(String name, int threads, StageFunction function, BlockingQueue<Job> input, BlockingQueue<Job> output)
+        {
+            if ( threads < 1 ) {
+                throw new IllegalArgumentException("Stage '"+name+"' needs at least one thread");
+            }
+            this.name = name;
+            this.threads = threads;
+            this.function = function;
+            this.input = input;
+            this.output = output;
+        }
+
+        public void start(List<Thread> allThreads,AtomicReference<Throwable> failure,CountDownLatch finished)
+        {
+            running.set( threads );
+            for ( int i = 0 ; i < threads ; i++ )
+            {
+                final Thread thread = new Thread( () ->
+                {
+                    try
+                    {
+                        final Sink sink = job -> output.put( job );
+                        while ( true )
+                        {
+                            final Job job = input.take();
+                            if ( job == POISON )
+                            {
+                                // let siblings see the marker as well
+                                input.put( POISON );
+                                break;
+                            }
+                            function.process( job , sink );
+                        }
+                        if ( running.decrementAndGet() == 0 )
+                        {
+                            if ( output != null ) {
+                                output.put( POISON );
+                            } else {
+                                finished.countDown();
+                            }
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        // pipeline got cancelled
+                    }
+                    catch(Throwable t)
+                    {
+                        if ( failure.compareAndSet( null , t ) ) {
+                            allThreads.forEach( Thread::interrupt );
+                            finished.countDown();
+                        }
+                    }
+                } , name+"-"+i );
+                thread.setDaemon( true );
+                allThreads.add( thread );
+            }
+        }
+    }
+
+    public BatchPipeline(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Writes one image per report contained in the given files.
+     *
+     * Files that cannot be parsed are skipped with a warning.
+     *
+     * @param files
+     * @return number of images written
+     * @throws IOException if writing an image failed or two reports would be written to the same image file
+     * @throws InterruptedException
+     */
+    public int run(List<File> files) throws IOException, InterruptedException
+    {
+        outputDir.mkdirs();
+
+        final Map<File,File> outputDirs = getOutputDirs( files );
+        final Set<File> outputFiles = ConcurrentHashMap.newKeySet();
+
+        final BlockingQueue<Job> files2Parse = new ArrayBlockingQueue<>( queueCapacity );
+        final BlockingQueue<Job> reports = new ArrayBlockingQueue<>( queueCapacity );
+        final BlockingQueue<Job> charts = new ArrayBlockingQueue<>( queueCapacity );
+        final BlockingQueue<Job> images = new ArrayBlockingQueue<>( queueCapacity );
+
+        final AtomicInteger written = new AtomicInteger();
+        final List<Stage> stages = new ArrayList<>();
+        stages.add( new Stage( "parse" , parseThreads , (job,out) ->
+        {
+            final List<IOZoneReport> parsed;
+            try {
+                parsed = Chart3DViewer.loadReports( job.file ).getReports();
+            } 
+            catch(IOException | RuntimeException e) 
+            {
+                // a stray file in an input directory only costs its own images
+                System.err.println("Skipping "+job.file+": "+e.getMessage());
+                return;
+            }
+            if ( parsed.isEmpty() ) {
+                System.err.println("Skipping "+job.file+": no reports found");
+            }
+            for ( IOZoneReport report : parsed )
+            {
+                final Job result = new Job( job.file , report );
+                result.output = getOutputFile( outputDirs.get( job.file ) , job.file , report );
+                // fail instead of silently overwriting an image written for another report
+                if ( ! outputFiles.add( result.output ) ) {
+                    throw new IOException("Report '"+report.reportName+"' of "+job.file+" would overwrite image "+result.output);
+                }
+                out.put( result );
+            }
+        }, files2Parse , reports ) );
+
+        stages.add( new Stage( "mesh" , meshThreads , (job,out) ->
+        {
+            job.chart = new IOZone3DChart( job.report );
+            out.put( job );
+        }, reports , charts ) );
+
+        stages.add( new Stage( "render" , renderThreads , (job,out) ->
+        {
+            job.image = SceneRenderer.renderImage( Collections.singletonList( job.chart ) , preset.createCamera( width , height ) , RenderQuality.FULL );
+            job.chart = null;
+            out.put( job );
+        }, charts , images ) );
+
+        // encode stage threads block while their chunks get compressed, so encoding never uses more than encodeThreads cores
+        final ExecutorService encodePool = Executors.newFixedThreadPool( encodeThreads , r ->
+        {
+            final Thread t = new Thread( r , "encode-chunks" );
+            t.setDaemon( true );
+            return t;
+        });
+        final PNGEncoder encoder = new PNGEncoder( pngLevel , encodePool );
+        stages.add( new Stage( "encode" , encodeThreads , (job,out) ->
+        {
+            job.output.getParentFile().mkdirs();
+            encoder.write( job.image , job.output );
+            job.image = null;
+            written.incrementAndGet();
+        }, images , null ) );
+
+        final List<Thread> threads = Collections.synchronizedList( new ArrayList<>() );
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        for ( Stage stage : stages ) {
+            stage.start( threads , failure , finished );
+        }
+        synchronized( threads ) {
+            threads.forEach( Thread::start );
+        }
+
+        try
+        {
+            for ( int i = 0 , len = files.size() ; i <= len && failure.get() == null ; )
+            {
+                // stages stop consuming after a failure, do not block forever on a full queue
+                if ( files2Parse.offer( i < len ? new Job( files.get(i) ) : POISON , 100 , TimeUnit.MILLISECONDS ) ) {
+                    i++;
+                }
+            }
+            finished.await();
+        }
+        finally
+        {
+            // no-op unless the caller got interrupted or a stage failed
+            synchronized( threads ) {
+                threads.forEach( Thread::interrupt );
+            }
+            encodePool.shutdownNow();
+        }
+
+        final Throwable t = failure.get();
+        if ( t != null )
+        {
+            if ( t instanceof IOException ) {
+                throw (IOException) t;
+            }
+            if ( t instanceof RuntimeException ) {
+                throw (RuntimeException) t;
+            }
+            throw new RuntimeException( t );
+        }
+        return written.get();
+    }
+
+    /**
+     * Maps each results file to the directory its images get written to.
+     *
+     * @param files
+     * @return
+     */
+    protected Map<File,File> getOutputDirs(List<File> files)
+    {
+        Path common = null;
+        for ( File file : files )
+        {
+            final Path parent = file.getAbsoluteFile().toPath().normalize().getParent();
+            if ( common == null ) {
+                common = parent;
+            }
+            while ( common != null && ! parent.startsWith( common ) ) {
+                common = common.getParent();
+            }
+            if ( common == null ) {
+                // no common ancestor (different file system roots)
+                break;
+            }
+        }
+        final Map<File,File> result = new HashMap<>();
+        for ( File file : files )
+        {
+            final Path parent = file.getAbsoluteFile().toPath().normalize().getParent();
+            final Path relative = common != null ? common.relativize( parent ) : parent.getRoot().relativize( parent );
+            result.put( file , relative.toString().isEmpty() ? outputDir : new File( outputDir , relative.toString() ) );
+        }
+        return result;
+    }
+
+    protected File getOutputFile(File dir,File file,IOZoneReport report)
+    {
+        final String name = file.getName().replaceFirst( "\\.[^.]*$" , "" )+"_"+report.reportName.replaceAll( "[^A-Za-z0-9._-]+" , "_" );
+        return new File( dir , name+".png" );
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if ( args.length < 2 ) {
+            System.err.println("Usage: <output directory> <results file or directory> [<results file or directory> ...]");
+            System.err.println("Stage parallelism can be configured with -Diozone.batch.[parse|mesh|render|encode]Threads=<n>, queue size with -Diozone.batch.queueCapacity=<n>");
+            System.err.println("PNG compression level can be set with -Diozone.batch.pngLevel=<0-9>, 0 writes uncompressed images");
+            System.exit(1);
+        }
+        System.setProperty( "java.awt.headless" , "true" );
+
+        final List<File> inputs = new ArrayList<>();
+        for ( int i = 1 ; i < args.length ; i++ ) {
+            inputs.add( new File( args[i] ) );
+        }
+        final BatchPipeline pipeline = new BatchPipeline( new File( args[0] ) );
+        pipeline.parseThreads = Integer.getInteger( "iozone.batch.parseThreads" , pipeline.parseThreads );
+        pipeline.meshThreads = Integer.getInteger( "iozone.batch.meshThreads" , pipeline.meshThreads );
+        pipeline.renderThreads = Integer.getInteger( "iozone.batch.renderThreads" , pipeline.renderThreads );
+        pipeline.encodeThreads = Integer.getInteger( "iozone.batch.encodeThreads" , pipeline.encodeThreads );
+        pipeline.queueCapacity = Integer.getInteger( "iozone.batch.queueCapacity" , pipeline.queueCapacity );
+        pipeline.width = Integer.getInteger( "iozone.batch.width" , pipeline.width );
+        pipeline.height = Integer.getInteger( "iozone.batch.height" , pipeline.height );
+        pipeline.pngLevel = Integer.getInteger( "iozone.batch.pngLevel" , pipeline.pngLevel );
+
+        long time = -System.currentTimeMillis();
+        final int count = pipeline.run( ReportAggregator.listFiles( inputs ) );
+        time += System.currentTimeMillis();
+        System.out.println("Wrote "+count+" images to "+args[0]+" in "+time+" ms");
+    }
+}
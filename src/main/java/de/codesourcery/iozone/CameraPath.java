@@ -0,0 +1,118 @@
+package de.codesourcery.iozone;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.badlogic.gdx.graphics.Camera;
+
+/**
+ * Sequence of camera poses (position, direction and up vector) that can be replayed.
+ *
+ * Paths are stored as plain text, one pose per line with nine whitespace-separated
+ * floats, lines starting with '#' are ignored.
+ */
+public final class CameraPath
+{
+    private final List<float[]> poses = new ArrayList<>();
+
+    public void add(Camera camera)
+    {
+        poses.add( new float[] {
+                camera.position.x , camera.position.y , camera.position.z ,
+                camera.direction.x , camera.direction.y , camera.direction.z ,
+                camera.up.x , camera.up.y , camera.up.z } );
+    }
+
+    public int size() {
+        return poses.size();
+    }
+
+    /**
+     * Moves a camera to a pose of this path and updates it.
+     *
+     * @param index
+     * @param camera
+     */
+    public void apply(int index,Camera camera)
+    {
+        final float[] pose = poses.get( index );
+        camera.position.set( pose[0] , pose[1] , pose[2] );
+        camera.direction.set( pose[3] , pose[4] , pose[5] );
+        camera.up.set( pose[6] , pose[7] , pose[8] );
+        camera.update(true);
+    }
+
+    public static CameraPath load(File file) throws IOException
+    {
+        final CameraPath result = new CameraPath();
+        try ( BufferedReader reader = new BufferedReader( new FileReader( file ) ) )
+        {
+            String line;
+            int lineNo = 0;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                lineNo++;
+                line = line.trim();
+                if ( line.isEmpty() || line.startsWith("#") ) {
+                    continue;
+                }
+                final String[] parts = line.split("\\s+");
+                if ( parts.length != 9 ) {
+                    throw new IOException( file+", line "+lineNo+": Expected 9 values but got "+parts.length );
+                }
+                final float[] pose = new float[9];
+                for ( int i = 0 ; i < 9 ; i++ ) {
+                    pose[i] = Float.parseFloat( parts[i] );
+                }
+                result.poses.add( pose );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Appends a camera's current pose to a file.
+     *
+     * @param file
+     * @param camera
+     * @throws IOException
+     */
+    public static void append(File file,Camera camera) throws IOException
+    {
+        final CameraPath path = new CameraPath();
+        path.add( camera );
+        try ( Writer writer = new FileWriter( file , true ) ) {
+            path.write( writer );
+        }
+    }
+
+    public void save(File file) throws IOException
+    {
+        try ( Writer writer = new FileWriter( file ) ) {
+            write( writer );
+        }
+    }
+
+    private void write(Writer writer) throws IOException
+    {
+        for ( float[] pose : poses )
+        {
+            final StringBuilder line = new StringBuilder();
+            for ( int i = 0 ; i < pose.length ; i++ )
+            {
+                if ( i > 0 ) {
+                    line.append(' ');
+                }
+                line.append( String.format( Locale.ROOT , "%.6f" , pose[i] ) );
+            }
+            writer.write( line.append('\n').toString() );
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package de.codesourcery.iozone;
+
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Predefined camera positions for rendering a single chart located at the origin. 
+ */
+public enum CameraPreset 
+{
+    /**
+     * Same view as the interactive viewer's initial camera position.
+     */
+    DEFAULT(50,50,100,false),
+    FRONT(0,30,150,true),
+    SIDE(160,40,0,true),
+    TOP(0,160,1,true);
+    
+    private final float x,y,z;
+    private final boolean lookAtOrigin;
+    
+    private CameraPreset(float x, float y, float z,boolean lookAtOrigin) 
+    {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.lookAtOrigin = lookAtOrigin;
+    }
+    
+    public PerspectiveCamera createCamera(int width,int height) 
+    {
+        Mesh.loadNativeLibrary();
+        
+        final PerspectiveCamera camera = new PerspectiveCamera( 40 , width , height );
+        camera.position.set( x , y , z );
+        if ( lookAtOrigin ) {
+            lookAt( camera , new Vector3( 0 , 0 , 0 ) );
+        }
+        camera.near = 0.1f;
+        camera.far = 1000f;
+        camera.update(true);
+        return camera;
+    }
+    
+    /**
+     * Points a camera so that a given world-space location ends up in the center of the screen.
+     * 
+     * @param camera
+     * @param target
+     */
+    public static void lookAt(PerspectiveCamera camera,Vector3 target) 
+    {
+        camera.up.set( Vector3.Y );
+        camera.lookAt( target );
+        
+        /*
+         * Axis#worldToScreen() maps the bottom-left corner of the view frustum 
+         * to the center of the screen so we need to aim the camera upwards and to 
+         * the right to get the target centered.
+         */
+        final float halfFovY = camera.fieldOfView / 2f;
+        final float halfFovX = (float) Math.toDegrees( Math.atan( Math.tan( Math.toRadians( halfFovY ) ) * camera.viewportWidth / camera.viewportHeight ) );
+        final Vector3 right = camera.direction.cpy().crs( camera.up ).nor();
+        camera.direction.rotate( camera.up , -halfFovX );
+        camera.direction.rotate( right , halfFovY );
+        camera.up.set( right ).crs( camera.direction ).nor();
+    }
+}
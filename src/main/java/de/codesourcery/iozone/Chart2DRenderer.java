@@ -1,11 +1,17 @@
 package de.codesourcery.iozone;
 
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
@@ -14,9 +20,11 @@ import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.labels.StandardXYItemLabelGenerator;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYDataset;
 import org.jfree.data.xy.XYSeriesCollection;
 
 import de.codesourcery.iozone.IOZoneFileParser.FileEntry;
@@ -25,12 +33,20 @@ import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
 
 public class Chart2DRenderer 
 {
+    protected static final int IMAGE_WIDTH = 640;
+    protected static final int IMAGE_HEIGHT = 480;
+    
+    // approximate space taken up by axes, title and legend
+    private static final int PLOT_INSETS = 100;
+    
+    private static final int LABEL_GAP = 2;
+    
     public static void main(String[] args) throws FileNotFoundException, IOException
     {
         //Get the workbook instance for XLS file
         final IOZoneReader ioReader = Chart3DViewer.loadReports();
 
-        final ChartPanel p = new ChartPanel( createChart( ioReader.getReport("Reader report") ) );
+        final ChartPanel p = new ChartPanel( createChart( ioReader.getReport("Reader report") , ChartPanel.DEFAULT_WIDTH , ChartPanel.DEFAULT_HEIGHT ) );
         
         final JFrame frame = new JFrame();
         frame.setDefaultCloseOperation( JFrame.EXIT_ON_CLOSE );
@@ -47,32 +63,123 @@ public class Chart2DRenderer
         final BufferedImage image = renderImage(report);
         final String fileName = report.reportName.replace(" ","_")+".png";
         final File outputFile = new File( outputDir , fileName );
-        ImageIO.write( image , "png" , outputFile );
+        new PNGEncoder().write( image , outputFile );
         System.out.println("Image written to "+outputFile );
     }
 
     public static BufferedImage renderImage(final IOZoneReport report) throws IOException 
     {
-        return toImage( createChart(report) );
+        return toImage( createChart(report,IMAGE_WIDTH,IMAGE_HEIGHT) );
     }
 
-    private static JFreeChart createChart(final IOZoneReport report) 
+    /**
+     * Item label generator that suppresses labels which would overlap labels of 
+     * items that come earlier in the dataset.
+     * 
+     * Label positions are estimated from the data range and the approximate plot size
+     * since the actual axis ranges are not known before the chart gets drawn.
+     */
+    private static final class FittingLabelGenerator extends StandardXYItemLabelGenerator 
+    {
+        private static final long serialVersionUID = 1L;
+
+        private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext( null , false , false );
+        
+        private final boolean[][] visible;
+        
+        public FittingLabelGenerator(XYDataset dataset,Font font,int plotWidth,int plotHeight) 
+        {
+            double minX = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double minY = 0; // range axis includes zero
+            double maxY = Double.NEGATIVE_INFINITY;
+            for ( int series = 0 ; series < dataset.getSeriesCount() ; series++ ) 
+            {
+                for ( int item = 0 ; item < dataset.getItemCount( series ) ; item++ ) 
+                {
+                    if ( Double.isNaN( dataset.getYValue( series , item ) ) ) {
+                        continue; // gap marker for missing cells
+                    }
+                    minX = Math.min( minX , dataset.getXValue( series , item ) );
+                    maxX = Math.max( maxX , dataset.getXValue( series , item ) );
+                    minY = Math.min( minY , dataset.getYValue( series , item ) );
+                    maxY = Math.max( maxY , dataset.getYValue( series , item ) );
+                }
+            }
+            final double xScale = maxX > minX ? plotWidth / (maxX - minX) : 0;
+            final double yScale = maxY > minY ? plotHeight / (maxY - minY) : 0;
+            
+            final List<Rectangle2D> placed = new ArrayList<>();
+            visible = new boolean[ dataset.getSeriesCount() ][];
+            for ( int series = 0 ; series < dataset.getSeriesCount() ; series++ ) 
+            {
+                visible[series] = new boolean[ dataset.getItemCount( series ) ];
+                for ( int item = 0 ; item < visible[series].length ; item++ ) 
+                {
+                    if ( Double.isNaN( dataset.getYValue( series , item ) ) ) {
+                        continue;
+                    }
+                    final Rectangle2D bounds = font.getStringBounds( super.generateLabel( dataset , series , item ) , FONT_RENDER_CONTEXT );
+                    final double x = ( dataset.getXValue( series , item ) - minX ) * xScale;
+                    final double y = plotHeight - ( dataset.getYValue( series , item ) - minY ) * yScale;
+                    // labels are centered above their item
+                    final Rectangle2D label = new Rectangle2D.Double( x - bounds.getWidth()/2 , y - bounds.getHeight() - LABEL_GAP , bounds.getWidth() + LABEL_GAP , bounds.getHeight() );
+                    if ( placed.stream().noneMatch( label::intersects ) ) 
+                    {
+                        placed.add( label );
+                        visible[series][item] = true;
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public String generateLabel(XYDataset dataset, int series, int item) 
+        {
+            return visible[series][item] ? super.generateLabel( dataset , series , item ) : null;
+        }
+    }
+    
+    private static JFreeChart createChart(final IOZoneReport report,int width,int height) 
     {
         final XYSeriesCollection xyDataset = new XYSeriesCollection();
         String title = report.reportName;
         String xAxisLabel = "Transfer size in kb";
         String yAxisLabel = "MB/s";
 
+        // more than one point per pixel column just costs rendering time
+        final int plotWidth = Math.max( 1 , width - PLOT_INSETS );
+        final int plotHeight = Math.max( 1 , height - PLOT_INSETS );
         for ( int fileSize : report.getFileSizes() )
         {
             final FileEntry fileEntry = report.getFileEntry( fileSize );
 
+            // missing cells are left out, missingBefore[i] counts the ones in front of point i
+            final double[] x = new double[ fileEntry.values.length ];
+            final double[] y = new double[ fileEntry.values.length ];
+            final int[] missingBefore = new int[ fileEntry.values.length ];
+            int len = 0;
+            for ( int i = 0 , missing = 0 ; i < fileEntry.values.length ; i++ )
+            {
+                if ( ! fileEntry.hasValue( i ) ) {
+                    missing++;
+                    continue;
+                }
+                x[len] = report.recordLengths[i];
+                y[len] = fileEntry.values[i]/(1024f*1024f); // value is in bytes/second
+                missingBefore[len++] = missing;
+            }
+            
             final XYSeries s1 = new XYSeries( fileEntry.fileSize+"k" );
-            for ( int i = 0 ; i < fileEntry.values.length ; i++ )
+            int previous = -1;
+            for ( int i : Downsampler.lttb( Arrays.copyOf( x , len ) , Arrays.copyOf( y , len ) , plotWidth ) ) 
             {
-                final int recordLen = report.recordLengths[i];
-                final int value = fileEntry.values[i]; // value is in bytes/second
-                s1.add( recordLen , value/(1024f*1024f) );
+                // break the line where cells are missing instead of connecting across them
+                if ( previous != -1 && missingBefore[i] != missingBefore[previous] ) {
+                    s1.add( ( x[previous] + x[i] ) / 2 , null , false );
+                }
+                s1.add( x[i] , y[i] , false );
+                previous = i;
             }
             xyDataset.addSeries( s1 );
         }
@@ -88,15 +195,32 @@ public class Chart2DRenderer
         renderer.setSeriesShapesVisible( 0 , true );
         renderer.setSeriesItemLabelsVisible( 0 , true );
         renderer.setBaseItemLabelsVisible( true );
+        renderer.setBaseItemLabelGenerator( new FittingLabelGenerator( xyDataset , renderer.getBaseItemLabelFont() , plotWidth , plotHeight ) );
 
         chart.getXYPlot().setRenderer( renderer );
         return chart;
     }
 
+    /**
+     * Renders a report as PNG.
+     * 
+     * @param report
+     * @param width
+     * @param height
+     * @return PNG-encoded image
+     * @throws IOException
+     */
+    public static byte[] renderPNG(final IOZoneReport report,int width,int height) throws IOException 
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChartUtilities.writeChartAsPNG(out, createChart(report,width,height), width , height );
+        return out.toByteArray();
+    }
+
     private static BufferedImage toImage(JFreeChart chart) throws IOException
     {
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ChartUtilities.writeChartAsPNG(out, chart, 640 , 480 );
+        ChartUtilities.writeChartAsPNG(out, chart, IMAGE_WIDTH , IMAGE_HEIGHT );
 
         return ImageIO.read( new ByteArrayInputStream( out.toByteArray() ) );
     }
@@ -1,5 +1,6 @@
 package de.codesourcery.iozone;
 
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -7,23 +8,35 @@ import java.awt.Point;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.ToolTipManager;
 
 import com.badlogic.gdx.graphics.PerspectiveCamera;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
 
-import de.codesourcery.iozone.IOZoneFileParser.CsvReader;
 import de.codesourcery.iozone.IOZoneFileParser.IOZoneReader;
 import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
 import de.codesourcery.iozone.Mesh.Quad;
+import de.codesourcery.iozone.ReportDiff.ReportDelta;
+import de.codesourcery.iozone.ReportIndex.ReportInfo;
 
 public class Chart3DViewer
 {
@@ -31,11 +44,59 @@ public class Chart3DViewer
     protected static final float ROT = 1.25f;
     protected static final float MOUSE_ROT_DEG_PER_PIXEL = 0.1f;
     
+    /**
+     * Time in milliseconds without user input after which a
+     * full-quality frame gets rendered.
+     */
+    protected static final int REFINE_DELAY_MILLIS = Integer.getInteger( "iozone.refineDelayMillis" , 150 );
+    
+    /**
+     * Whether the frame-time overlay is shown initially, may be toggled by pressing 'h'.
+     */
+    protected static final boolean SHOW_HUD = Boolean.getBoolean( "iozone.hud" );
+    
+    /**
+     * File every camera movement gets appended to, for replaying it with {@link FrameBudgetCheck}.
+     */
+    protected static final String RECORD_CAMERA_PATH = System.getProperty( "iozone.recordCameraPath" );
+    
+    /**
+     * Whether to mark performance cliffs and saturation points found by {@link KneeDetector} on all charts.
+     */
+    protected static final boolean SHOW_KNEES = Boolean.getBoolean( "iozone.showKnees" );
+    
     protected static final class MyPanel extends JPanel
     {
         private final PerspectiveCamera camera;
         
-        private final List<IOZone3DChart> charts;
+        private final ChartManager chartManager;
+        
+        private final BoundingBox placeholder = new BoundingBox();
+        
+        // labels placed in the current frame, overlapping labels are skipped
+        private final LabelOccupancy labelOccupancy = new LabelOccupancy();
+        
+        private RenderQuality quality = RenderQuality.FULL;
+        
+        // quads of the last frame, used to look up tooltips without re-rendering the scene
+        private final PickingGrid pickingGrid = new PickingGrid();
+        private final List<IOZone3DChart> renderedCharts = new ArrayList<>();
+        
+        private final FrameStats frameStats = new FrameStats();
+        private boolean showHud = SHOW_HUD;
+        
+        // reports still being loaded in the background, if any
+        private ReportLoader loader;
+        
+        // keeps the progress display up-to-date while parsing between two reports
+        private final Timer progressTimer = new Timer( 250 , ev -> repaint() );
+        
+        // restarted on every input event, fires once the user stopped interacting 
+        private final Timer refineTimer = new Timer( REFINE_DELAY_MILLIS , ev -> 
+        {
+            quality = RenderQuality.FULL;
+            repaint();
+        });
         
         private final MouseAdapter mouseAdapter = new MouseAdapter() 
         {
@@ -55,8 +116,7 @@ public class Chart3DViewer
                 camera.direction.rotate(camera.up, deltaX);
                 tmp.set(camera.direction).crs(camera.up).nor();
                 camera.direction.rotate(tmp, deltaY);
-                camera.update(true);
-                repaint();
+                cameraChanged();
             }
             
             public void mouseWheelMoved(java.awt.event.MouseWheelEvent e) 
@@ -98,11 +158,47 @@ public class Chart3DViewer
                     case '-': moveDown(); break;
                     case 'q': rotLeft(); break;
                     case 'e': rotRight(); break;
+                    case 'h': 
+                        showHud = ! showHud; 
+                        repaint(); 
+                        break;
+                    case 'r': 
+                        frameStats.reset(); 
+                        repaint(); 
+                        break;
                     default:
                 }
             }
+            
+            @Override
+            public void keyPressed(KeyEvent e) 
+            {
+                if ( e.getKeyCode() == KeyEvent.VK_ESCAPE && loader != null ) {
+                    loader.cancel();
+                }
+            }
         };
         
+        /**
+         * Shows loading progress until the loader finished, pressing ESC cancels loading.
+         * 
+         * @param loader
+         */
+        public void setLoader(ReportLoader loader) 
+        {
+            this.loader = loader;
+            progressTimer.start();
+        }
+        
+        /**
+         * Stops showing loading progress.
+         */
+        public void loadingFinished() 
+        {
+            progressTimer.stop();
+            repaint();
+        }
+        
 
         private void rotLeft() { rot(-ROT); }
 
@@ -125,8 +221,7 @@ public class Chart3DViewer
             final Vector3 tmp = camera.direction.cpy();
             tmp.scl( offset );
             camera.position.add( tmp );
-            camera.update(true);
-            repaint();
+            cameraChanged();
         }
 
         private void moveX(float offset)
@@ -136,15 +231,13 @@ public class Chart3DViewer
             tmp.nor();
             tmp.scl( offset );
             camera.position.add( tmp );
-            camera.update(true);
-            repaint();
+            cameraChanged();
         }
 
         private void rot(float deg)
         {
             camera.direction.rotate( camera.up , deg );
-            camera.update(true);
-            repaint();
+            cameraChanged();
         }
 
         private void moveY(float offset)
@@ -152,13 +245,35 @@ public class Chart3DViewer
             final Vector3 tmp = camera.up.cpy();
             tmp.scl( offset );
             camera.position.add( tmp );
-            camera.update(true);
-            repaint();
+            cameraChanged();
         }        
 
-        public MyPanel(List<IOZone3DChart> charts)
+        private void cameraChanged() 
         {
-            this.charts = new ArrayList<>(charts);
+            camera.update(true);
+            
+            if ( RECORD_CAMERA_PATH != null ) 
+            {
+                try {
+                    CameraPath.append( new File( RECORD_CAMERA_PATH ) , camera );
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            
+            // render coarse frames while the camera is moving and schedule a refinement pass, 
+            // new input restarts the timer and thus cancels any pending refinement
+            quality = RenderQuality.DRAFT;
+            refineTimer.restart();
+            repaint();
+        }
+        
+        public MyPanel(ChartManager chartManager)
+        {
+            refineTimer.setRepeats( false );
+            ToolTipManager.sharedInstance().registerComponent( this );
+
+            this.chartManager = chartManager;
             
             setMinimumSize(new Dimension(640,480));
             setPreferredSize(new Dimension(640,480));
@@ -180,32 +295,105 @@ public class Chart3DViewer
             addKeyListener( keyListener);
         }
 
+        @Override
+        public String getToolTipText(MouseEvent event) 
+        {
+            final Quad quad = pickingGrid.pick( event.getX() , event.getY() );
+            if ( quad != null ) 
+            {
+                for ( int i = 0 , len = renderedCharts.size() ; i < len ; i++ ) 
+                {
+                    final String text = renderedCharts.get(i).getToolTip( quad , event.getX() , event.getY() );
+                    if ( text != null ) {
+                        return text;
+                    }
+                }
+            }
+            return null;
+        }
+        
         @Override
         protected void paintComponent(Graphics g) 
         {
-            long time = -System.currentTimeMillis();
+            frameStats.beginFrame();
             super.paintComponent(g);
             
+            // Swing already double-buffers this component, render straight into its buffer
             final Graphics2D gfx = (Graphics2D) g;
 
+            final List<IOZone3DChart> charts = chartManager.getVisibleCharts( camera );
             final List<Quad> groundQuads = new ArrayList<>();
             for ( int i = 0, len = charts.size() ; i < len ; i++ ) 
             {
                 final IOZone3DChart chart = charts.get(i);
-                chart.toQuads(camera, gfx,groundQuads);
-                chart.renderAxis(camera, gfx);
+                chart.toQuads(camera, gfx,groundQuads,quality,frameStats);
+                
+                // labels only get placed once, on top of the surface
+                final long start = System.nanoTime();
+                chart.renderAxisLines(camera, gfx,quality);
+                frameStats.add( FrameStats.Phase.TEXT , System.nanoTime() - start );
             }
             
-            Mesh.renderQuads( groundQuads , camera , gfx );
+            pickingGrid.reset( getWidth() , getHeight() );
+            Mesh.renderQuads( groundQuads , camera , gfx , quality.drawOutlines , pickingGrid , frameStats );
+            renderedCharts.clear();
+            renderedCharts.addAll( charts );
             
+            long start = System.nanoTime();
+            labelOccupancy.reset( getWidth() , getHeight() );
             for ( int i = 0, len = charts.size() ; i < len ; i++ ) 
             {
                 final IOZone3DChart chart = charts.get(i);
-                chart.renderAxis(camera, gfx);
+                chart.renderAxis(camera, gfx,quality,labelOccupancy);
             }            
+            frameStats.add( FrameStats.Phase.TEXT , System.nanoTime() - start );
+            
+            if ( chartManager.getPlaceholderBounds( placeholder ) != null ) {
+                renderPlaceholder( gfx );
+            }
             
-            time += System.currentTimeMillis();
-            System.out.println("Rendering "+groundQuads.size()+" quads in "+time+" ms");            
+            frameStats.endFrame( groundQuads.size() , charts.size() , quality );
+            
+            if ( showHud ) {
+                frameStats.drawOverlay( gfx , 10 , 10 );
+            }
+            if ( loader != null && ! loader.isDone() ) 
+            {
+                final double progress = loader.getProgress();
+                final String text = loader.isCancelled() ? "Cancelling..." : 
+                    "Loading reports"+( progress >= 0 ? " "+(int) (progress*100)+"%" : "" )+" ("+loader.getReportCount()+" so far), press ESC to cancel";
+                g.setColor( Color.BLACK );
+                g.drawString( text , 10 , getHeight() - 10 );
+            }
+        }
+        
+        // wireframe box where the chart of the next report is going to appear
+        private void renderPlaceholder(Graphics2D gfx) 
+        {
+            final Vector3[] corners = new Vector3[8];
+            for ( int i = 0 ; i < 8 ; i++ ) 
+            {
+                corners[i] = new Vector3( ( i & 1 ) == 0 ? placeholder.min.x : placeholder.max.x , 
+                                          ( i & 2 ) == 0 ? placeholder.min.y : placeholder.max.y , 
+                                          ( i & 4 ) == 0 ? placeholder.min.z : placeholder.max.z );
+                corners[i].mul( camera.view );
+                if ( corners[i].z >= -camera.near ) {
+                    return; // (partially) behind the camera
+                }
+                Axis.worldToScreen( corners[i] , camera );
+            }
+            gfx.setColor( Color.LIGHT_GRAY );
+            for ( int i = 0 ; i < 8 ; i++ ) 
+            {
+                for ( int bit = 1 ; bit < 8 ; bit <<= 1 ) 
+                {
+                    if ( ( i & bit ) == 0 ) {
+                        gfx.drawLine( (int) corners[i].x , (int) corners[i].y , (int) corners[i | bit].x , (int) corners[i | bit].y );
+                    }
+                }
+            }
+            gfx.setColor( Color.GRAY );
+            gfx.drawString( "Loading..." , (int) corners[2].x , (int) corners[2].y - 5 );
         }
     }
     
@@ -215,19 +403,65 @@ public class Chart3DViewer
     }
 
     public static IOZoneReader loadReportsFromClasspath(String file) throws IOException 
+    {
+        return loadReportsFromClasspath( file , ReportSelection.ALL );
+    }
+
+    public static IOZoneReader loadReportsFromClasspath(String file,ReportSelection selection) throws IOException 
     {
         try ( final InputStream in = Chart3DViewer.class.getResourceAsStream(file ) ) {
             if ( in == null ) {
                 throw new FileNotFoundException( "classpath:"+file);
             }
-            return loadReports( in );
+            return loadReports( in , selection , null );
+        }
+    }
+
+    public static IOZoneReader loadReports(File file) throws IOException 
+    {
+        return loadReports( file , ReportSelection.ALL );
+    }
+    
+    public static IOZoneReader loadReports(File file,ReportSelection selection) throws IOException 
+    {
+        try ( final InputStream in = new FileInputStream( file ) ) {
+            return loadReports( in , selection , null );
+        } 
+        catch(RuntimeException e) {
+            throw new RuntimeException("Failed to parse "+file.getAbsolutePath()+": "+e.getMessage(),e);
         }
     }
 
     public static IOZoneReader loadReports(InputStream in) throws IOException 
     {
-        final CsvReader csvReader = new CsvReader( in );
-        return new IOZoneReader( csvReader );
+        return loadReports( in , null );
+    }
+
+    /**
+     * Parses reports, handing off each one as soon as it has been read.
+     * 
+     * @param in input, gzip- or xz-compressed input gets decompressed on the fly
+     * @param listener invoked on the calling thread with every parsed report, may be <code>null</code>
+     * @return
+     * @throws IOException
+     */
+    public static IOZoneReader loadReports(InputStream in,Consumer<IOZoneReport> listener) throws IOException 
+    {
+        return loadReports( in , ReportSelection.ALL , listener );
+    }
+    
+    /**
+     * Parses selected reports, handing off each one as soon as it has been read.
+     * 
+     * @param in input, gzip- or xz-compressed input gets decompressed on the fly
+     * @param selection reports, file sizes and record lengths to load
+     * @param listener invoked on the calling thread with every parsed report, may be <code>null</code>
+     * @return
+     * @throws IOException
+     */
+    public static IOZoneReader loadReports(InputStream in,ReportSelection selection,Consumer<IOZoneReport> listener) throws IOException 
+    {
+        return new IOZoneReader( CompressedInput.decode( in ) , selection , listener );
     }
     
     public static void main(String[] args) throws IOException
@@ -235,53 +469,131 @@ public class Chart3DViewer
         final JFrame frame = new JFrame();
         frame.setDefaultCloseOperation( JFrame.EXIT_ON_CLOSE );
         
-        List<IOZoneReport> reports = loadReports().getReports();
-        
-        System.out.println("Loaded "+reports.size()+" reports");
-        
-        // >>>>>> TODO: remove this debug code <<<<<<<
-//        reports = reports.stream().limit(1).collect( Collectors.toList() );
-        
-        // arrange charts in a 3D table
-        final int chartWidth  = 100;
-        final int chartHeight = 100;
-        
-        final int gapWidth = 10;
-        final int gapHeight = 10;
+        // only selected reports get parsed and turned into charts
+        final ReportSelection selection = ReportSelection.fromSystemProperties();
+        if ( selection != ReportSelection.ALL ) {
+            System.out.println("Selected "+selection);
+        }
         
-        final int chartsPerRow = 4;
-        final int rows = Math.max(1, reports.size()/chartsPerRow);
+        if ( ( args.length == 2 || args.length == 3 ) && "--split".equals( args[0] ) ) 
+        {
+            // first <count> reports side by side, one viewport each
+            final List<IOZoneReport> reports = args.length == 3 ? loadReports( new File( args[2] ) , selection ).getReports() : loadReportsFromClasspath( "/iozone.txt" , selection ).getReports();
+            final int count = Math.min( Integer.parseInt( args[1] ) , reports.size() );
+            frame.getContentPane().add( new SplitScreenPanel( reports.subList( 0 , count ) ) );
+            frame.pack();
+            frame.setVisible(true);
+            frame.setLocationRelativeTo( null );
+            return;
+        }
         
-        final List<IOZone3DChart> charts=new ArrayList<>();
-        int ptr = 0;
-        for ( int y = 0 ; y < rows && ptr < reports.size() ; y ++ ) 
+        // charts are arranged in a 3D table and created lazily once they become visible
+        final Function<IOZoneReport,IOZone3DChart> chartFactory = SHOW_KNEES ? KneeDetector::createChart : IOZone3DChart::new;
+        final ChartManager chartManager;
+        final List<File> files = new ArrayList<>();
+        ReportLoader loader = null;
+        if ( args.length == 3 && "--diff".equals( args[0] ) ) 
         {
-            for ( int x = 0 ; x < chartsPerRow && ptr < reports.size() ; x++ ) 
-            {
-                final IOZoneReport report = reports.get( ptr++ );
-                final IOZone3DChart chart = new IOZone3DChart( report );
-                final int xOffset;
-                if ( x > 0 ) {
-                    xOffset = x*chartWidth+(x-1)*gapWidth;
-                } else {
-                    xOffset = 0;
-                }
-                final int yOffset;
-                if ( y > 0 ) {
-                    yOffset = y*chartHeight+(y-1)*gapHeight;
-                } else {
-                    yOffset = 0;
-                }                
-                System.out.println("Chart "+report.reportName+" is at ("+xOffset+", -"+yOffset+")");
-                chart.modelMatrix.setToTranslation( xOffset ,-yOffset , 0 );
-                charts.add(chart);
+            final List<IOZoneReport> reports = ReportDiff.compare( loadReports( new File( args[1] ) , selection ) , loadReports( new File( args[2] ) , selection ) )
+                    .stream().map( ReportDelta::toReport ).collect( Collectors.toList() );
+            System.out.println("Compared "+reports.size()+" reports");
+            chartManager = new ChartManager( reports , ReportDiff::createChart , ChartManager.DEFAULT_QUAD_BUDGET );
+        } 
+        else if ( ( args.length == 3 || args.length == 4 ) && "--index".equals( args[0] ) ) 
+        {
+            // only load matching reports, seeking directly to their location 
+            final ReportIndex index = new ReportIndex( new File( args[1] ) );
+            final List<IOZoneReport> reports = new ArrayList<>();
+            for ( ReportInfo info : index.query( args[2] , args.length == 4 ? args[3] : null , Long.MIN_VALUE , Long.MAX_VALUE ) ) {
+                reports.add( ReportIndex.load( info ) );
             }
+            System.out.println("Loaded "+reports.size()+" reports from index");
+            chartManager = new ChartManager( reports , chartFactory , ChartManager.DEFAULT_QUAD_BUDGET );
+        }
+        else 
+        {
+            // parse in the background after the window is shown, charts appear as their reports become available  
+            for ( String arg : args ) {
+                files.add( new File( arg ) );
+            }
+            loader = new ReportLoader( files , selection );
+            chartManager = new ChartManager( new ArrayList<>() , chartFactory , ChartManager.DEFAULT_QUAD_BUDGET );
+            chartManager.setLoading( true );
         }
 
-        frame.getContentPane().add( new MyPanel( charts ) );
-
+        final MyPanel panel = new MyPanel( chartManager );
+        frame.getContentPane().add( panel );
+        
         frame.pack();
         frame.setVisible(true);
         frame.setLocationRelativeTo( null );
+        
+        if ( loader != null ) 
+        {
+            final ReportLoader reportLoader = loader;
+            panel.setLoader( reportLoader );
+            reportLoader.start( report -> SwingUtilities.invokeLater( () -> 
+            {
+                chartManager.addReport( report );
+                panel.repaint();
+            }), () -> 
+            {
+                SwingUtilities.invokeLater( () -> 
+                {
+                    chartManager.setLoading( false );
+                    panel.loadingFinished();
+                });
+                if ( reportLoader.getFailure() != null ) {
+                    reportLoader.getFailure().printStackTrace();
+                    return;
+                }
+                System.out.println("Loaded "+reportLoader.getReportCount()+" reports"+( reportLoader.isCancelled() ? " (cancelled)" : "" ) );
+                if ( ! files.isEmpty() && ! reportLoader.isCancelled() ) 
+                {
+                    // results files get reloaded whenever they change
+                    try {
+                        watch( new ResultsWatcher( reportLoader.getReportsByFile() , selection ) , chartManager , panel );
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+    
+    private static void watch(ResultsWatcher watcher,ChartManager chartManager,MyPanel panel) 
+    {
+        watcher.start( reports -> 
+        {
+            final AtomicBoolean applied = new AtomicBoolean();
+            while ( ! applied.get() ) 
+            {
+                // build charts for changed reports off the EDT and swap them in between two frames
+                final ChartManager.Update update = chartManager.prepareUpdate( reports );
+                try 
+                {
+                    SwingUtilities.invokeAndWait( () -> 
+                    {
+                        // fails if the table changed in the meantime (e.g. reports still being appended), start over from the current state
+                        if ( chartManager.applyUpdate( update ) ) 
+                        {
+                            applied.set( true );
+                            panel.repaint();
+                        }
+                    });
+                } 
+                catch (InvocationTargetException e) {
+                    throw new RuntimeException( e.getCause() );
+                } 
+                catch (InterruptedException e) 
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if ( applied.get() ) {
+                    System.out.println("Reload changed "+update.getChangedCount()+" of "+reports.size()+" reports");
+                }
+            }
+        });
     }    
-}
\ No newline at end of file
+}
@@ -0,0 +1,386 @@
+package de.codesourcery.iozone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Arranges reports in a 3D table and creates the {@link IOZone3DChart} for a
+ * table cell only when the cell first enters the camera's view frustum.
+ *
+ * Charts of cells that are no longer visible are kept in an LRU cache and get
+ * released once the total number of cached quads exceeds the memory budget.
+ */
+public class ChartManager
+{
+    public static final int CHART_WIDTH  = 100;
+    public static final int CHART_HEIGHT = 100;
+
+    public static final int GAP_WIDTH = 10;
+    public static final int GAP_HEIGHT = 10;
+
+    public static final int CHARTS_PER_ROW = 4;
+
+    /**
+     * Default upper bound for the number of quads (summed over all meshes)
+     * of charts that are kept alive while being off-screen.
+     */
+    public static final int DEFAULT_QUAD_BUDGET = 250_000;
+
+    static {
+        // cameras may get updated before any chart has been created
+        Mesh.loadNativeLibrary();
+    }
+
+    // immutable, replaced as a whole by applyUpdate()
+    private volatile List<Cell> cells = new ArrayList<>();
+
+    // LRU order, least recently visible first
+    private final LinkedHashMap<Cell,IOZone3DChart> cache = new LinkedHashMap<>(16, 0.75f, true );
+
+    private final List<IOZone3DChart> visibleCharts = new ArrayList<>();
+
+    private final Function<IOZoneReport,IOZone3DChart> chartFactory;
+    private final int quadBudget;
+    private int cachedQuads;
+
+    // whether more reports are expected to get appended
+    private volatile boolean loading;
+
+    protected static final class Cell
+    {
+        public final IOZoneReport report;
+        public final Matrix4 modelMatrix;
+        public final BoundingBox bounds = new BoundingBox();
+
+        public int quadCount;
+
+        // whether the cell intersected the view frustum in the last frame, read by prepareUpdate()
+        public volatile boolean visible;
+
+        public Cell(IOZoneReport report,Matrix4 modelMatrix)
+        {
+            this.report = report;
+            this.modelMatrix = modelMatrix;
+            IOZone3DChart.estimateBounds( report , bounds );
+            bounds.mul( modelMatrix );
+        }
+
+        public IOZone3DChart createChart(Function<IOZoneReport,IOZone3DChart> chartFactory)
+        {
+            final IOZone3DChart chart = chartFactory.apply( report );
+            chart.modelMatrix.set( modelMatrix );
+            return chart;
+        }
+    }
+
+    public ChartManager(List<IOZoneReport> reports)
+    {
+        this(reports,IOZone3DChart::new,DEFAULT_QUAD_BUDGET);
+    }
+
+    public ChartManager(List<IOZoneReport> reports,Function<IOZoneReport,IOZone3DChart> chartFactory,int quadBudget)
+    {
+        this.chartFactory = chartFactory;
+        this.quadBudget = quadBudget;
+
+        final List<Cell> cells = new ArrayList<>( reports.size() );
+        for ( int i = 0 , len = reports.size() ; i < len ; i++ )
+        {
+            cells.add( createCell( reports.get(i) , i ) );
+        }
+        this.cells = cells;
+    }
+
+    private static Cell createCell(IOZoneReport report,int index)
+    {
+        final int x = index % CHARTS_PER_ROW;
+        final int y = index / CHARTS_PER_ROW;
+        return new Cell( report , new Matrix4().setToTranslation( xOffset( x ) , -yOffset( y ) , 0 ) );
+    }
+
+    /**
+     * A new set of reports along with pre-built charts for changed reports that are currently visible.
+     *
+     * @see ChartManager#prepareUpdate(List)
+     * @see ChartManager#applyUpdate(Update)
+     */
+    public static final class Update
+    {
+        private final List<Cell> previousCells;
+        private final List<Cell> cells = new ArrayList<>();
+        // unchanged reports that moved to a different table cell, new cell -> old cell
+        private final Map<Cell,Cell> movedCells = new HashMap<>();
+        private final Map<Cell,IOZone3DChart> newCharts = new LinkedHashMap<>();
+        private int changedCount;
+
+        private Update(List<Cell> previousCells) {
+            this.previousCells = previousCells;
+        }
+
+        /**
+         * Returns the number of reports that are new or whose content changed.
+         *
+         * @return
+         */
+        public int getChangedCount() {
+            return changedCount;
+        }
+    }
+
+    /**
+     * Prepares replacing the displayed reports, may be invoked from any thread.
+     *
+     * Reports are matched with the current ones by name. Unchanged reports keep their cached chart, even if
+     * reports got inserted or removed in front of them and they end up in a different table cell. Charts for
+     * changed reports are created right away (so that the expensive part happens on the calling thread) only if the
+     * report is currently visible, all others get created lazily once they enter the view.
+     *
+     * @param reports
+     * @return
+     */
+    public Update prepareUpdate(List<IOZoneReport> reports)
+    {
+        final List<Cell> current = this.cells;
+        final Update update = new Update( current );
+
+        final Map<String,List<Cell>> unmatched = new HashMap<>();
+        for ( Cell cell : current ) {
+            unmatched.computeIfAbsent( cell.report.reportName , key -> new ArrayList<>() ).add( cell );
+        }
+
+        // unchanged reports first so that a changed report never takes the place of an unchanged one with the same name
+        final Cell[] matches = new Cell[ reports.size() ];
+        for ( int i = 0 , len = reports.size() ; i < len ; i++ )
+        {
+            final IOZoneReport report = reports.get(i);
+            final List<Cell> candidates = unmatched.getOrDefault( report.reportName , Collections.emptyList() );
+            for ( Iterator<Cell> it = candidates.iterator() ; it.hasNext() ; )
+            {
+                final Cell candidate = it.next();
+                if ( candidate.report.contentEquals( report ) )
+                {
+                    matches[i] = candidate;
+                    it.remove();
+                    break;
+                }
+            }
+        }
+
+        for ( int i = 0 , len = reports.size() ; i < len ; i++ )
+        {
+            final Cell previous = matches[i];
+            if ( previous != null )
+            {
+                if ( i < current.size() && current.get(i) == previous ) {
+                    update.cells.add( previous );
+                } else {
+                    final Cell moved = createCell( previous.report , i );
+                    update.movedCells.put( moved , previous );
+                    update.cells.add( moved );
+                }
+                continue;
+            }
+
+            final IOZoneReport report = reports.get(i);
+            final Cell cell = createCell( report , i );
+            update.cells.add( cell );
+            update.changedCount++;
+
+            // older version of the same report
+            final List<Cell> candidates = unmatched.get( report.reportName );
+            final Cell replaced = candidates == null || candidates.isEmpty() ? null : candidates.remove(0);
+            if ( replaced != null && replaced.visible )
+            {
+                final IOZone3DChart chart = cell.createChart( chartFactory );
+                cell.quadCount = chart.sizeInQuads();
+                cell.visible = true;
+                update.newCharts.put( cell , chart );
+            }
+        }
+        return update;
+    }
+
+    /**
+     * Atomically replaces the displayed reports, must be invoked from the thread
+     * that renders the charts and in between frames.
+     *
+     * @param update
+     * @return <code>false</code> if the update was based on an outdated set of reports and has not been applied
+     */
+    public boolean applyUpdate(Update update)
+    {
+        if ( update.previousCells != this.cells ) {
+            return false;
+        }
+        for ( Map.Entry<Cell,Cell> entry : update.movedCells.entrySet() )
+        {
+            final Cell moved = entry.getKey();
+            final IOZone3DChart chart = cache.remove( entry.getValue() );
+            if ( chart != null )
+            {
+                chart.modelMatrix.set( moved.modelMatrix );
+                moved.quadCount = entry.getValue().quadCount;
+                moved.visible = entry.getValue().visible;
+                cache.put( moved , chart );
+            }
+        }
+        final Set<Cell> retained = new HashSet<>( update.cells );
+        final Iterator<Map.Entry<Cell, IOZone3DChart>> it = cache.entrySet().iterator();
+        while ( it.hasNext() )
+        {
+            final Cell cell = it.next().getKey();
+            if ( ! retained.contains( cell ) ) {
+                cachedQuads -= cell.quadCount;
+                it.remove();
+            }
+        }
+        for ( Map.Entry<Cell, IOZone3DChart> entry : update.newCharts.entrySet() ) {
+            cachedQuads += entry.getKey().quadCount;
+            cache.put( entry.getKey() , entry.getValue() );
+        }
+        this.cells = Collections.unmodifiableList( update.cells );
+        evict();
+        return true;
+    }
+
+    /**
+     * Appends a report to the table, must be invoked from the thread
+     * that renders the charts and in between frames.
+     *
+     * The chart is created lazily just like for reports passed to the constructor.
+     *
+     * @param report
+     */
+    public void addReport(IOZoneReport report)
+    {
+        final List<Cell> cells = new ArrayList<>( this.cells.size() + 1 );
+        cells.addAll( this.cells );
+        cells.add( createCell( report , cells.size() ) );
+        this.cells = Collections.unmodifiableList( cells );
+    }
+
+    /**
+     * Sets whether reports are still being loaded, while loading the table cell the next
+     * report is going to be placed in is reported by {@link #getPlaceholderBounds(BoundingBox)}.
+     *
+     * @param loading
+     */
+    public void setLoading(boolean loading) {
+        this.loading = loading;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Returns the approximate world-space bounds of the chart for the next report to be added.
+     *
+     * @param out
+     * @return <code>out</code> or <code>null</code> if no more reports are being loaded
+     */
+    public BoundingBox getPlaceholderBounds(BoundingBox out)
+    {
+        if ( ! loading ) {
+            return null;
+        }
+        final int index = cells.size();
+        final float x = xOffset( index % CHARTS_PER_ROW );
+        final float y = -yOffset( index / CHARTS_PER_ROW );
+        // the data of a chart is centered on its origin, the actual size depends on the report
+        final float halfWidth = CHART_WIDTH / 3f;
+        return out.set( new Vector3( x - halfWidth , y , -halfWidth ) , new Vector3( x + halfWidth , y + IOZone3DChart.DATA_Y_MAX_VALUE , halfWidth ) );
+    }
+
+    protected static int xOffset(int column) {
+        return column > 0 ? column*CHART_WIDTH+(column-1)*GAP_WIDTH : 0;
+    }
+
+    protected static int yOffset(int row) {
+        return row > 0 ? row*CHART_HEIGHT+(row-1)*GAP_HEIGHT : 0;
+    }
+
+    public int size() {
+        return cells.size();
+    }
+
+    public int getCachedChartCount() {
+        return cache.size();
+    }
+
+    /**
+     * Creates charts for all table cells, bypassing the cache.
+     * 
+     * @return
+     */
+    public List<IOZone3DChart> createAllCharts()
+    {
+        final List<IOZone3DChart> result = new ArrayList<>( cells.size() );
+        for ( Cell cell : cells ) {
+            result.add( cell.createChart( chartFactory ) );
+        }
+        return result;
+    }
+
+    /**
+     * Returns the charts whose table cells intersect the camera's view frustum, creating
+     * them on demand.
+     *
+     * @param camera camera, its frustum must be up-to-date (see {@link Camera#update()})
+     * @return visible charts, the list is reused by subsequent invocations
+     */
+    public List<IOZone3DChart> getVisibleCharts(Camera camera)
+    {
+        final List<Cell> cells = this.cells;
+        visibleCharts.clear();
+        for ( int i = 0 , len = cells.size() ; i < len ; i++ )
+        {
+            final Cell cell = cells.get(i);
+            cell.visible = camera.frustum.boundsInFrustum( cell.bounds );
+            if ( cell.visible )
+            {
+                IOZone3DChart chart = cache.get( cell );
+                if ( chart == null )
+                {
+                    chart = cell.createChart( chartFactory );
+                    cell.quadCount = chart.sizeInQuads();
+                    cachedQuads += cell.quadCount;
+                    cache.put( cell , chart );
+                }
+                visibleCharts.add( chart );
+            }
+        }
+        evict();
+        return visibleCharts;
+    }
+
+    private void evict()
+    {
+        final Iterator<Map.Entry<Cell, IOZone3DChart>> it = cache.entrySet().iterator();
+        while ( cachedQuads > quadBudget && it.hasNext() )
+        {
+            final Map.Entry<Cell, IOZone3DChart> entry = it.next();
+            // applyUpdate() re-inserts charts, so visible ones are not necessarily at the tail end
+            if ( ! entry.getKey().visible )
+            {
+                cachedQuads -= entry.getKey().quadCount;
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+
+/**
+ * Maps data values of a chart to colors.
+ */
+public interface ColorMap 
+{
+    /**
+     * 
+     * @param value data value
+     * @param minValue smallest data value of the chart 
+     * @param maxValue largest data value of the chart
+     * @return color, never <code>null</code>
+     */
+    public Color getColor(float value,float minValue,float maxValue);
+}
@@ -0,0 +1,223 @@
+package de.codesourcery.iozone;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.tukaani.xz.XZInputStream;
+
+/**
+ * Transparently decompresses gzip- and xz-compressed input.
+ *
+ * Compression is detected by the magic bytes at the start of the input so compressed results files
+ * can be passed anywhere plain ones are accepted, data gets decompressed while it is being parsed
+ * without ever being written to disk.
+ */
+public final class CompressedInput
+{
+    /**
+     * Size of read buffers and read-ahead chunks in bytes.
+     */
+    public static final int BUFFER_SIZE = Integer.getInteger( "iozone.inputBufferSize" , 1024*1024 );
+
+    /**
+     * Number of chunks a {@link #readAhead(Callable, ExecutorService) read-ahead} stream decodes in advance.
+     */
+    public static final int READ_AHEAD_CHUNKS = 4;
+
+    private static final byte[] GZIP_MAGIC = { (byte) 0x1f , (byte) 0x8b };
+    private static final byte[] XZ_MAGIC = { (byte) 0xfd , '7' , 'z' , 'X' , 'Z' , 0 };
+
+    // sentinel queued after the last chunk
+    private static final byte[] EOF = new byte[0];
+
+    private CompressedInput() {
+    }
+
+    /**
+     * Wraps a stream so that it yields decompressed data.
+     *
+     * @param in
+     * @return decompressing stream or a buffered stream returning the input as-is if it is not compressed
+     * @throws IOException
+     */
+    public static InputStream decode(InputStream in) throws IOException
+    {
+        final InputStream buffered = in.markSupported() ? in : new BufferedInputStream( in , BUFFER_SIZE );
+        final byte[] magic = new byte[ XZ_MAGIC.length ];
+        buffered.mark( magic.length );
+        int len = 0;
+        for ( int read ; len < magic.length && ( read = buffered.read( magic , len , magic.length - len ) ) != -1 ; ) {
+            len += read;
+        }
+        buffered.reset();
+
+        if ( startsWith( magic , len , GZIP_MAGIC ) ) {
+            return new GZIPInputStream( buffered , 64*1024 );
+        }
+        if ( startsWith( magic , len , XZ_MAGIC ) ) {
+            return new XZInputStream( buffered );
+        }
+        return buffered;
+    }
+
+    private static boolean startsWith(byte[] data,int len,byte[] prefix)
+    {
+        if ( len < prefix.length ) {
+            return false;
+        }
+        for ( int i = 0 ; i < prefix.length ; i++ )
+        {
+            if ( data[i] != prefix[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Opens and decodes an input on a background thread, up to {@link #READ_AHEAD_CHUNKS} chunks of decoded
+     * data are buffered ahead of the reader.
+     *
+     * @param source opens the (possibly compressed) input, invoked on the background thread
+     * @param executor executor to run the background thread on. The background thread blocks while the buffer is full,
+     * so executors with fewer threads than concurrently open streams will only start decoding a stream once another stream has been read completely
+     * @return decoded data, closing it stops the background thread
+     */
+    public static InputStream readAhead(Callable<InputStream> source,ExecutorService executor) {
+        return new ReadAheadInputStream( source , executor );
+    }
+
+    private static final class ReadAheadInputStream extends InputStream
+    {
+        // byte[] chunks, the EOF sentinel or the Throwable that aborted decoding
+        private final BlockingQueue<Object> chunks = new ArrayBlockingQueue<>( READ_AHEAD_CHUNKS );
+        private final Future<?> producer;
+
+        private byte[] current;
+        private int offset;
+        private boolean eof;
+        private IOException failure;
+
+        public ReadAheadInputStream(Callable<InputStream> source,ExecutorService executor)
+        {
+            producer = executor.submit( () ->
+            {
+                try
+                {
+                    try ( InputStream in = decode( source.call() ) )
+                    {
+                        while ( true )
+                        {
+                            final byte[] chunk = new byte[ BUFFER_SIZE ];
+                            int len = 0;
+                            try
+                            {
+                                for ( int read ; len < chunk.length && ( read = in.read( chunk , len , chunk.length - len ) ) != -1 ; ) {
+                                    len += read;
+                                }
+                            }
+                            catch(IOException e)
+                            {
+                                // the reader gets everything up to the error, just like when reading directly
+                                if ( len > 0 ) {
+                                    chunks.put( Arrays.copyOf( chunk , len ) );
+                                }
+                                throw e;
+                            }
+                            if ( len > 0 ) {
+                                chunks.put( len == chunk.length ? chunk : Arrays.copyOf( chunk , len ) );
+                            }
+                            if ( len < chunk.length ) {
+                                break;
+                            }
+                        }
+                    }
+                    chunks.put( EOF );
+                }
+                catch(InterruptedException e) {
+                    // reader closed the stream
+                }
+                catch(Throwable t)
+                {
+                    try {
+                        chunks.put( t );
+                    } catch (InterruptedException e) {
+                        // reader closed the stream
+                    }
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] tmp = new byte[1];
+            return read( tmp , 0 , 1 ) == -1 ? -1 : tmp[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if ( failure != null ) {
+                throw failure;
+            }
+            if ( len == 0 ) {
+                return 0;
+            }
+            if ( current == null || offset == current.length )
+            {
+                if ( eof || ! nextChunk() ) {
+                    return -1;
+                }
+            }
+            final int count = Math.min( len , current.length - offset );
+            System.arraycopy( current , offset , b , off , count );
+            offset += count;
+            return count;
+        }
+
+        private boolean nextChunk() throws IOException
+        {
+            final Object next;
+            try {
+                next = chunks.take();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if ( next == EOF )
+            {
+                eof = true;
+                return false;
+            }
+            if ( next instanceof Throwable )
+            {
+                failure = next instanceof IOException ? (IOException) next : new IOException( (Throwable) next );
+                throw failure;
+            }
+            current = (byte[]) next;
+            offset = 0;
+            return true;
+        }
+
+        @Override
+        public void close()
+        {
+            eof = true;
+            producer.cancel( true );
+            chunks.clear();
+        }
+    }
+}
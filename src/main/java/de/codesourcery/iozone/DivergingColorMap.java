@@ -0,0 +1,51 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+
+/**
+ * Color map for signed values: zero is white, negative values fade to red and
+ * positive values fade to blue.
+ * 
+ * The scale is symmetric around zero, using the larger of <code>|min|</code> and <code>|max|</code> as
+ * its limit.
+ */
+public class DivergingColorMap implements ColorMap
+{
+    private static final int STEPS = 16;
+    
+    // index 0 is the most negative value, STEPS is zero and 2*STEPS the most positive value
+    private final Color[] palette = new Color[ 2*STEPS+1 ];
+    
+    public DivergingColorMap() {
+        this( new Color( 0xb2182b ) , new Color( 0x2166ac ) );
+    }
+    
+    public DivergingColorMap(Color negative,Color positive) 
+    {
+        for ( int i = 0 ; i <= STEPS ; i++ ) 
+        {
+            final float t = i / (float) STEPS;
+            palette[ STEPS - i ] = mix( Color.WHITE , negative , t );
+            palette[ STEPS + i ] = mix( Color.WHITE , positive , t );
+        }
+    }
+    
+    private static Color mix(Color a,Color b,float t) 
+    {
+        final int red   = Math.round( a.getRed()   + ( b.getRed()   - a.getRed()   ) * t );
+        final int green = Math.round( a.getGreen() + ( b.getGreen() - a.getGreen() ) * t );
+        final int blue  = Math.round( a.getBlue()  + ( b.getBlue()  - a.getBlue()  ) * t );
+        return new Color( red , green , blue );
+    }
+    
+    @Override
+    public Color getColor(float value, float minValue, float maxValue) 
+    {
+        final float limit = Math.max( Math.abs( minValue ) , Math.abs( maxValue ) );
+        if ( limit == 0 ) {
+            return palette[ STEPS ];
+        }
+        final int step = Math.round( value / limit * STEPS );
+        return palette[ STEPS + Math.max( -STEPS , Math.min( STEPS , step ) ) ];
+    }
+}
@@ -0,0 +1,90 @@
+package de.codesourcery.iozone;
+
+/**
+ * Reduces the number of points of a line series while preserving its visual shape,
+ * using the Largest-Triangle-Three-Buckets algorithm (Steinarsson, 2013).
+ *
+ * The first and last point are always kept, the points in between are split into equally
+ * sized buckets and from every bucket the point that forms the largest triangle with the
+ * previously selected point and the average of the next bucket is picked. This keeps
+ * peaks and dips that min/max-agnostic averaging would smooth away.
+ */
+public final class Downsampler
+{
+    private Downsampler() {
+    }
+
+    /**
+     * Selects the points to keep.
+     *
+     * @param x x coordinates, sorted ascending
+     * @param y y coordinates
+     * @param threshold max. number of points to keep
+     * @return indices of the points to keep in ascending order, all indices if the series has no more than <code>threshold</code> points
+     */
+    public static int[] lttb(double[] x,double[] y,int threshold)
+    {
+        if ( x.length != y.length ) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length");
+        }
+        final int len = x.length;
+        if ( threshold >= len )
+        {
+            final int[] all = new int[ len ];
+            for ( int i = 0 ; i < len ; i++ ) {
+                all[i] = i;
+            }
+            return all;
+        }
+        if ( threshold < 3 ) {
+            return threshold <= 1 ? new int[] { 0 } : new int[] { 0 , len - 1 };
+        }
+
+        final int[] result = new int[ threshold ];
+        int resultCount = 0;
+
+        // first and last point are fixed, distribute the remaining ones over threshold-2 buckets
+        final double bucketSize = (len - 2) / (double) (threshold - 2);
+
+        int selected = 0;
+        result[ resultCount++ ] = 0;
+        for ( int bucket = 0 ; bucket < threshold - 2 ; bucket++ )
+        {
+            // average of the next bucket, the last point for the last bucket
+            final int nextStart = (int) Math.floor( (bucket + 1) * bucketSize ) + 1;
+            final int nextEnd = Math.min( (int) Math.floor( (bucket + 2) * bucketSize ) + 1 , len );
+            double avgX = 0;
+            double avgY = 0;
+            for ( int i = nextStart ; i < nextEnd ; i++ )
+            {
+                avgX += x[i];
+                avgY += y[i];
+            }
+            final int nextCount = nextEnd - nextStart;
+            avgX /= nextCount;
+            avgY /= nextCount;
+
+            final int start = (int) Math.floor( bucket * bucketSize ) + 1;
+            final int end = (int) Math.floor( (bucket + 1) * bucketSize ) + 1;
+
+            final double ax = x[ selected ];
+            final double ay = y[ selected ];
+            double maxArea = -1;
+            int maxIndex = start;
+            for ( int i = start ; i < end ; i++ )
+            {
+                // twice the triangle's area, the factor doesn't matter for comparisons
+                final double area = Math.abs( (ax - avgX) * (y[i] - ay) - (ax - x[i]) * (avgY - ay) );
+                if ( area > maxArea )
+                {
+                    maxArea = area;
+                    maxIndex = i;
+                }
+            }
+            result[ resultCount++ ] = maxIndex;
+            selected = maxIndex;
+        }
+        result[ resultCount++ ] = len - 1;
+        return result;
+    }
+}
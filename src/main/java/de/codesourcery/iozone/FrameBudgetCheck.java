@@ -0,0 +1,285 @@
+package de.codesourcery.iozone;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Replays a camera path headlessly and checks that rendering stays within
+ * allocation and frame-time budgets and still produces the same images.
+ *
+ * The regression check itself runs as part of the regular test suite (<code>FrameBudgetTest</code>),
+ * {@link #main(String[])} is meant for regenerating the reference images and for ad-hoc measurements.
+ *
+ * Budgets and golden images are configured through system properties:
+ * <ul>
+ * <li><code>iozone.budget.maxBytesPerFrame</code> - max. average number of bytes allocated per frame (default: unchecked)</li>
+ * <li><code>iozone.budget.maxFrameMillis</code> - max. 99th percentile frame time in milliseconds (default: unchecked)</li>
+ * <li><code>iozone.budget.quality</code> - {@link RenderQuality} to render with (default: FULL)</li>
+ * <li><code>iozone.budget.warmupPasses</code> - number of passes over the path before measuring (default: 3)</li>
+ * <li><code>iozone.budget.goldenDir</code> - directory with reference images (default: no image checks)</li>
+ * <li><code>iozone.budget.updateGolden</code> - write reference images instead of comparing them</li>
+ * <li><code>iozone.budget.goldenTolerance</code> - max. fraction of pixels that may differ (default: 0.001)</li>
+ * </ul>
+ *
+ * Exits with status 2 if any check fails.
+ */
+public class FrameBudgetCheck
+{
+    public static final int WIDTH = 640;
+    public static final int HEIGHT = 480;
+
+    /**
+     * Number of frames along the path that get compared against reference images.
+     */
+    public static final int GOLDEN_FRAMES = 8;
+
+    // colors of the data surface are random, golden images need them to be stable
+    public static final long DEFAULT_COLOR_SEED = 0x10201L;
+
+    private final List<IOZone3DChart> charts;
+    private final CameraPath path;
+    private final RenderQuality quality;
+
+    public FrameBudgetCheck(List<IOZone3DChart> charts,CameraPath path,RenderQuality quality)
+    {
+        if ( path.size() == 0 ) {
+            throw new IllegalArgumentException("Camera path must not be empty");
+        }
+        this.charts = charts;
+        this.path = path;
+        this.quality = quality;
+    }
+
+    public static final class Result
+    {
+        public final LatencyHistogram frameTimes = new LatencyHistogram();
+        public long frames;
+        public long allocatedBytes;
+        public long maxAllocatedBytes;
+
+        public double getBytesPerFrame() {
+            return frames == 0 ? 0 : allocatedBytes / (double) frames;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "%d frames, %.0f bytes/frame (max. %d), frame time p50 %.2f ms, p99 %.2f ms, max. %.2f ms" ,
+                    frames , getBytesPerFrame() , maxAllocatedBytes ,
+                    frameTimes.getValueAtQuantile( 0.5 ) / 1e6 ,
+                    frameTimes.getValueAtQuantile( 0.99 ) / 1e6 ,
+                    frameTimes.getMax() / 1e6 );
+        }
+    }
+
+    /**
+     * Renders the whole path the given number of times, only the last pass gets measured.
+     *
+     * @param passes
+     * @return
+     */
+    public Result measure(int passes)
+    {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final PerspectiveCamera camera = CameraPreset.DEFAULT.createCamera( WIDTH , HEIGHT );
+        final BufferedImage image = new BufferedImage( WIDTH , HEIGHT , BufferedImage.TYPE_INT_RGB );
+        final Graphics2D gfx = image.createGraphics();
+
+        // the counter itself may allocate, subtract that
+        final long overhead = -threads.getThreadAllocatedBytes( threadId ) + threads.getThreadAllocatedBytes( threadId );
+
+        Result result = null;
+        try
+        {
+            for ( int pass = 0 ; pass < passes ; pass++ )
+            {
+                result = new Result();
+                for ( int i = 0 , len = path.size() ; i < len ; i++ )
+                {
+                    path.apply( i , camera );
+                    gfx.setColor( SceneRenderer.BACKGROUND );
+                    gfx.fillRect( 0 , 0 , WIDTH , HEIGHT );
+
+                    final long bytes = threads.getThreadAllocatedBytes( threadId );
+                    final long start = System.nanoTime();
+                    SceneRenderer.render( charts , camera , gfx , quality );
+                    final long time = System.nanoTime() - start;
+                    final long allocated = Math.max( 0 , threads.getThreadAllocatedBytes( threadId ) - bytes - overhead );
+
+                    result.frames++;
+                    result.frameTimes.record( time );
+                    result.allocatedBytes += allocated;
+                    result.maxAllocatedBytes = Math.max( result.maxAllocatedBytes , allocated );
+                }
+            }
+        } finally {
+            gfx.dispose();
+        }
+        return result;
+    }
+
+    /**
+     * Checks a measurement against the budgets.
+     *
+     * @param result
+     * @param maxBytesPerFrame max. average number of bytes allocated per frame, negative values disable the check
+     * @param maxFrameMillis max. 99th percentile frame time in milliseconds, negative values disable the check
+     * @return descriptions of all exceeded budgets, empty if the measurement stayed within all budgets
+     */
+    public static List<String> checkBudgets(Result result,long maxBytesPerFrame,long maxFrameMillis)
+    {
+        final List<String> failures = new ArrayList<>();
+        if ( maxBytesPerFrame >= 0 && result.getBytesPerFrame() > maxBytesPerFrame ) {
+            failures.add( String.format( "Allocation budget exceeded: %.0f bytes/frame > %d bytes/frame" , result.getBytesPerFrame() , maxBytesPerFrame ) );
+        }
+        final double p99Millis = result.frameTimes.getValueAtQuantile( 0.99 ) / 1e6;
+        if ( maxFrameMillis >= 0 && p99Millis > maxFrameMillis ) {
+            failures.add( String.format( "Frame time budget exceeded: p99 %.2f ms > %d ms" , p99Millis , maxFrameMillis ) );
+        }
+        return failures;
+    }
+
+    protected int getGoldenFrame(int index) {
+        return (int) ( (long) index * path.size() / GOLDEN_FRAMES );
+    }
+
+    private static File goldenFile(File goldenDir,int frame) {
+        return new File( goldenDir , String.format( "frame_%05d.png" , frame ) );
+    }
+
+    private BufferedImage renderFrame(int frame)
+    {
+        final PerspectiveCamera camera = CameraPreset.DEFAULT.createCamera( WIDTH , HEIGHT );
+        path.apply( frame , camera );
+        return SceneRenderer.renderImage( charts , camera , quality );
+    }
+
+    public void writeGoldenImages(File goldenDir) throws IOException
+    {
+        goldenDir.mkdirs();
+        for ( int i = 0 ; i < GOLDEN_FRAMES ; i++ )
+        {
+            final int frame = getGoldenFrame( i );
+            ImageIO.write( renderFrame( frame ) , "png" , goldenFile( goldenDir , frame ) );
+        }
+    }
+
+    /**
+     * Compares frames against reference images.
+     *
+     * @param goldenDir
+     * @param tolerance max. fraction of pixels that may differ
+     * @return descriptions of all frames that did not match, empty if all frames matched
+     * @throws IOException
+     */
+    public List<String> compareGoldenImages(File goldenDir,double tolerance) throws IOException
+    {
+        final List<String> failures = new ArrayList<>();
+        for ( int i = 0 ; i < GOLDEN_FRAMES ; i++ )
+        {
+            final int frame = getGoldenFrame( i );
+            final File file = goldenFile( goldenDir , frame );
+            if ( ! file.exists() ) {
+                failures.add( "Missing reference image "+file.getAbsolutePath() );
+                continue;
+            }
+            final BufferedImage expected = ImageIO.read( file );
+            final BufferedImage actual = renderFrame( frame );
+            if ( expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight() ) {
+                failures.add( "Frame "+frame+": Size differs from "+file.getAbsolutePath() );
+                continue;
+            }
+            long differing = 0;
+            for ( int y = 0 ; y < actual.getHeight() ; y++ )
+            {
+                for ( int x = 0 ; x < actual.getWidth() ; x++ )
+                {
+                    if ( ( expected.getRGB( x , y ) & 0xffffff ) != ( actual.getRGB( x , y ) & 0xffffff ) ) {
+                        differing++;
+                    }
+                }
+            }
+            final double fraction = differing / (double) ( actual.getWidth() * actual.getHeight() );
+            if ( fraction > tolerance ) {
+                failures.add( String.format( "Frame %d: %d pixels (%.3f %%) differ from %s" , frame , differing , fraction*100 , file.getAbsolutePath() ) );
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Creates the default path used when none is given, a full orbit around the charts.
+     *
+     * @param charts
+     * @param frames
+     * @return
+     */
+    public static CameraPath createOrbit(List<IOZone3DChart> charts,int frames)
+    {
+        final TurntableExporter exporter = new TurntableExporter( charts );
+        exporter.width = WIDTH;
+        exporter.height = HEIGHT;
+        final CameraPath path = new CameraPath();
+        for ( int i = 0 ; i < frames ; i++ ) {
+            path.add( exporter.createCamera( i , frames ) );
+        }
+        return path;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 1 ) {
+            System.err.println("Usage: <results file> [<camera path file, default is an orbit around the charts>]");
+            System.exit(1);
+        }
+        System.setProperty( "java.awt.headless" , "true" );
+        if ( System.getProperty( "iozone.colorSeed" ) == null ) {
+            System.setProperty( "iozone.colorSeed" , Long.toString( DEFAULT_COLOR_SEED ) );
+        }
+
+        final List<IOZoneReport> reports = Chart3DViewer.loadReports( new File( args[0] ) ).getReports();
+        final List<IOZone3DChart> charts = new ChartManager( reports ).createAllCharts();
+        final CameraPath path = args.length > 1 ? CameraPath.load( new File( args[1] ) ) : createOrbit( charts , 120 );
+
+        final RenderQuality quality = RenderQuality.valueOf( System.getProperty( "iozone.budget.quality" , RenderQuality.FULL.name() ) );
+        final long maxBytesPerFrame = Long.getLong( "iozone.budget.maxBytesPerFrame" , -1 );
+        final long maxFrameMillis = Long.getLong( "iozone.budget.maxFrameMillis" , -1 );
+        final int warmupPasses = Integer.getInteger( "iozone.budget.warmupPasses" , 3 );
+        final String goldenDir = System.getProperty( "iozone.budget.goldenDir" );
+        final double tolerance = Double.parseDouble( System.getProperty( "iozone.budget.goldenTolerance" , "0.001" ) );
+
+        final FrameBudgetCheck check = new FrameBudgetCheck( charts , path , quality );
+        final Result result = check.measure( warmupPasses + 1 );
+        System.out.println( quality+": "+result );
+
+        final List<String> failures = checkBudgets( result , maxBytesPerFrame , maxFrameMillis );
+        if ( goldenDir != null )
+        {
+            if ( Boolean.getBoolean( "iozone.budget.updateGolden" ) ) {
+                check.writeGoldenImages( new File( goldenDir ) );
+                System.out.println("Wrote "+GOLDEN_FRAMES+" reference images to "+goldenDir);
+            } else {
+                failures.addAll( check.compareGoldenImages( new File( goldenDir ) , tolerance ) );
+            }
+        }
+
+        if ( ! failures.isEmpty() )
+        {
+            failures.forEach( System.err::println );
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+
+/**
+ * Collects per-phase render timings of consecutive frames.
+ *
+ * Timings of the current frame are accumulated via {@link #add(Phase, long)} and get
+ * recorded into one {@link LatencyHistogram} per phase when the frame ends. While a JFR recording
+ * has {@link RenderFrameEvent} enabled, every frame is also reported to JFR. JFR is optional, 
+ * on JVMs without the <code>jdk.jfr</code> module {@link RenderFrameEvent} never gets loaded.
+ *
+ * Instances are not thread-safe and meant to be used by the rendering thread only.
+ */
+public final class FrameStats
+{
+    private static final Color OVERLAY_BACKGROUND = new Color( 0 , 0 , 0 , 160 );
+    private static final Font OVERLAY_FONT = new Font( Font.MONOSPACED , Font.PLAIN , 11 );
+
+    public enum Phase
+    {
+        /** Transforming vertices and normals to view space, culling */
+        TRANSFORM("transform"),
+        /** Assigning colors to quads */
+        COLOR("color"),
+        /** Depth-sorting quads */
+        SORT("sort"),
+        /** Projecting and filling quads */
+        RASTER("raster"),
+        /** Axis lines and labels */
+        TEXT("axis/text");
+
+        public final String label;
+
+        private Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private static final boolean JFR_AVAILABLE = isJFRAvailable();
+
+    private final long[] frameNanos = new long[ PHASES.length ];
+    private final LatencyHistogram[] histograms = new LatencyHistogram[ PHASES.length ];
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    // only set while JFR records the event
+    private RenderFrameEvent event;
+    private long frameStart;
+
+    private int lastQuads;
+    private int lastCharts;
+    private RenderQuality lastQuality;
+
+    public FrameStats()
+    {
+        for ( int i = 0 ; i < histograms.length ; i++ ) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void beginFrame()
+    {
+        for ( int i = 0 ; i < frameNanos.length ; i++ ) {
+            frameNanos[i] = 0;
+        }
+        event = JFR_AVAILABLE ? RenderFrameEvent.beginIfEnabled() : null;
+        frameStart = System.nanoTime();
+    }
+
+    /**
+     * Adds time spent in a phase of the current frame, phases may be entered multiple times per frame.
+     *
+     * @param phase
+     * @param nanos
+     */
+    public void add(Phase phase,long nanos) {
+        frameNanos[ phase.ordinal() ] += nanos;
+    }
+
+    public void endFrame(int quadCount,int chartCount,RenderQuality quality)
+    {
+        total.record( System.nanoTime() - frameStart );
+        for ( int i = 0 ; i < frameNanos.length ; i++ ) {
+            histograms[i].record( frameNanos[i] );
+        }
+        lastQuads = quadCount;
+        lastCharts = chartCount;
+        lastQuality = quality;
+
+        if ( event != null )
+        {
+            event.end();
+            if ( event.shouldCommit() )
+            {
+                event.quality = quality.name();
+                event.charts = chartCount;
+                event.quads = quadCount;
+                event.transform = frameNanos[ Phase.TRANSFORM.ordinal() ];
+                event.color = frameNanos[ Phase.COLOR.ordinal() ];
+                event.sort = frameNanos[ Phase.SORT.ordinal() ];
+                event.raster = frameNanos[ Phase.RASTER.ordinal() ];
+                event.text = frameNanos[ Phase.TEXT.ordinal() ];
+                event.commit();
+            }
+            event = null;
+        }
+    }
+
+    private static boolean isJFRAvailable()
+    {
+        try {
+            Class.forName( "jdk.jfr.Event" , false , FrameStats.class.getClassLoader() );
+            return true;
+        } catch(ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms[ phase.ordinal() ];
+    }
+
+    public LatencyHistogram getFrameHistogram() {
+        return total;
+    }
+
+    public void reset()
+    {
+        for ( LatencyHistogram h : histograms ) {
+            h.reset();
+        }
+        total.reset();
+    }
+
+    /**
+     * Draws a table with p50/p99/max of all phases and the size of the last frame.
+     *
+     * @param gfx
+     * @param x left edge of the overlay
+     * @param y top edge of the overlay
+     */
+    public void drawOverlay(Graphics2D gfx,int x,int y)
+    {
+        final String[] lines = new String[ PHASES.length + 3 ];
+        lines[0] = String.format( "%-10s %8s %8s %8s" , "ms" , "p50" , "p99" , "max" );
+        for ( int i = 0 ; i < PHASES.length ; i++ ) {
+            lines[i+1] = format( PHASES[i].label , histograms[i] );
+        }
+        lines[ PHASES.length + 1 ] = format( "frame" , total );
+        lines[ PHASES.length + 2 ] = String.format( "%d quads, %d charts, %s, %d frames" , lastQuads , lastCharts , lastQuality , total.getCount() );
+
+        final Font oldFont = gfx.getFont();
+        gfx.setFont( OVERLAY_FONT );
+        final FontMetrics metrics = gfx.getFontMetrics();
+        int width = 0;
+        for ( String line : lines ) {
+            width = Math.max( width , metrics.stringWidth( line ) );
+        }
+        final int lineHeight = metrics.getHeight();
+        gfx.setColor( OVERLAY_BACKGROUND );
+        gfx.fillRect( x , y , width + 8 , lines.length * lineHeight + 8 );
+        gfx.setColor( Color.WHITE );
+        for ( int i = 0 ; i < lines.length ; i++ ) {
+            gfx.drawString( lines[i] , x + 4 , y + 4 + i * lineHeight + metrics.getAscent() );
+        }
+        gfx.setFont( oldFont );
+    }
+
+    private static String format(String label,LatencyHistogram histogram)
+    {
+        return String.format( "%-10s %8.2f %8.2f %8.2f" , label ,
+                histogram.getValueAtQuantile( 0.5 ) / 1e6 ,
+                histogram.getValueAtQuantile( 0.99 ) / 1e6 ,
+                histogram.getMax() / 1e6 );
+    }
+}
@@ -0,0 +1,155 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+
+import de.codesourcery.iozone.Mesh.Quad;
+
+/**
+ * Draws a scene using Java2D.
+ *
+ * Quads of a run get batched into a single path so there are only two Java2D calls
+ * per color run instead of two per quad.
+ */
+public class Graphics2DSink implements SceneSink
+{
+    private final Graphics2D gfx;
+    private final boolean drawOutlines;
+
+    // created on demand, sinks used only for labels never need them
+    private Path2D.Float fill;
+    private Path2D.Float outline;
+
+    private Color runColor;
+
+    // scratch buffers for Quad#toClockwise()
+    private final float[] corners = new float[8];
+    private final float[] polygons = new float[12];
+
+    /**
+     * Create instance.
+     *
+     * @param gfx
+     * @param drawOutlines whether to outline quads
+     */
+    public Graphics2DSink(Graphics2D gfx,boolean drawOutlines)
+    {
+        this.gfx = gfx;
+        this.drawOutlines = drawOutlines;
+    }
+
+    @Override
+    public void beginRun(Color color)
+    {
+        this.runColor = color;
+        if ( fill == null )
+        {
+            fill = new Path2D.Float( Path2D.WIND_NON_ZERO , 4*5*256 );
+            outline = new Path2D.Float( Path2D.WIND_NON_ZERO , 4*5*256 );
+        }
+    }
+
+    @Override
+    public void quad(Quad quad)
+    {
+        appendFill( quad );
+        if ( drawOutlines ) {
+            appendOutline( quad , outline );
+        }
+    }
+
+    private void appendFill(Quad quad)
+    {
+        // truncate to integer coordinates like fillPolygon(int[],int[],int) did
+        corners[0] = (int) quad.c0.x; corners[1] = (int) quad.c0.y;
+        corners[2] = (int) quad.c1.x; corners[3] = (int) quad.c1.y;
+        corners[4] = (int) quad.c2.x; corners[5] = (int) quad.c2.y;
+        corners[6] = (int) quad.c3.x; corners[7] = (int) quad.c3.y;
+        if ( Quad.toClockwise( corners , polygons ) == 1 ) {
+            appendPolygon( fill , polygons , 0 , 4 );
+        } else {
+            appendPolygon( fill , polygons , 0 , 3 );
+            appendPolygon( fill , polygons , 6 , 3 );
+        }
+    }
+
+    private static void appendPolygon(Path2D.Float path,float[] points,int offset,int count)
+    {
+        path.moveTo( points[offset] , points[offset+1] );
+        for ( int i = 1 ; i < count ; i++ ) {
+            path.lineTo( points[offset+2*i] , points[offset+2*i+1] );
+        }
+        path.closePath();
+    }
+
+    private static void appendOutline(Quad quad,Path2D.Float path)
+    {
+        path.moveTo( (int) quad.c0.x , (int) quad.c0.y );
+        path.lineTo( (int) quad.c1.x , (int) quad.c1.y );
+        path.lineTo( (int) quad.c2.x , (int) quad.c2.y );
+        path.lineTo( (int) quad.c3.x , (int) quad.c3.y );
+        path.closePath();
+    }
+
+    @Override
+    public void endRun()
+    {
+        if ( runColor != null )
+        {
+            gfx.setColor( runColor );
+            gfx.fill( fill );
+
+            // outlines are drawn per run so quads further to the front still hide them
+            if ( outline.getCurrentPoint() != null )
+            {
+                final Stroke oldStroke = gfx.getStroke();
+                gfx.setStroke( Mesh.OUTLINE_STROKE );
+                gfx.setColor( Mesh.OUTLINE_COLOR );
+                gfx.draw( outline );
+                gfx.setStroke( oldStroke );
+            }
+        }
+        fill.reset();
+        outline.reset();
+    }
+
+    @Override
+    public void line(int x0, int y0, int x1, int y1, Color color)
+    {
+        gfx.setColor( color );
+        gfx.drawLine( x0 , y0 , x1 , y1 );
+    }
+
+    @Override
+    public void text(String text, int x, int y, Font font, Color color)
+    {
+        final Font oldFont = gfx.getFont();
+        gfx.setColor( color );
+        gfx.setFont( font );
+        gfx.drawString( text , x , y );
+        gfx.setFont( oldFont );
+    }
+
+    @Override
+    public void polygon(int[] xPoints, int[] yPoints, int count, Color fill, Color outline)
+    {
+        gfx.setColor( fill );
+        gfx.fillPolygon( xPoints , yPoints , count );
+        gfx.setColor( outline );
+        gfx.drawPolygon( xPoints , yPoints , count );
+    }
+
+    @Override
+    public Font getFont() {
+        return gfx.getFont();
+    }
+
+    @Override
+    public FontMetrics getFontMetrics(Font font) {
+        return gfx.getFontMetrics( font );
+    }
+}
@@ -6,10 +6,12 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.function.DoubleFunction;
 
 import com.badlogic.gdx.graphics.PerspectiveCamera;
 import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
 
 import de.codesourcery.iozone.IOZoneFileParser.FileEntry;
 import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
@@ -25,6 +27,11 @@ public class IOZone3DChart
     
     protected static final int meshYSize = 9;
     
+    /**
+     * Formats throughput values (in bytes/s) as kilobytes per second.
+     */
+    public static final DoubleFunction<String> DEFAULT_Y_LABEL_FORMAT = value -> new DecimalFormat("#####0").format( value / 1024 )+" kb/s";
+    
     private final Mesh plotData;
     private final Mesh groundPlane;
     private final Mesh yAxisPlane;
@@ -38,6 +45,24 @@ public class IOZone3DChart
     
     private final IOZoneReport report;
     
+    // null if the randomly generated yColors should be used
+    private final ColorMap colorMap;
+    
+    // markers drawn on top of the data surface
+    private List<KneeDetector.Knee> knees = new ArrayList<>();
+    
+    /**
+     * Color of data surface quads touching a {@link IOZoneReport#MISSING} value.
+     */
+    public static final Color MISSING_COLOR = Color.LIGHT_GRAY;
+    
+    // whether a data point is missing, by x and z index 
+    private final boolean[][] missing;
+    
+    private static final Color CLIFF_COLOR = Color.RED;
+    private static final Color SATURATION_COLOR = Color.ORANGE;
+    private static final int MARKER_SIZE = 8;
+    
     private final Color[] yColors = new Color[ meshYSize-1 ];
     private final Interval[] yIntervals = new Interval[meshYSize-1];
     
@@ -76,9 +101,95 @@ public class IOZone3DChart
         return new Color(red, green, blue);
     }
     
+    /**
+     * Calculates a conservative model-space bounding box for the chart of a report 
+     * without actually creating any geometry.
+     *  
+     * @param report
+     * @param out
+     * @return <code>out</code>
+     */
+    public static BoundingBox estimateBounds(IOZoneReport report,BoundingBox out) 
+    {
+        int maxLen = 0;
+        for ( int fileSize : report.getFileSizes() ) {
+            maxLen = Math.max( maxLen , report.getFileEntry( fileSize ).values.length );
+        }
+        final int meshXSize = report.getFileSizes().size();
+        final float width = Math.max(1,meshXSize-1) * quadWidth;
+        final float depth = Math.max(1,maxLen-1) * quadHeight;
+        final float extent = Math.max( width , depth ) + quadWidth;
+        
+        // axis planes get rotated around the chart origin and the Y axis plane is shifted upwards
+        return out.set( new Vector3( -extent , -extent , -extent ) , new Vector3( extent , extent + DATA_Y_MAX_VALUE + 30 , extent ) );
+    }
+    
+    /**
+     * Returns the world-space bounds of all meshes of this chart, axis labels may extend beyond them.
+     * 
+     * @param out
+     * @return <code>out</code>
+     * @see #estimateBounds(IOZoneReport, BoundingBox)
+     */
+    public BoundingBox getBounds(BoundingBox out) 
+    {
+        out.inf();
+        final BoundingBox tmp = new BoundingBox();
+        for ( Mesh mesh : new Mesh[] { plotData , groundPlane , yAxisPlane , xAxisPlane } ) {
+            out.ext( mesh.getBounds( tmp ) );
+        }
+        return out.mul( modelMatrix );
+    }
+    
+    public int sizeInQuads() 
+    {
+        return plotData.sizeInQuads() + groundPlane.sizeInQuads() + yAxisPlane.sizeInQuads() + xAxisPlane.sizeInQuads();
+    }
+    
     public IOZone3DChart(IOZoneReport report) 
+    {
+        this( report , null , DEFAULT_Y_LABEL_FORMAT );
+    }
+    
+    /**
+     * 
+     * @param report
+     * @param colorSeed seed for the randomly generated colors of the data surface
+     */
+    public IOZone3DChart(IOZoneReport report,long colorSeed) 
+    {
+        this( report , null , DEFAULT_Y_LABEL_FORMAT , colorSeed );
+    }
+    
+    /**
+     * 
+     * @param report
+     * @param colorMap color map to use for the data surface, <code>null</code> to use randomly generated colors
+     * @param yLabelFormat used to format data values for the Y axis labels 
+     */
+    public IOZone3DChart(IOZoneReport report,ColorMap colorMap,DoubleFunction<String> yLabelFormat) 
+    {
+        this( report , colorMap , yLabelFormat , getColorSeed() );
+    }
+    
+    private static long getColorSeed() 
+    {
+        final long seed = Long.getLong( "iozone.colorSeed" , System.currentTimeMillis() );
+        System.out.println("SEED: 0x"+Long.toHexString( seed ) );
+        return seed;
+    }
+    
+    /**
+     * 
+     * @param report
+     * @param colorMap color map to use for the data surface, <code>null</code> to use randomly generated colors
+     * @param yLabelFormat used to format data values for the Y axis labels 
+     * @param colorSeed seed for the randomly generated colors, ignored if a color map is given
+     */
+    public IOZone3DChart(IOZoneReport report,ColorMap colorMap,DoubleFunction<String> yLabelFormat,long colorSeed) 
     {
         this.report = report;
+        this.colorMap = colorMap;
         
         final float groundPlaneYOffset = -0.1f; // Y distance groundplane <-> plot plane             
         final float magicYOffset = 30-groundPlaneYOffset; // TODO: Trial'n'error ... how is this computed ??
@@ -91,9 +202,7 @@ public class IOZone3DChart
             }
         }
         
-        final long seed = System.currentTimeMillis();
-        System.out.println("SEED: 0x"+Long.toHexString( seed ) );
-        final Random rnd = new Random(seed);
+        final Random rnd = new Random(colorSeed);
         
         Color mix = new Color( 0.0f , 0.0f, 0.6f );
         
@@ -115,10 +224,16 @@ public class IOZone3DChart
         // setup plot plane
         plotData = new Mesh( "plot",meshXSize, meshZSize , quadWidth , quadHeight );
 
+        missing = new boolean[ meshXSize ][ meshZSize ];
         plotData.populate( (x,z) ->  
         {
             final FileEntry entry = report.getFileEntry( fileSizes.get( x ) );
-            return z < entry.values.length ? entry.values[z] : 0;
+            if ( entry.hasValue( z ) ) {
+                return entry.values[z];
+            }
+            // cells past the end of a row are regular, just not measured by iozone
+            missing[x][z] = z < entry.values.length;
+            return 0;
         });
         
         plotData.scaleTo( DATA_Y_MIN_VALUE ,  DATA_Y_MAX_VALUE );
@@ -135,6 +250,7 @@ public class IOZone3DChart
         yAxisPlane = new Mesh( "Y plane",meshXSize, meshZSize , quadWidth , quadHeight );
         yAxisPlane.modelMatrix.translate( -plotData.width()/2f , magicYOffset , 0 );
         yAxisPlane.modelMatrix.rotate( new Vector3( 0, 0, 1 ) , 90 );
+        yAxisPlane.flipFaces(); // rotation turned the front face outwards
 
         // setup ground plane
         groundPlane = new Mesh( "ground",meshXSize, meshZSize , quadWidth , quadHeight );
@@ -158,13 +274,11 @@ public class IOZone3DChart
 
         final float maxY = plotData.getMaxY();
         final float minY = plotData.getMinY();
-        final DecimalFormat DF2 = new DecimalFormat("##########0");
         float step = (maxY-minY) / (meshXSize-3);
         float value = minY;
-        final DecimalFormat DF = new DecimalFormat("#####0");
         for ( int i = 0 ; i < meshXSize-1 ; i++ , value += step ) 
         {
-            yAxis.labels.add( DF.format( value / 1024 )+" kb/s" );
+            yAxis.labels.add( yLabelFormat.apply( value ) );
         }
 
         // z axis
@@ -181,15 +295,55 @@ public class IOZone3DChart
     
     public void toQuads(PerspectiveCamera camera, Graphics2D gfx,List<Quad> result) 
     {
+        toQuads( camera , gfx , result , RenderQuality.FULL );
+    }
+    
+    public void toQuads(PerspectiveCamera camera, Graphics2D gfx,List<Quad> result,RenderQuality quality) 
+    {
+        toQuads( camera , gfx , result , quality , null );
+    }
+    
+    /**
+     * Converts the chart's meshes into quads.
+     * 
+     * @param camera
+     * @param gfx
+     * @param result
+     * @param quality
+     * @param stats receives the time spent in the {@link FrameStats.Phase#TRANSFORM} and {@link FrameStats.Phase#COLOR} phases, may be <code>null</code>
+     */
+    public void toQuads(PerspectiveCamera camera, Graphics2D gfx,List<Quad> result,RenderQuality quality,FrameStats stats) 
+    {
+        long start = System.nanoTime();
         final Matrix4 cameraViewMatrix =  camera.view.cpy().mul( modelMatrix );
         
         final List<Quad> tmpList = new ArrayList<>( plotData.sizeInQuads() );
-        plotData.toQuads( cameraViewMatrix , camera , tmpList , false , true );
+        plotData.toQuads( cameraViewMatrix , camera , tmpList , false , true , quality.meshStride );
+        
+        long now = System.nanoTime();
+        if ( stats != null ) {
+            stats.add( FrameStats.Phase.TRANSFORM , now - start );
+        }
+        start = now;
+        final float dataMinY = plotData.getMinY();
+        final float dataMaxY = plotData.getMaxY();
         for ( Quad q : tmpList ) 
         {
+            if ( missing[q.x0][q.z0] || missing[q.x1][q.z0] || missing[q.x1][q.z1] || missing[q.x0][q.z1] ) 
+            {
+                q.color = MISSING_COLOR;
+                continue;
+            }
+            if ( colorMap != null ) 
+            {
+                q.color = colorMap.getColor( q.avgDataValue , dataMinY , dataMaxY );
+                continue;
+            }
+            // intervals are defined in terms of the scaled data
+            final float scaled = plotData.toScaledY( q.avgDataValue );
             for ( int idx = 0 ; idx < yIntervals.length ; idx++ ) 
             {
-                if ( yIntervals[idx].contains( q.avgDataValue ) ) 
+                if ( yIntervals[idx].contains( scaled ) ) 
                 {
                     q.color = yColors[idx];
                     break;
@@ -198,17 +352,201 @@ public class IOZone3DChart
         }
         result.addAll( tmpList );
         
-        groundPlane.toQuads( cameraViewMatrix , camera , result , false , false );
-        yAxisPlane.toQuads(  cameraViewMatrix , camera , result , false , false );
-        xAxisPlane.toQuads(  cameraViewMatrix , camera , result , false , false );
+        now = System.nanoTime();
+        if ( stats != null ) {
+            stats.add( FrameStats.Phase.COLOR , now - start );
+        }
+        start = now;
+        
+        // the data surface is two-sided, all other planes are only visible from the inside of the chart
+        groundPlane.toQuads( cameraViewMatrix , camera , result , true , false , quality.meshStride );
+        yAxisPlane.toQuads(  cameraViewMatrix , camera , result , true , false , quality.meshStride );
+        xAxisPlane.toQuads(  cameraViewMatrix , camera , result , true , false , quality.meshStride );
+        
+        if ( stats != null ) {
+            stats.add( FrameStats.Phase.TRANSFORM , System.nanoTime() - start );
+        }
     }    
     
+    /**
+     * Returns a description of the data point closest to a screen location.
+     * 
+     * @param quad quad as picked from the last rendered frame
+     * @param screenX
+     * @param screenY
+     * @return description or <code>null</code> if the quad does not belong to this chart's data surface
+     */
+    public String getToolTip(Quad quad,int screenX,int screenY) 
+    {
+        if ( quad.mesh != plotData ) {
+            return null;
+        }
+        
+        // quad corners are in screen coordinates now, pick the vertex closest to the mouse pointer
+        int xIndex = quad.x0;
+        int zIndex = quad.z0;
+        float best = quad.c0.dst2( screenX , screenY , quad.c0.z );
+        float dist = quad.c1.dst2( screenX , screenY , quad.c1.z );
+        if ( dist < best ) {
+            best = dist;
+            xIndex = quad.x1;
+            zIndex = quad.z0;
+        }
+        dist = quad.c2.dst2( screenX , screenY , quad.c2.z );
+        if ( dist < best ) {
+            best = dist;
+            xIndex = quad.x1;
+            zIndex = quad.z1;
+        }
+        dist = quad.c3.dst2( screenX , screenY , quad.c3.z );
+        if ( dist < best ) {
+            xIndex = quad.x0;
+            zIndex = quad.z1;
+        }
+        
+        final int fileSize = report.getFileSizes().get( xIndex );
+        final FileEntry entry = report.getFileEntry( fileSize );
+        final String value = entry.hasValue( zIndex ) ? new DecimalFormat("#,##0").format( entry.values[ zIndex ] ) : "n/a";
+        return "<html><b>"+report.reportName+"</b><br>"+
+               "File size: "+fileSize+"k<br>"+
+               "Record length: "+report.recordLengths[ zIndex ]+"k<br>"+
+               "Throughput: "+value+"</html>";
+    }
+    
     public void renderAxis(PerspectiveCamera camera, Graphics2D gfx) 
+    {
+        renderAxis( camera , gfx , RenderQuality.FULL );
+    }
+    
+    public void renderAxis(PerspectiveCamera camera, Graphics2D gfx,RenderQuality quality) 
+    {
+        renderAxis( camera , gfx , quality , null );
+    }
+    
+    /**
+     * Renders axes and knee markers.
+     * 
+     * @param camera
+     * @param gfx
+     * @param quality
+     * @param occupancy screen areas already covered by labels, used to skip overlapping and unreadable labels. May be <code>null</code> to draw all labels
+     */
+    public void renderAxis(PerspectiveCamera camera, Graphics2D gfx,RenderQuality quality,LabelOccupancy occupancy) 
+    {
+        renderAxis( camera , new Graphics2DSink( gfx , quality.drawOutlines ) , quality , occupancy );
+    }
+    
+    /**
+     * Renders axes and knee markers.
+     * 
+     * @param camera
+     * @param sink
+     * @param quality
+     * @param occupancy screen areas already covered by labels, may be <code>null</code>
+     * @see #renderAxis(PerspectiveCamera, Graphics2D, RenderQuality, LabelOccupancy)
+     */
+    public void renderAxis(PerspectiveCamera camera, SceneSink sink,RenderQuality quality,LabelOccupancy occupancy) 
+    {
+        renderAxis( camera , sink , quality , occupancy , 0 );
+    }
+    
+    /**
+     * Renders axes and knee markers.
+     * 
+     * @param camera
+     * @param sink
+     * @param quality
+     * @param occupancy screen areas already covered by labels, may be <code>null</code>
+     * @param fontScale label font size at a depth of one world unit, see {@link Axis#render(Matrix4, SceneSink, Camera, boolean, LabelOccupancy, float)}
+     */
+    public void renderAxis(PerspectiveCamera camera, SceneSink sink,RenderQuality quality,LabelOccupancy occupancy,float fontScale) 
     {
         Matrix4 cameraViewMatrix =  camera.view.cpy().mul( modelMatrix );
         
-        xAxis.render( cameraViewMatrix, gfx, camera);
-        yAxis.render( cameraViewMatrix, gfx, camera);
-        zAxis.render( cameraViewMatrix, gfx, camera);
+        xAxis.render( cameraViewMatrix, sink, camera, quality.drawLabels, occupancy, fontScale );
+        yAxis.render( cameraViewMatrix, sink, camera, quality.drawLabels, occupancy, fontScale );
+        zAxis.render( cameraViewMatrix, sink, camera, quality.drawLabels, occupancy, fontScale );
+        
+        if ( ! knees.isEmpty() ) {
+            renderKnees( cameraViewMatrix , sink , camera );
+        }
+    }
+    
+    /**
+     * Renders the axis lines only, without labels or knee markers.
+     * 
+     * @param camera
+     * @param gfx
+     * @param quality
+     */
+    public void renderAxisLines(PerspectiveCamera camera, Graphics2D gfx,RenderQuality quality) 
+    {
+        final SceneSink sink = new Graphics2DSink( gfx , quality.drawOutlines );
+        final Matrix4 cameraViewMatrix = camera.view.cpy().mul( modelMatrix );
+        
+        xAxis.render( cameraViewMatrix, sink, camera, false, null );
+        yAxis.render( cameraViewMatrix, sink, camera, false, null );
+        zAxis.render( cameraViewMatrix, sink, camera, false, null );
+    }
+    
+    /**
+     * Sets the knees to mark on the data surface.
+     * 
+     * Cliffs are drawn as downward triangles, saturation points as diamonds. Knees
+     * at file sizes or record lengths not present in this chart's report are ignored.
+     * 
+     * @param knees
+     * @see KneeDetector
+     */
+    public void setKnees(List<KneeDetector.Knee> knees) {
+        this.knees = new ArrayList<>( knees );
+    }
+    
+    private void renderKnees(Matrix4 cameraViewMatrix,SceneSink sink,PerspectiveCamera camera) 
+    {
+        final Matrix4 modelView = cameraViewMatrix.cpy().mul( plotData.modelMatrix );
+        final List<Integer> fileSizes = report.getFileSizes();
+        final Vector3 v = new Vector3();
+        final int[] xPoints = new int[4];
+        final int[] yPoints = new int[4];
+        for ( KneeDetector.Knee knee : knees ) 
+        {
+            final int x = fileSizes.indexOf( knee.fileSize );
+            int z = 0;
+            while ( z < report.recordLengths.length && report.recordLengths[z] != knee.recordLength ) {
+                z++;
+            }
+            if ( x == -1 || z == report.recordLengths.length ) {
+                continue;
+            }
+            plotData.getVertex( x , z , v ).mul( modelView );
+            if ( v.z >= -camera.near ) {
+                continue; // behind the camera
+            }
+            Axis.worldToScreen( v , camera );
+            final int sx = (int) v.x;
+            final int sy = (int) v.y;
+            final int h = MARKER_SIZE / 2;
+            final int count;
+            final Color color;
+            if ( knee.kind == KneeDetector.Kind.CLIFF ) 
+            {
+                xPoints[0] = sx - h; yPoints[0] = sy - MARKER_SIZE;
+                xPoints[1] = sx + h; yPoints[1] = sy - MARKER_SIZE;
+                xPoints[2] = sx;     yPoints[2] = sy;
+                count = 3;
+                color = CLIFF_COLOR;
+            } 
+            else 
+            {
+                xPoints[0] = sx;     yPoints[0] = sy - h;
+                xPoints[1] = sx + h; yPoints[1] = sy;
+                xPoints[2] = sx;     yPoints[2] = sy + h;
+                xPoints[3] = sx - h; yPoints[3] = sy;
+                count = 4;
+                color = SATURATION_COLOR;
+            }
+            sink.polygon( xPoints , yPoints , count , color , Color.BLACK );
+        }
     }
 }
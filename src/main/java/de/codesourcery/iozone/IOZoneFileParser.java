@@ -1,18 +1,18 @@
 package de.codesourcery.iozone;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 public class IOZoneFileParser
 {
@@ -26,10 +26,27 @@ public class IOZoneFileParser
 			this.fileSize = fileSize;
 			this.values = values;
 		}
+
+		/**
+		 * Returns whether a cell holds a data point, cells beyond the end of the row
+		 * and {@link IOZoneReport#MISSING} cells do not.
+		 *
+		 * @param column index into the report's record lengths
+		 * @return
+		 */
+		public boolean hasValue(int column) {
+			return column < values.length && values[column] != IOZoneReport.MISSING;
+		}
 	}
 
 	public static final class IOZoneReport
 	{
+		/**
+		 * Value of cells that have no data point although later cells in the same row have one (only used by synthetic reports).
+		 * Consumers must check {@link FileEntry#hasValue(int)} before using a value.
+		 */
+		public static final int MISSING = Integer.MIN_VALUE;
+
 		public final String reportName;
 		public final int[] recordLengths;
 
@@ -50,6 +67,29 @@ public class IOZoneFileParser
 			return entries.keySet().stream().sorted().collect( Collectors.toList() );
 		}
 
+		/**
+		 * Checks whether another report has the same name and holds exactly the same values.
+		 * 
+		 * @param other
+		 * @return
+		 */
+		public boolean contentEquals(IOZoneReport other) 
+		{
+			if ( other == this ) {
+				return true;
+			}
+			if ( ! reportName.equals( other.reportName ) || ! Arrays.equals( recordLengths , other.recordLengths ) || ! entries.keySet().equals( other.entries.keySet() ) ) {
+				return false;
+			}
+			for ( FileEntry entry : entries.values() ) 
+			{
+				if ( ! Arrays.equals( entry.values , other.entries.get( entry.fileSize ).values ) ) {
+					return false;
+				}
+			}
+			return true;
+		}
+
 		public void addEntry( int fileSize,int[] values) {
 			if ( entries.containsKey( fileSize ) ) {
 				throw new RuntimeException("Duplicate file-size: "+fileSize);
@@ -58,86 +98,95 @@ public class IOZoneFileParser
 		}
 	}
 
-	public static final class CountingReader implements Iterator<Row>
-	{
-		private final List<Row> rows;
-		public int currentRow = 0;
-
-		public CountingReader(CsvReader reader)
-		{
-			this.rows = StreamSupport.stream( reader.spliterator() , false ).collect( Collectors.toList() );
-		}
-
-		public int previousRow() {
-			return currentRow-1;
-		}
-
-		@Override
-		public Row next() {
-			Row result = rows.get( currentRow );
-			currentRow++;
-			return result;
-		}
-
-		public void pushBack() {
-			currentRow--;
-		}
-
-		@Override
-		public boolean hasNext()
-		{
-			return currentRow < rows.size();
-		}
-	};
-
 	public static final class IOZoneReader implements Iterable<IOZoneReport>
 	{
 		private final List<IOZoneReport> reports = new ArrayList<>();
 
-		public IOZoneReader(CsvReader reader)
+		/**
+		 * Parses the selected reports, file sizes and record lengths, use {@link ReportSelection#ALL} to parse everything.
+		 *
+		 * The input is scanned line by line without decoding or splitting lines into cells up-front. Lines of 
+		 * unselected reports are only checked for whether they start the next report, rows of unselected 
+		 * file sizes are dropped after reading their first number and values of unselected record lengths
+		 * are skipped without being converted. Reports without any selected values are dropped.
+		 *
+		 * @param in
+		 * @param selection
+		 * @param listener invoked with every selected report right after it has been parsed, may be <code>null</code>. 
+		 * The listener may throw a {@link CancellationException} to stop parsing.
+		 * @throws IOException
+		 */
+		public IOZoneReader(InputStream in,ReportSelection selection,Consumer<IOZoneReport> listener) throws IOException
 		{
-			final CountingReader counter = new CountingReader(reader);
-			try {
-				for ( CountingReader it = new CountingReader(reader) ; it.hasNext() ; )
+			final LineScanner scanner = new LineScanner( in );
+			try 
+			{
+				String reportName = null; // selected report whose record lengths are expected next
+				IOZoneReport report = null;
+				// selected record length columns, [firstColumn,lastColumn)
+				int firstColumn = 0;
+				int lastColumn = 0;
+				while ( scanner.nextLine() ) 
 				{
-					Row row = it.next();
-					if ( row.getCellCount() != 1 )
+					if ( scanner.isBlank() ) {
+						continue;
+					}
+					if ( isReportHeader( scanner.buffer , scanner.lineStart , scanner.lineEnd ) ) 
 					{
-						throw new RuntimeException("Expected row with one cell @ row "+counter.previousRow()+" but got "+row);
+						finish( report , listener );
+						report = null;
+						final String name = scanner.quotedString();
+						reportName = selection.includesReport( name ) ? name : null;
+						continue;
 					}
-					final String reportName = row.iterator().next().getStringValue();
-					System.out.println("Report: "+reportName);
-
-					row = it.next();
-					final int[] recordLens = row.cellStream().mapToInt( Cell::getIntValue ).toArray();
-					final IOZoneReport report = new IOZoneReport( reportName , recordLens );
-
-					row = it.next();
-					int cellsPerRow = -1;
-					do
+					if ( reportName != null ) 
 					{
-						final int fileSize = row.cell(0).getIntValue();
-						System.out.println("File size: "+fileSize+"k");
-						report.addEntry( fileSize , row.cellStream().skip( 1 ).mapToInt( Cell::getIntValue ).toArray() );
-						cellsPerRow = row.getCellCount();
-						if ( ! it.hasNext() ) {
-							break;
+						final int[] recordLens = scanner.remainingInts();
+						firstColumn = 0;
+						while ( firstColumn < recordLens.length && ! selection.includesRecordLength( recordLens[firstColumn] ) ) {
+							firstColumn++;
 						}
-						row = it.next();
-						if ( row.getCellCount() < cellsPerRow )
-						{
-							it.pushBack();
-							break;
+						lastColumn = firstColumn;
+						while ( lastColumn < recordLens.length && selection.includesRecordLength( recordLens[lastColumn] ) ) {
+							lastColumn++;
 						}
-					} while ( true );
-
-					if ( reports.stream().anyMatch( r -> r.reportName.equals( report.reportName ) ) ) {
-						throw new RuntimeException("Duplicate report "+report.reportName);
+						report = new IOZoneReport( reportName , Arrays.copyOfRange( recordLens , firstColumn , lastColumn ) );
+						reportName = null;
+						continue;
+					}
+					if ( report == null ) {
+						continue; // unselected report
+					}
+					final int fileSize = scanner.nextInt();
+					if ( ! selection.includesFileSize( fileSize ) || ! scanner.skip( firstColumn ) ) {
+						continue;
+					}
+					final int[] values = scanner.nextInts( lastColumn - firstColumn );
+					if ( values.length > 0 ) {
+						report.addEntry( fileSize , values );
 					}
-					reports.add( report );
 				}
-			} catch(Exception e) {
-				throw new RuntimeException("At row: "+counter.previousRow()+" : "+e.getMessage() ,e );
+				finish( report , listener );
+			} 
+			catch(CancellationException e) {
+				throw e;
+			} 
+			catch(RuntimeException e) {
+				throw new RuntimeException("At line: "+scanner.lineNumber+" : "+e.getMessage() ,e );
+			}
+		}
+
+		private void finish(IOZoneReport report,Consumer<IOZoneReport> listener) 
+		{
+			if ( report == null || report.entries.isEmpty() ) {
+				return;
+			}
+			if ( reports.stream().anyMatch( r -> r.reportName.equals( report.reportName ) ) ) {
+				throw new RuntimeException("Duplicate report "+report.reportName);
+			}
+			reports.add( report );
+			if ( listener != null ) {
+				listener.accept( report );
 			}
 		}
 		
@@ -159,133 +208,222 @@ public class IOZoneFileParser
 		}
 	}
 
-	public static final class Cell
+	/**
+	 * Checks whether a line holds nothing but a quoted, non-numeric string (a report name). 
+	 * 
+	 * @param data
+	 * @param start offset of the first byte of the line
+	 * @param end offset of the line's end (exclusive)
+	 * @return
+	 */
+	protected static boolean isReportHeader(byte[] data,int start,int end) 
 	{
-		private String value;
-
-		public Cell(String value) {
-			this.value = value;
+		while ( start < end && Character.isWhitespace( data[start] ) ) {
+			start++;
 		}
-
-		public String getStringValue() {
-			return value;
+		if ( start == end || data[start] != '"' ) {
+			return false;
 		}
-
-		public int getIntValue() {
-			return Integer.parseInt( value );
+		while ( end > start && Character.isWhitespace( data[end-1] ) ) {
+			end--;
 		}
-
-		@Override
-		public String toString() {
-			return value;
+		if ( end - start < 2 || data[end-1] != '"' ) {
+			return false;
+		}
+		for ( int i = start+1 ; i < end-1 ; i++ ) 
+		{
+			if ( data[i] == '"' ) {
+				return false;
+			}
 		}
+		// record length and file size lines only hold numbers 
+		for ( int i = start+1 ; i < end-1 ; i++ ) 
+		{
+			if ( ! Character.isDigit( data[i] ) ) {
+				return true;
+			}
+		}
+		return false;
 	}
 
-	public static final class Row implements Iterable<Cell>
+	/**
+	 * Reads input line by line into a reusable buffer and extracts
+	 * numbers from the current line without creating intermediate strings.
+	 */
+	protected static final class LineScanner
 	{
-		private final List<Cell> cells = new ArrayList<>();
+		private final InputStream in;
+		private boolean eof;
 
-		public Row() {
-		}
+		public byte[] buffer = new byte[ 64*1024 ];
+		private int limit;
+		private int nextLine;
+		private int scanned;
 
-		public void addCell(Cell cell) {
-			this.cells.add( cell );
-		}
+		// current line, [lineStart,lineEnd)
+		public int lineStart;
+		public int lineEnd;
+		public int lineNumber;
 
-		@Override
-		public String toString() {
-			return cells.stream().map( Cell::getStringValue ).collect(Collectors.joining("," ) );
-		}
+		// read position within the current line
+		private int pos;
 
-		public Cell cell(int idx) {
-			return cells.get(idx);
+		public LineScanner(InputStream in) {
+			this.in = in;
 		}
 
-		public int getCellCount() {
-			return cells.size();
+		public boolean nextLine() throws IOException
+		{
+			while ( true ) 
+			{
+				for ( int i = scanned ; i < limit ; i++ ) 
+				{
+					if ( buffer[i] == '\n' ) {
+						setLine( nextLine , i );
+						return true;
+					}
+				}
+				scanned = limit;
+				if ( eof ) 
+				{
+					if ( nextLine < limit ) {
+						setLine( nextLine , limit );
+						return true;
+					}
+					return false;
+				}
+				// make room for the rest of the current line
+				if ( nextLine > 0 ) 
+				{
+					System.arraycopy( buffer , nextLine , buffer , 0 , limit - nextLine );
+					limit -= nextLine;
+					scanned -= nextLine;
+					nextLine = 0;
+				}
+				if ( limit == buffer.length ) {
+					buffer = Arrays.copyOf( buffer , buffer.length * 2 );
+				}
+				final int read = in.read( buffer , limit , buffer.length - limit );
+				if ( read == -1 ) {
+					eof = true;
+				} else {
+					limit += read;
+				}
+			}
 		}
 
-		public Stream<Cell> cellStream() {
-			return cells.stream();
+		private void setLine(int start,int end) 
+		{
+			nextLine = scanned = end + 1;
+			lineStart = pos = start;
+			lineEnd = end > start && buffer[end-1] == '\r' ? end-1 : end;
+			lineNumber++;
 		}
 
-		@Override
-		public Iterator<Cell> iterator() {
-			return cells.iterator();
+		public boolean isBlank() 
+		{
+			for ( int i = lineStart ; i < lineEnd ; i++ ) 
+			{
+				if ( ! Character.isWhitespace( buffer[i] ) ) {
+					return false;
+				}
+			}
+			return true;
 		}
-	}
 
-	public static final class CsvReader implements Iterable<Row>
-	{
-		private final BufferedReader reader;
-		private final List<Row> rows = new ArrayList<>();
+		/**
+		 * Returns the text between the first and the last quote of the current line.
+		 * 
+		 * @return
+		 */
+		public String quotedString() 
+		{
+			int start = lineStart;
+			while ( buffer[start] != '"' ) {
+				start++;
+			}
+			int end = lineEnd-1;
+			while ( buffer[end] != '"' ) {
+				end--;
+			}
+			return new String( buffer , start+1 , end-start-1 );
+		}
 
-		public CsvReader(InputStream in) throws IOException
+		// moves to the start of the next token, returns false if there is none
+		private boolean skipWhitespace() 
 		{
-			reader = new BufferedReader( new InputStreamReader(in ) );
+			while ( pos < lineEnd && ( Character.isWhitespace( buffer[pos] ) || buffer[pos] == '"' ) ) {
+				pos++;
+			}
+			return pos < lineEnd;
+		}
 
-			String line = null;
-			while ( ( line = reader.readLine() ) != null )
+		/**
+		 * Skips tokens of the current line.
+		 * 
+		 * @param count
+		 * @return <code>false</code> if the line ended before <code>count</code> tokens got skipped
+		 */
+		public boolean skip(int count) 
+		{
+			for ( int i = 0 ; i < count ; i++ ) 
 			{
-				if ( line.trim().length() == 0 ) {
-					continue;
+				if ( ! skipWhitespace() ) {
+					return false;
 				}
-				final String[] cells = split( line );
-				final Row row = new Row();
-				rows.add( row );
-				for ( String cellValue : cells )
-				{
-					if ( cellValue.startsWith("\"") && cellValue.endsWith( "\"" ) ) {
-						cellValue = cellValue.substring( 1 , cellValue.length()-1 );
-					}
-					row.addCell( new Cell( cellValue ) );
+				while ( pos < lineEnd && ! Character.isWhitespace( buffer[pos] ) ) {
+					pos++;
 				}
 			}
+			return true;
 		}
 
-		private String[] split(String input)
+		public int nextInt() 
 		{
-			final List<String> result = new ArrayList<>();
-			boolean escaped = false;
-			final StringBuffer buffer = new StringBuffer();
-			for ( int i = 0 ; i < input.length() ; i++ )
+			if ( ! skipWhitespace() ) {
+				throw new RuntimeException("Expected a number");
+			}
+			final boolean negative = buffer[pos] == '-';
+			if ( negative ) {
+				pos++;
+			}
+			final int start = pos;
+			long value = 0;
+			while ( pos < lineEnd && buffer[pos] >= '0' && buffer[pos] <= '9' ) 
 			{
-				final char c = input.charAt( i );
-				if ( c == ' ' )
-				{
-					if ( ! escaped )
-					{
-						if ( buffer.toString().trim().length() > 0 )
-						{
-							result.add( buffer.toString() );
-						}
-						buffer.setLength( 0 );
-						continue;
-					}
+				value = value * 10 + ( buffer[pos++] - '0' );
+				if ( value > Integer.MAX_VALUE ) {
+					throw new RuntimeException("Number too large");
 				}
-				if (c == '"' ) {
-					escaped = ! escaped;
-				}
-				buffer.append( c );
 			}
-			if ( buffer.toString().trim().length() > 0 )
-			{
-				result.add( buffer.toString() );
+			if ( pos == start || ( pos < lineEnd && buffer[pos] != '"' && ! Character.isWhitespace( buffer[pos] ) ) ) {
+				throw new RuntimeException("Not a number: "+new String( buffer , start , Math.min( lineEnd , pos + 1 ) - start ) );
 			}
-			return result.toArray( new String[ result.size() ] );
+			return (int) ( negative ? -value : value );
 		}
 
-		public boolean isEmpty() {
-			return rows.isEmpty();
-		}
-
-		public int getRowCount() {
-			return rows.size();
+		/**
+		 * Reads up to <code>maxCount</code> numbers from the current line.
+		 * 
+		 * @param maxCount
+		 * @return
+		 */
+		public int[] nextInts(int maxCount) 
+		{
+			int[] result = new int[ Math.min( maxCount , 16 ) ];
+			int count = 0;
+			while ( count < maxCount && skipWhitespace() ) 
+			{
+				if ( count == result.length ) {
+					result = Arrays.copyOf( result , Math.min( maxCount , count * 2 ) );
+				}
+				result[ count++ ] = nextInt();
+			}
+			return count == result.length ? result : Arrays.copyOf( result , count );
 		}
 
-		@Override
-		public Iterator<Row> iterator() {
-			return rows.iterator();
+		public int[] remainingInts() {
+			return nextInts( Integer.MAX_VALUE );
 		}
 	}
-}
\ No newline at end of file
+}
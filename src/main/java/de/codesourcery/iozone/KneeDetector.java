@@ -0,0 +1,450 @@
+package de.codesourcery.iozone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.codesourcery.iozone.IOZoneFileParser.FileEntry;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Finds knees in throughput surfaces.
+ *
+ * Two kinds of knees are detected:
+ * <ul>
+ *   <li>cliffs along the file size axis, where throughput drops because the working set no longer fits into a cache.
+ *   For every record length the file size series gets split into two segments such that the squared error of a
+ *   piecewise-constant fit of the log throughput is minimal (single change-point detection). The split is
+ *   reported if the mean drops by at least {@link #minDrop} and by more than twice the residual noise.</li>
+ *   <li>saturation along the record length axis, where larger records stop increasing throughput. For every file
+ *   size the first record length is reported after which the log throughput never gains more than
+ *   {@link #saturationTolerance} anymore, provided throughput increased by more than that before.</li>
+ * </ul>
+ * All computations work on log throughput so knees are found at the same place regardless of absolute speed.
+ */
+public class KneeDetector
+{
+    public enum Kind
+    {
+        CLIFF("cliff"),
+        SATURATION("saturation");
+
+        public final String label;
+
+        private Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * A single knee.
+     */
+    public static final class Knee
+    {
+        public final Kind kind;
+        public final int fileSize;
+        public final int recordLength;
+        /**
+         * Throughput before the knee, the geometric mean of the segment left of a cliff or the first value of a saturating series.
+         */
+        public final float before;
+        /**
+         * Throughput after the knee, the geometric mean of the segment right of a cliff or the maximum of a saturating series.
+         */
+        public final float after;
+
+        public Knee(Kind kind, int fileSize, int recordLength, float before, float after)
+        {
+            this.kind = kind;
+            this.fileSize = fileSize;
+            this.recordLength = recordLength;
+            this.before = before;
+            this.after = after;
+        }
+
+        public float getRelativeChange() {
+            return after / before - 1;
+        }
+
+        @Override
+        public String toString() {
+            return kind.label+" @ file size "+fileSize+"k , record length "+recordLength+"k : "+Math.round( getRelativeChange() * 100 )+" %";
+        }
+    }
+
+    /**
+     * All knees of a report.
+     */
+    public static final class ReportKnees
+    {
+        public final String reportName;
+        public final List<Knee> knees;
+        public final int recordLengthCount;
+        public final int fileSizeCount;
+
+        public ReportKnees(String reportName, List<Knee> knees, int recordLengthCount, int fileSizeCount)
+        {
+            this.reportName = reportName;
+            this.knees = Collections.unmodifiableList( knees );
+            this.recordLengthCount = recordLengthCount;
+            this.fileSizeCount = fileSizeCount;
+        }
+
+        public List<Knee> getKnees(Kind kind)
+        {
+            final List<Knee> result = new ArrayList<>();
+            for ( Knee knee : knees ) {
+                if ( knee.kind == kind ) {
+                    result.add( knee );
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the median file size of all cliffs.
+         *
+         * @return file size or -1 if there are no cliffs
+         */
+        public int getTypicalCliffFileSize() {
+            return median( getKnees( Kind.CLIFF ).stream().mapToInt( k -> k.fileSize ).toArray() );
+        }
+
+        /**
+         * Returns the median record length throughput saturates at.
+         *
+         * @return record length or -1 if throughput does not saturate for any file size
+         */
+        public int getTypicalSaturationRecordLength() {
+            return median( getKnees( Kind.SATURATION ).stream().mapToInt( k -> k.recordLength ).toArray() );
+        }
+
+        /**
+         * Returns the median relative change of all knees of a kind.
+         *
+         * @param kind
+         * @return
+         */
+        public float getTypicalChange(Kind kind)
+        {
+            final List<Knee> list = getKnees( kind );
+            if ( list.isEmpty() ) {
+                return 0;
+            }
+            final float[] changes = new float[ list.size() ];
+            for ( int i = 0 ; i < changes.length ; i++ ) {
+                changes[i] = list.get(i).getRelativeChange();
+            }
+            Arrays.sort( changes );
+            return changes[ ( changes.length - 1 ) / 2 ];
+        }
+
+        private static int median(int[] values)
+        {
+            if ( values.length == 0 ) {
+                return -1;
+            }
+            Arrays.sort( values );
+            return values[ ( values.length - 1 ) / 2 ];
+        }
+    }
+
+    /**
+     * Knees of all reports in a results file.
+     */
+    public static final class FileKnees
+    {
+        public final File file;
+        public final List<ReportKnees> reports;
+
+        public FileKnees(File file, List<ReportKnees> reports)
+        {
+            this.file = file;
+            this.reports = reports;
+        }
+    }
+
+    /**
+     * Minimum relative drop of the mean throughput for a cliff.
+     */
+    public float minDrop = 0.25f;
+
+    /**
+     * Throughput gain below which a series is considered saturated.
+     */
+    public float saturationTolerance = 0.1f;
+
+    /**
+     * Minimum number of values in a series, shorter series are not analyzed.
+     */
+    public int minPoints = 4;
+
+    /**
+     * Finds all knees of a report.
+     *
+     * @param report
+     * @return
+     */
+    public ReportKnees detect(IOZoneReport report)
+    {
+        final List<Integer> fileSizes = report.getFileSizes();
+        final FileEntry[] entries = new FileEntry[ fileSizes.size() ];
+        final int[][] values = new int[ fileSizes.size() ][];
+        for ( int i = 0 ; i < values.length ; i++ ) {
+            entries[i] = report.getFileEntry( fileSizes.get(i) );
+            values[i] = entries[i].values;
+        }
+
+        final List<Knee> knees = new ArrayList<>();
+        final int[] indices = new int[ values.length ];
+        final double[] logs = new double[ Math.max( values.length , report.recordLengths.length ) ];
+
+        // cliffs along the file size axis, one series per record length
+        for ( int column = 0 ; column < report.recordLengths.length ; column++ )
+        {
+            int n = 0;
+            for ( int row = 0 ; row < values.length ; row++ )
+            {
+                if ( entries[row].hasValue( column ) && values[row][column] > 0 )
+                {
+                    indices[n] = row;
+                    logs[n++] = Math.log( values[row][column] );
+                }
+            }
+            final Knee knee = findCliff( logs , n , report.recordLengths[ column ] , fileSizes , indices );
+            if ( knee != null ) {
+                knees.add( knee );
+            }
+        }
+
+        // saturation along the record length axis, one series per file size
+        for ( int row = 0 ; row < values.length ; row++ )
+        {
+            final int[] series = values[row];
+            int n = 0;
+            // a series ends at its first missing or non-positive value
+            while ( n < report.recordLengths.length && entries[row].hasValue( n ) && series[n] > 0 ) {
+                logs[n] = Math.log( series[n] );
+                n++;
+            }
+            final Knee knee = findSaturation( logs , n , fileSizes.get( row ) , report.recordLengths );
+            if ( knee != null ) {
+                knees.add( knee );
+            }
+        }
+        return new ReportKnees( report.reportName , knees , report.recordLengths.length , fileSizes.size() );
+    }
+
+    private Knee findCliff(double[] logs,int n,int recordLength,List<Integer> fileSizes,int[] indices)
+    {
+        if ( n < minPoints ) {
+            return null;
+        }
+        // prefix sums of values and squares give the squared error of any segment in constant time
+        final double[] sum = new double[ n+1 ];
+        final double[] sumSq = new double[ n+1 ];
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            sum[i+1] = sum[i] + logs[i];
+            sumSq[i+1] = sumSq[i] + logs[i]*logs[i];
+        }
+
+        int bestSplit = -1;
+        double bestCost = Double.MAX_VALUE;
+        // both segments need at least two values so a single outlier does not make a cliff
+        for ( int split = 2 ; split <= n - 2 ; split++ )
+        {
+            final double cost = squaredError( sum , sumSq , 0 , split ) + squaredError( sum , sumSq , split , n );
+            if ( cost < bestCost )
+            {
+                bestCost = cost;
+                bestSplit = split;
+            }
+        }
+        if ( bestSplit == -1 ) {
+            return null;
+        }
+        final double meanBefore = sum[ bestSplit ] / bestSplit;
+        final double meanAfter = ( sum[n] - sum[ bestSplit ] ) / ( n - bestSplit );
+        final double noise = Math.sqrt( bestCost / Math.max( 1 , n - 2 ) );
+        final double step = meanBefore - meanAfter;
+        if ( step < -Math.log( 1 - minDrop ) || step <= 2 * noise ) {
+            return null;
+        }
+        return new Knee( Kind.CLIFF , fileSizes.get( indices[ bestSplit ] ) , recordLength , (float) Math.exp( meanBefore ) , (float) Math.exp( meanAfter ) );
+    }
+
+    private static double squaredError(double[] sum,double[] sumSq,int from,int to)
+    {
+        final int count = to - from;
+        final double s = sum[to] - sum[from];
+        return ( sumSq[to] - sumSq[from] ) - s * s / count;
+    }
+
+    private Knee findSaturation(double[] logs,int n,int fileSize,int[] recordLengths)
+    {
+        if ( n < minPoints ) {
+            return null;
+        }
+        final double tolerance = Math.log( 1 + saturationTolerance );
+
+        // remaining headroom at index i is the largest value to the right minus the value at i
+        double max = logs[n-1];
+        int saturatedAt = n-1;
+        final double[] maxRight = new double[n];
+        for ( int i = n-1 ; i >= 0 ; i-- )
+        {
+            max = Math.max( max , logs[i] );
+            maxRight[i] = max;
+        }
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            if ( maxRight[i] - logs[i] < tolerance ) {
+                saturatedAt = i;
+                break;
+            }
+        }
+        // flat from the start or still rising at the largest record length
+        if ( saturatedAt == 0 || saturatedAt == n-1 || maxRight[0] - logs[0] < tolerance ) {
+            return null;
+        }
+        return new Knee( Kind.SATURATION , fileSize , recordLengths[ saturatedAt ] , (float) Math.exp( logs[0] ) , (float) Math.exp( maxRight[0] ) );
+    }
+
+    /**
+     * Creates a chart with markers at the knees of its report.
+     *
+     * @param report
+     * @return
+     */
+    public static IOZone3DChart createChart(IOZoneReport report)
+    {
+        final IOZone3DChart chart = new IOZone3DChart( report );
+        chart.setKnees( new KneeDetector().detect( report ).knees );
+        return chart;
+    }
+
+    /**
+     * Parses and analyzes results files in parallel.
+     *
+     * Files that cannot be parsed are skipped with a warning, same as {@link ReportAggregator} and {@link BatchPipeline} do.
+     *
+     * @param files
+     * @param threads
+     * @return results in the same order as the input files
+     * @throws IOException
+     */
+    public List<FileKnees> analyze(List<File> files,int threads) throws IOException
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            final List<Future<FileKnees>> futures = new ArrayList<>();
+            for ( File file : files )
+            {
+                futures.add( executor.submit( () ->
+                {
+                    final List<ReportKnees> reports = new ArrayList<>();
+                    try 
+                    {
+                        for ( IOZoneReport report : Chart3DViewer.loadReports( file ) ) {
+                            reports.add( detect( report ) );
+                        }
+                    } 
+                    catch(IOException | RuntimeException e) 
+                    {
+                        System.err.println("Skipping "+file+": "+e.getMessage());
+                        return null;
+                    }
+                    if ( reports.isEmpty() ) 
+                    {
+                        System.err.println("Skipping "+file+": no reports found");
+                        return null;
+                    }
+                    return new FileKnees( file , reports );
+                }));
+            }
+            final List<FileKnees> result = new ArrayList<>();
+            for ( Future<FileKnees> future : futures ) 
+            {
+                final FileKnees knees = future.get();
+                if ( knees != null ) {
+                    result.add( knees );
+                }
+            }
+            return result;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted",e);
+        }
+        catch (ExecutionException e)
+        {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Prints one line per report with its typical cliff and saturation point.
+     *
+     * @param results
+     * @param out
+     */
+    public static void printSummary(List<FileKnees> results,PrintStream out)
+    {
+        final String format = "%-24s %-24s %10s %6s %7s %12s %6s %5s%n";
+        out.printf( format , "File" , "Report" , "Cliff" , "Drop" , "Columns" , "Saturation" , "Gain" , "Rows" );
+        for ( FileKnees file : results )
+        {
+            for ( ReportKnees report : file.reports )
+            {
+                final int cliff = report.getTypicalCliffFileSize();
+                final int saturation = report.getTypicalSaturationRecordLength();
+                out.printf( format , abbreviate( file.file.getName() , 24 ) , abbreviate( report.reportName , 24 ) ,
+                        cliff == -1 ? "-" : cliff+"k" ,
+                        cliff == -1 ? "" : Math.round( report.getTypicalChange( Kind.CLIFF ) * 100 )+"%" ,
+                        report.getKnees( Kind.CLIFF ).size()+"/"+report.recordLengthCount ,
+                        saturation == -1 ? "-" : saturation+"k" ,
+                        saturation == -1 ? "" : "+"+Math.round( report.getTypicalChange( Kind.SATURATION ) * 100 )+"%" ,
+                        report.getKnees( Kind.SATURATION ).size()+"/"+report.fileSizeCount );
+            }
+        }
+    }
+
+    private static String abbreviate(String s,int maxLength) {
+        return s.length() <= maxLength ? s : s.substring( 0 , maxLength - 3 )+"...";
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 1 ) {
+            System.err.println("Usage: <results file or directory> [<results file or directory> ...]");
+            System.err.println("Detection thresholds can be configured with -Diozone.knees.minDrop=<percent> and -Diozone.knees.saturationTolerance=<percent>");
+            System.exit(1);
+        }
+        final List<File> inputs = new ArrayList<>();
+        for ( String arg : args ) {
+            inputs.add( new File( arg ) );
+        }
+        final KneeDetector detector = new KneeDetector();
+        detector.minDrop = Integer.getInteger( "iozone.knees.minDrop" , Math.round( detector.minDrop * 100 ) ) / 100f;
+        detector.saturationTolerance = Integer.getInteger( "iozone.knees.saturationTolerance" , Math.round( detector.saturationTolerance * 100 ) ) / 100f;
+
+        final List<File> files = ReportAggregator.listFiles( inputs );
+        printSummary( detector.analyze( files , Runtime.getRuntime().availableProcessors() ) , System.out );
+    }
+}
@@ -0,0 +1,92 @@
+package de.codesourcery.iozone;
+
+import java.util.Arrays;
+
+/**
+ * Coarse screen-space bitmap of areas already covered by labels.
+ *
+ * The screen is divided into square cells of {@link #CELL_SIZE} pixels, a label may only be placed
+ * if none of the cells its bounding box touches is occupied yet. Only labels within the tracked screen
+ * area get placed, which normally is the whole viewport. One instance is meant to be shared by all
+ * axes rendered into the same frame and needs to be {@link #reset(int, int) reset} before each frame.
+ */
+public final class LabelOccupancy
+{
+    public static final int CELL_SIZE = 4;
+
+    private long[] bits = new long[0];
+    private int originX;
+    private int originY;
+    private int columns;
+    private int rows;
+
+    /**
+     * Marks all cells as free.
+     *
+     * @param width screen width in pixels
+     * @param height screen height in pixels
+     */
+    public void reset(int width,int height)
+    {
+        reset( 0 , 0 , width , height );
+    }
+
+    /**
+     * Marks all cells as free.
+     *
+     * @param x left edge of the tracked screen area in pixels
+     * @param y top edge of the tracked screen area in pixels
+     * @param width width of the tracked screen area in pixels
+     * @param height height of the tracked screen area in pixels
+     */
+    public void reset(int x,int y,int width,int height)
+    {
+        originX = x;
+        originY = y;
+        columns = ( width + CELL_SIZE - 1 ) / CELL_SIZE;
+        rows = ( height + CELL_SIZE - 1 ) / CELL_SIZE;
+        final int words = ( columns * rows + 63 ) / 64;
+        if ( bits.length < words ) {
+            bits = new long[ words ];
+        } else {
+            Arrays.fill( bits , 0 , words , 0 );
+        }
+    }
+
+    /**
+     * Occupies the cells covered by a rectangle if all of them are still free.
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @return <code>true</code> if the rectangle got reserved, <code>false</code> if it collides with a previous
+     * reservation or lies completely off-screen
+     */
+    public boolean reserve(int x,int y,int width,int height)
+    {
+        final int minColumn = Math.max( 0 , Math.floorDiv( x - originX , CELL_SIZE ) );
+        final int minRow = Math.max( 0 , Math.floorDiv( y - originY , CELL_SIZE ) );
+        final int maxColumn = Math.min( columns - 1 , Math.floorDiv( x - originX + width - 1 , CELL_SIZE ) );
+        final int maxRow = Math.min( rows - 1 , Math.floorDiv( y - originY + height - 1 , CELL_SIZE ) );
+        if ( minColumn > maxColumn || minRow > maxRow ) {
+            return false;
+        }
+        for ( int row = minRow ; row <= maxRow ; row++ )
+        {
+            for ( int column = minColumn , bit = row * columns + minColumn ; column <= maxColumn ; column++ , bit++ )
+            {
+                if ( ( bits[ bit >>> 6 ] & ( 1L << bit ) ) != 0 ) {
+                    return false;
+                }
+            }
+        }
+        for ( int row = minRow ; row <= maxRow ; row++ )
+        {
+            for ( int column = minColumn , bit = row * columns + minColumn ; column <= maxColumn ; column++ , bit++ ) {
+                bits[ bit >>> 6 ] |= 1L << bit;
+            }
+        }
+        return true;
+    }
+}
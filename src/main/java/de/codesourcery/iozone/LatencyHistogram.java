@@ -0,0 +1,102 @@
+package de.codesourcery.iozone;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of durations in nanoseconds with log-linear buckets.
+ *
+ * Every power-of-two range is split into {@link #SUB_BUCKETS} linear sub-buckets, so
+ * recording a value only takes a few integer operations and never allocates while
+ * percentiles are accurate to about 3% of the value.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // values above 2^40 ns (about 18 minutes) are clamped
+    private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final long[] counts = new long[ SUB_BUCKETS + (MAX_SHIFT+1) * SUB_BUCKETS ];
+
+    private long count;
+    private long sum;
+    private long max;
+
+    public void record(long nanos)
+    {
+        final long value = Math.min( Math.max( nanos , 0 ) , MAX_VALUE );
+        counts[ indexOf( value ) ]++;
+        count++;
+        sum += value;
+        max = Math.max( max , value );
+    }
+
+    private static int indexOf(long value)
+    {
+        if ( value < SUB_BUCKETS ) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+        final int mantissa = (int) (value >>> shift); // [SUB_BUCKETS , 2*SUB_BUCKETS)
+        return SUB_BUCKETS + shift * SUB_BUCKETS + ( mantissa - SUB_BUCKETS );
+    }
+
+    private static long highestValueOf(int index)
+    {
+        if ( index < SUB_BUCKETS ) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final long mantissa = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ( (mantissa+1) << shift ) - 1;
+    }
+
+    /**
+     * Returns the value below or at which the given fraction of all recorded values falls.
+     *
+     * @param quantile quantile in [0,1]
+     * @return value in nanoseconds, never larger than {@link #getMax()}, 0 if the histogram is empty
+     */
+    public long getValueAtQuantile(double quantile)
+    {
+        if ( quantile < 0 || quantile > 1 ) {
+            throw new IllegalArgumentException("Quantile must be in [0,1]: "+quantile);
+        }
+        if ( count == 0 ) {
+            return 0;
+        }
+        final long rank = Math.max( 1 , (long) Math.ceil( quantile * count ) );
+        long seen = 0;
+        for ( int i = 0 ; i < counts.length ; i++ )
+        {
+            seen += counts[i];
+            if ( seen >= rank ) {
+                return Math.min( highestValueOf( i ) , max );
+            }
+        }
+        return max;
+    }
+
+    public void reset()
+    {
+        Arrays.fill( counts , 0 );
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : sum / (double) count;
+    }
+}
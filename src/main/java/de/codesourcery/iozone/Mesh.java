@@ -1,24 +1,73 @@
 package de.codesourcery.iozone;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Stroke;
 import java.util.Collections;
 import java.util.List;
 
 import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.math.Matrix3;
 import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.SharedLibraryLoader;
 
 public class Mesh
 {
-	protected static final Vector3 Y_AXIS = new Vector3(0,1,0);
+	protected static final Color OUTLINE_COLOR = Color.BLUE;
+	
+	// zero-width strokes take Java2D's fast thin-line path
+	protected static final Stroke OUTLINE_STROKE = new BasicStroke( 0f );
+
+	private static boolean nativesLoaded;
 
 	static {
-		System.loadLibrary("gdx64");
+		loadNativeLibrary();
+	}
+
+	/**
+	 * Loads libgdx's native math library, must be invoked before
+	 * any camera gets updated.
+	 * 
+	 * The library is looked up on <code>java.library.path</code> first and 
+	 * extracted from the gdx-platform natives jar on the classpath otherwise.
+	 */
+	public static synchronized void loadNativeLibrary() 
+	{
+		if ( ! nativesLoaded ) {
+			try {
+				System.loadLibrary("gdx64");
+			} 
+			catch(UnsatisfiedLinkError e) {
+				new SharedLibraryLoader().load("gdx");
+			}
+			nativesLoaded = true;
+		}
 	}
 
+	// raw (unscaled) vertex coordinates
 	private final float[] coords;
-	private final float[] tmpCoords;
+	
+	// affine term applied to Y coordinates while transforming, see scaleTo()
+	private float yScale = 1;
+	private float yTranslate = 0;
+	
+	/*
+	 * Min/max segment trees over the Y values of all vertices. Node i covers nodes 2i and 2i+1,
+	 * the leaves start at index vertexCount and node 1 holds the extrema of the whole mesh.
+	 */
+	private final int vertexCount;
+	private final float[] minTree;
+	private final float[] maxTree;
+	
+	// scratch buffers for transformed coordinates, per thread so that meshes can be rendered from multiple cameras concurrently
+	private static final ThreadLocal<float[]> TMP_COORDS = ThreadLocal.withInitial( () -> new float[0] );
+	
+	// model-space face normals, 3 floats per quad
+	private final float[] normals;
+	private boolean facesFlipped;
 
 	public final float quadWidth;
 	public final float quadHeight;
@@ -27,9 +76,6 @@ public class Mesh
 	private final int zSize;
 	public final String name;
 	
-	public float minY;
-	public float maxY;
-	
 	public Color defaultColor = Color.WHITE;
 	
 	public final Matrix4 modelMatrix = new Matrix4().idt();
@@ -48,8 +94,11 @@ public class Mesh
 		this.quadWidth = quadWidth;
 		this.quadHeight = quadHeight;
 
-		this.coords = new float[ xSize*zSize*3 ];
-		this.tmpCoords = new float[ coords.length ];
+		this.vertexCount = xSize*zSize;
+		this.coords = new float[ vertexCount*3 ];
+		this.minTree = new float[ 2*vertexCount ];
+		this.maxTree = new float[ 2*vertexCount ];
+		this.normals = new float[ Math.max(0,xSize-1)*Math.max(0,zSize-1)*3 ];
 
 		float vx = -(xSize/2)*quadWidth;
 		for ( int x = 0 ; x < xSize ; x++ , vx += quadWidth )
@@ -63,6 +112,75 @@ public class Mesh
 				coords[ptr+2]=vz;  // z
 			}
 		}
+		scanData();
+		updateNormals();
+	}
+	
+	/**
+	 * Reverses the winding of all faces so that the mesh is visible from
+	 * the opposite side when back-face culling is enabled.
+	 */
+	public void flipFaces() 
+	{
+	    facesFlipped = ! facesFlipped;
+	    updateNormals();
+	}
+	
+	private int normalOffset(int xIndex,int zIndex) {
+	    return 3*( zIndex * (xSize-1) + xIndex );
+	}
+	
+	private void updateNormals() 
+	{
+	    for ( int z = 0 ; z < zSize-1 ; z++ ) 
+	    {
+	        for ( int x = 0 ; x < xSize-1 ; x++ ) 
+	        {
+	            updateNormal( x , z );
+	        }
+	    }
+	}
+	
+	private void updateNormal(int x,int z) 
+	{
+	    /*
+	     * normal = (c0 - c1) x (c2 - c1)
+	     * 
+	     *   3+-------+2
+	     *    |       |
+	     *    |       |
+	     *   0+-------+1
+	     */	    
+	    final int offset0 = arrayOffset( x   , z );
+	    final int offset1 = arrayOffset( x+1 , z );
+	    final int offset2 = arrayOffset( x+1 , z+1 );
+	    
+	    final float ax = coords[offset0]   - coords[offset1];
+	    final float ay = coords[offset0+1] - coords[offset1+1];
+	    final float az = coords[offset0+2] - coords[offset1+2];
+	    
+	    final float bx = coords[offset2]   - coords[offset1];
+	    final float by = coords[offset2+1] - coords[offset1+1];
+	    final float bz = coords[offset2+2] - coords[offset1+2];
+	    
+	    float nx = ay * bz - az * by;
+	    float ny = az * bx - ax * bz;
+	    float nz = ax * by - ay * bx;
+	    
+	    float len = (float) Math.sqrt( nx*nx + ny*ny + nz*nz );
+	    if ( len != 0 ) 
+	    {
+	        if ( facesFlipped ) {
+	            len = -len;
+	        }
+	        nx /= len;
+	        ny /= len;
+	        nz /= len;
+	    }
+	    final int ptr = normalOffset( x , z );
+	    normals[ptr]   = nx;
+	    normals[ptr+1] = ny;
+	    normals[ptr+2] = nz;
 	}
 	
 	public void populate(DataProvider provider) 
@@ -75,47 +193,115 @@ public class Mesh
 	        }
 	    }
 	    scanData();
+	    updateNormals();
 	}
 	
+	/**
+	 * Rebuilds the min/max trees from scratch.
+	 */
 	public void scanData() 
 	{
-       float min = coords[1];
-       float max = min;
-        for ( int ptr = 0 ; ptr < coords.length ; ptr += 3 ) {
-            float value = coords[ptr+1];
-            if ( value < min ) {
-                min = value;
-            }
-            if ( value > max ) {
-                max = value;
-            }
-        }
-        this.minY = min;
-        this.maxY = max;
+	    for ( int i = 0 ; i < vertexCount ; i++ ) 
+	    {
+	        final float value = coords[ 3*i + 1 ];
+	        minTree[ vertexCount + i ] = value;
+	        maxTree[ vertexCount + i ] = value;
+	    }
+	    for ( int i = vertexCount - 1 ; i > 0 ; i-- ) 
+	    {
+	        minTree[i] = Math.min( minTree[2*i] , minTree[2*i+1] );
+	        maxTree[i] = Math.max( maxTree[2*i] , maxTree[2*i+1] );
+	    }
 	}
 	
+	private void updateTree(int vertexIndex) 
+	{
+	    int i = vertexCount + vertexIndex;
+	    final float value = coords[ 3*vertexIndex + 1 ];
+	    minTree[i] = value;
+	    maxTree[i] = value;
+	    for ( i >>>= 1 ; i > 0 ; i >>>= 1 ) 
+	    {
+	        minTree[i] = Math.min( minTree[2*i] , minTree[2*i+1] );
+	        maxTree[i] = Math.max( maxTree[2*i] , maxTree[2*i+1] );
+	    }
+	}
+	
+	/**
+	 * Returns the smallest raw (unscaled) Y value.
+	 */
 	public float getMinY() 
 	{
-	    return minY;
+	    return minTree[1];
 	}
 	
+	/**
+	 * Returns the largest raw (unscaled) Y value.
+	 */
     public float getMaxY() 
     {
-        return maxY;
+        return maxTree[1];
     }	
     
+    /**
+     * Scales Y values so that the current value range ends up with the given extent.
+     * 
+     * Raw values are left untouched, this only sets up an affine term that gets
+     * applied while transforming vertices so rescaling is cheap and lossless.
+     * 
+     * @param yMin
+     * @param yMax
+     */
     public void scaleTo(float yMin,float yMax) 
     {
         float currentRange = getMaxY() - getMinY();
         float desiredRange = yMax - yMin;
-        float scale = desiredRange/currentRange;
+        float scale = currentRange != 0 ? desiredRange/currentRange : 0;
         float yOffset = yMin - getMinY();
         
-        for ( int ptr = 0 ; ptr < coords.length ; ptr += 3 ) 
-        {
-            coords[ptr+1] = (coords[ptr+1] + yOffset ) * scale; 
-        }
+        this.yScale = scale;
+        this.yTranslate = yOffset * scale;
     }
+    
+    /**
+     * Maps a raw Y value to the value used for rendering.
+     * 
+     * @param rawValue
+     * @return
+     * @see #scaleTo(float, float)
+     */
+    public float toScaledY(float rawValue) {
+        return rawValue * yScale + yTranslate;
+    }
+	
+    /**
+     * Returns the model-space position of a vertex, with Y scaling applied.
+     * 
+     * @param xIndex
+     * @param zIndex
+     * @param out
+     * @return <code>out</code>
+     */
+    public Vector3 getVertex(int xIndex,int zIndex,Vector3 out) 
+    {
+        final int ptr = arrayOffset( xIndex , zIndex );
+        return out.set( coords[ptr] , toScaledY( coords[ptr+1] ) , coords[ptr+2] );
+    }
+	
+	/**
+	 * Returns the bounds of all vertices after applying this mesh's model matrix.
+	 * 
+	 * @param out
+	 * @return <code>out</code>
+	 */
+	public BoundingBox getBounds(BoundingBox out) 
+	{
+		final Vector3 min = getVertex( 0 , 0 , new Vector3() );
+		final Vector3 max = getVertex( xSize-1 , zSize-1 , new Vector3() );
+		min.y = toScaledY( getMinY() );
+		max.y = toScaledY( getMaxY() );
+		return out.set( min , max ).mul( modelMatrix );
+	}
 	
 	public float width() 
 	{
@@ -142,6 +328,16 @@ public class Mesh
 	public void setValue(int xIndex,int zIndex,float yValue)
 	{
 		this.coords[ arrayOffset(xIndex,zIndex) + 1] = yValue;
+		updateTree( zIndex * xSize + xIndex );
+		
+		// update normals of all quads sharing this vertex 
+		for ( int z = Math.max(0,zIndex-1) ; z <= zIndex && z < zSize-1 ; z++ ) 
+		{
+		    for ( int x = Math.max(0,xIndex-1) ; x <= xIndex && x < xSize-1 ; x++ ) 
+		    {
+		        updateNormal( x , z );
+		    }
+		}
 	}
 
 	private void readVector3(final float[] array, int xIndex,int zIndex,Vector3 out)
@@ -154,35 +350,90 @@ public class Mesh
 
 	public void toQuads(Matrix4 viewMatrix , Camera camera,List<Quad> out, boolean backfaceCulling,boolean isDataPlane)
 	{
-	    System.arraycopy( coords , 0 , tmpCoords , 0 , coords.length );
-	    
-	    Matrix4 tmp = viewMatrix.cpy();
+	    toQuads( viewMatrix , camera , out , backfaceCulling , isDataPlane , 1 );
+	}
+	
+	/**
+	 * 
+	 * @param viewMatrix
+	 * @param camera
+	 * @param out
+	 * @param backfaceCulling
+	 * @param isDataPlane
+	 * @param stride number of cells to merge into a single quad along each axis, 1 renders the mesh at full resolution
+	 */
+	public void toQuads(Matrix4 viewMatrix , Camera camera,List<Quad> out, boolean backfaceCulling,boolean isDataPlane,int stride)
+	{
+	    final Matrix4 tmp = viewMatrix.cpy();
 	    tmp.mul( modelMatrix );
+	    final Matrix4 modelView = yScale != 0 ? tmp : tmp.cpy();
+	    if ( yScale != 1 || yTranslate != 0 ) {
+	        tmp.mul( new Matrix4().setToTranslationAndScaling( 0 , yTranslate , 0 , 1 , yScale , 1 ) );
+	    }
+	    
+	    float[] tmpCoords = TMP_COORDS.get();
+	    if ( tmpCoords.length < coords.length ) 
+	    {
+	        tmpCoords = new float[ coords.length ];
+	        TMP_COORDS.set( tmpCoords );
+	    }
+	    System.arraycopy( coords , 0 , tmpCoords , 0 , coords.length );
+	    Matrix4.mulVec( tmp.val , tmpCoords , 0 , coords.length/3 , 3 );
 	    
-	    Matrix4.mulVec(tmp.val , tmpCoords , 0 , coords.length/3 , 3 );
+	    /*
+	     * Normals need to be transformed using the inverse transpose of the model-view matrix, this also
+	     * corrects the raw normals for Y scaling. Data scaled to zero height has no inverse but it's flat anyway
+	     * so its normals are parallel to the Y axis and not affected by scaling.
+	     */
+	    final float[] n = new Matrix3().set( modelView ).inv().transpose().val;
 	    
-		for ( int z = 0 ; z < zSize-1 ; z++ )
+		for ( int z = 0 ; z < zSize-1 ; z += stride )
 		{
-			for ( int x = 0 ; x < xSize-1 ; x++ )
+		    final int z2 = Math.min( z+stride , zSize-1 );
+			for ( int x = 0 ; x < xSize-1 ; x += stride )
 			{
+			    final int x2 = Math.min( x+stride , xSize-1 );
 				/*
 				 *   3+-------+2
 				 *    |       |
 				 *    |       |
 				 *   0+-------+1
 				 */
+				final int offset0 = arrayOffset( x  , z );
+				final int offset1 = arrayOffset( x2 , z );
+				final int offset2 = arrayOffset( x2 , z2 );
+				final int offset3 = arrayOffset( x  , z2 );
+				
+				if ( backfaceCulling ) 
+				{
+				    // we're in view space so the vector from the eye to the quad's center is just the center itself
+				    final float cx = tmpCoords[offset0]   + tmpCoords[offset1]   + tmpCoords[offset2]   + tmpCoords[offset3];
+				    final float cy = tmpCoords[offset0+1] + tmpCoords[offset1+1] + tmpCoords[offset2+1] + tmpCoords[offset3+1];
+				    final float cz = tmpCoords[offset0+2] + tmpCoords[offset1+2] + tmpCoords[offset2+2] + tmpCoords[offset3+2];
+				    
+				    final int ptr = normalOffset( x , z );
+				    final float nx = normals[ptr], ny = normals[ptr+1], nz = normals[ptr+2];
+				    final float vnx = n[Matrix3.M00]*nx + n[Matrix3.M01]*ny + n[Matrix3.M02]*nz;
+				    final float vny = n[Matrix3.M10]*nx + n[Matrix3.M11]*ny + n[Matrix3.M12]*nz;
+				    final float vnz = n[Matrix3.M20]*nx + n[Matrix3.M21]*ny + n[Matrix3.M22]*nz;
+				    if ( cx*vnx + cy*vny + cz*vnz > 0 ) {
+				        continue;
+				    }
+				}
+				
 				final Quad quad = new Quad();
+				quad.mesh = this;
+				quad.x0 = x;
+				quad.z0 = z;
+				quad.x1 = x2;
+				quad.z1 = z2;
 				quad.color = defaultColor;
-				final int offset0 = arrayOffset( x   , z );
-				final int offset1 = arrayOffset( x+1 , z );
-				final int offset2 = arrayOffset( x+1 , z+1 );
-				final int offset3 = arrayOffset( x   , z+1 );
 				quad.avgDataValue = (coords[offset0+1] + coords[offset1+1] + coords[offset2+1] + coords[offset3+1])/4f;
 				
-				readVector3( tmpCoords , x   , z   , quad.c0  );
-				readVector3( tmpCoords , x+1 , z   , quad.c1 );
-				readVector3( tmpCoords , x+1 , z+1 , quad.c2 );
-				readVector3( tmpCoords , x   , z+1 , quad.c3 );
+				readVector3( tmpCoords , x  , z  , quad.c0 );
+				readVector3( tmpCoords , x2 , z  , quad.c1 );
+				readVector3( tmpCoords , x2 , z2 , quad.c2 );
+				readVector3( tmpCoords , x  , z2 , quad.c3 );
 //				if ( isDataPlane ) 
 //				{
 //    				final float avgYCoordinate1 = (quad.c0.y + quad.c1.y )/2f;
@@ -190,46 +441,102 @@ public class Mesh
 //    				quad.c0.y = quad.c1.y = avgYCoordinate1;
 //    				quad.c2.y = quad.c3.y = avgYCoordinate2;
 //				}
-				quad.update( camera );
-				if ( ! backfaceCulling || quad.visible ) {
-				    out.add( quad );
-				}
+				quad.update();
+			    out.add( quad );
 			}
 		}
 	}
 	
 	public static void renderQuads(List<Quad> quads,Camera camera,Graphics2D gfx)
+	{
+	    renderQuads( quads , camera , gfx , true );
+	}
+	
+	public static void renderQuads(List<Quad> quads,Camera camera,Graphics2D gfx,boolean drawOutlines)
+	{
+	    renderQuads( quads , camera , gfx , drawOutlines , null );
+	}
+	
+	/**
+	 * Sorts and renders quads.
+	 * 
+	 * @param quads
+	 * @param camera
+	 * @param gfx
+	 * @param drawOutlines
+	 * @param pickingGrid grid to add the projected quads to, may be <code>null</code>. The caller is responsible for resetting the grid.
+	 */
+	public static void renderQuads(List<Quad> quads,Camera camera,Graphics2D gfx,boolean drawOutlines,PickingGrid pickingGrid)
+	{
+	    renderQuads( quads , camera , gfx , drawOutlines , pickingGrid , null );
+	}
+	
+	/**
+	 * Sorts and renders quads.
+	 * 
+	 * @param quads
+	 * @param camera
+	 * @param gfx
+	 * @param drawOutlines
+	 * @param pickingGrid grid to add the projected quads to, may be <code>null</code>. The caller is responsible for resetting the grid.
+	 * @param stats receives the time spent in the {@link FrameStats.Phase#SORT} and {@link FrameStats.Phase#RASTER} phases, may be <code>null</code>
+	 */
+	public static void renderQuads(List<Quad> quads,Camera camera,Graphics2D gfx,boolean drawOutlines,PickingGrid pickingGrid,FrameStats stats)
+	{
+		renderQuads( quads , camera , new Graphics2DSink( gfx , drawOutlines ) , pickingGrid , stats );
+	}
+	
+	/**
+	 * Sorts quads and hands them to a sink in runs of the same color.
+	 * 
+	 * @param quads
+	 * @param camera
+	 * @param sink
+	 * @param pickingGrid grid to add the projected quads to, may be <code>null</code>. The caller is responsible for resetting the grid.
+	 * @param stats receives the time spent in the {@link FrameStats.Phase#SORT} and {@link FrameStats.Phase#RASTER} phases, may be <code>null</code>
+	 */
+	public static void renderQuads(List<Quad> quads,Camera camera,SceneSink sink,PickingGrid pickingGrid,FrameStats stats)
 	{
 		// sort back-to-front and render
+		final long sortStart = System.nanoTime();
 		Collections.sort( quads );
+		final long rasterStart = System.nanoTime();
+		if ( stats != null ) {
+		    stats.add( FrameStats.Phase.SORT , rasterStart - sortStart );
+		}
 
 		// render along view direction
-		final int[] vx = new int[4];
-		final int[] vz = new int[4];
-		for ( Quad quad : quads )
+		boolean inRun = false;
+		Color runColor = null;
+		for ( int i = 0 , len = quads.size() ; i < len ; i++ )
 		{
+			final Quad quad = quads.get(i);
+			if ( ! inRun || quad.color != runColor ) 
+			{
+				if ( inRun ) {
+					sink.endRun();
+				}
+				runColor = quad.color;
+				sink.beginRun( runColor );
+				inRun = true;
+			}
+			
 			Axis.worldToScreen( quad.c0 , camera );
 			Axis.worldToScreen( quad.c1 , camera );
 			Axis.worldToScreen( quad.c2 , camera );
 			Axis.worldToScreen( quad.c3 , camera );
-			
-			vx[0] = (int) quad.c0.x;
-			vz[0] = (int) quad.c0.y;
-
-			vx[1] = (int) quad.c1.x;
-			vz[1] = (int) quad.c1.y;
 
-			vx[2] = (int) quad.c2.x;
-			vz[2] = (int) quad.c2.y;
-
-			vx[3] = (int) quad.c3.x;
-			vz[3] = (int) quad.c3.y;
-			
-			gfx.setColor( quad.color );
-			gfx.fillPolygon( vx , vz , 4 );
-			
-			gfx.setColor( Color.BLUE);
-			gfx.drawPolygon( vx , vz , 4 );
+			if ( pickingGrid != null ) {
+			    pickingGrid.add( quad );
+			}
+			sink.quad( quad );
+		}
+		if ( inRun ) {
+			sink.endRun();
+		}
+		
+		if ( stats != null ) {
+		    stats.add( FrameStats.Phase.RASTER , System.nanoTime() - rasterStart );
 		}
 	}
 
@@ -240,41 +547,108 @@ public class Mesh
 		public final Vector3 c2 = new Vector3();
 		public final Vector3 c3 = new Vector3();
 		public float dist;
-		public float angleRad;
 		public Color color;
-		public boolean visible;
 		
+		// mesh this quad belongs to and vertex indices of corners c0 and c2 
+		public Mesh mesh;
+		public int x0,z0;
+		public int x1,z1;
+		
+		// average raw (unscaled) Y value of the corners
 		public float avgDataValue;
 
-		public void update(Camera camera)
+		/**
+		 * Updates the depth-sort key, corners need to be in view space.
+		 */
+		public void update()
 		{
-			final Vector3 center = c0.cpy();
-			center.add( c1 );
-			center.add( c2 );
-			center.add( c3 );
-			center.scl(1/4f);
+			final float cx = (c0.x + c1.x + c2.x + c3.x)/4f;
+			final float cy = (c0.y + c1.y + c2.y + c3.y)/4f;
+			final float cz = (c0.z + c1.z + c2.z + c3.z)/4f;
 			
-			// calculate surface normal for visibility check
-			Vector3 vp1 = c0.cpy().sub( c1 );
-			Vector3 vp2 = c2.cpy().sub( c1 );
-			
-			Vector3 surfaceNormal = vp1.crs( vp2 ).nor();
-			
-			float angle = center.cpy().sub( camera.position ).dot( surfaceNormal );
-			visible = angle <= 0;
-			
-			final Vector3 planeNormal = camera.direction;
-			final Vector3 pointOnPlane = camera.position;
-			
-//			dist = planeNormal.dot( center.sub( pointOnPlane ) );
-			dist = center.cpy().sub( camera.position ).len();
+			// the eye sits at the origin of view space
+			dist = (float) Math.sqrt( cx*cx + cy*cy + cz*cz );
+		}
 
-			// calculate angle between normal and Y axis
-			Vector3 v1 = c0.cpy().sub( c1 );
-			Vector3 v2 = c2.cpy().sub( c1 );
-			final Vector3 normal = v1.crs( v2 ).nor();
+		/**
+		 * Splits a projected quad into simple polygons that are all wound clockwise on screen.
+		 *
+		 * The data surface is visible from both sides and not planar, so projected quads come with either
+		 * winding and may even be self-intersecting ("bow-ties"). Quads of the same color get filled as one path using the non-zero
+		 * winding rule, overlapping parts of opposite winding would cancel each other out and leave holes. A bow-tie
+		 * is split at the crossing of its edges into two triangles that together cover the same pixels as filling it on its own.
+		 *
+		 * @param in x,y pairs of the four corners in screen coordinates (y pointing down)
+		 * @param out receives x,y pairs of either one quad (8 values) or two triangles (12 values)
+		 * @return number of polygons written, 1 for a quad or 2 for a pair of triangles
+		 */
+		public static int toClockwise(float[] in,float[] out)
+		{
+			// bow-tie if opposite edges cross each other
+			if ( split( in , 0 , 1 , 2 , 3 , out ) || split( in , 1 , 2 , 3 , 0 , out ) ) {
+				return 2;
+			}
+			final double area = (double) in[0]*in[3] - (double) in[2]*in[1]
+			                  + (double) in[2]*in[5] - (double) in[4]*in[3]
+			                  + (double) in[4]*in[7] - (double) in[6]*in[5]
+			                  + (double) in[6]*in[1] - (double) in[0]*in[7];
+			if ( area >= 0 ) {
+				System.arraycopy( in , 0 , out , 0 , 8 );
+			} else {
+				// reverse the corner order
+				out[0] = in[0]; out[1] = in[1];
+				out[2] = in[6]; out[3] = in[7];
+				out[4] = in[4]; out[5] = in[5];
+				out[6] = in[2]; out[7] = in[3];
+			}
+			return 1;
+		}
+
+		/*
+		 * Checks whether edge a-b properly crosses edge c-d and if so, writes the two triangles
+		 * (P,b,c) and (P,d,a) with P being the intersection.
+		 */
+		private static boolean split(float[] in,int a,int b,int c,int d,float[] out)
+		{
+			final float ax = in[2*a], ay = in[2*a+1];
+			final float bx = in[2*b], by = in[2*b+1];
+			final float cx = in[2*c], cy = in[2*c+1];
+			final float dx = in[2*d], dy = in[2*d+1];
+
+			final double d1 = cross( ax , ay , bx , by , cx , cy );
+			final double d2 = cross( ax , ay , bx , by , dx , dy );
+			final double d3 = cross( cx , cy , dx , dy , ax , ay );
+			final double d4 = cross( cx , cy , dx , dy , bx , by );
+			if ( ! ( ( d1 > 0 && d2 < 0 || d1 < 0 && d2 > 0 ) && ( d3 > 0 && d4 < 0 || d3 < 0 && d4 > 0 ) ) ) {
+				return false;
+			}
+			final double t = d3 / ( d3 - d4 );
+			final float px = (float) ( ax + t * ( bx - ax ) );
+			final float py = (float) ( ay + t * ( by - ay ) );
+			triangle( px , py , bx , by , cx , cy , out , 0 );
+			triangle( px , py , dx , dy , ax , ay , out , 6 );
+			return true;
+		}
+
+		private static void triangle(float x0,float y0,float x1,float y1,float x2,float y2,float[] out,int offset)
+		{
+			out[offset] = x0;
+			out[offset+1] = y0;
+			if ( cross( x0 , y0 , x1 , y1 , x2 , y2 ) >= 0 )
+			{
+				out[offset+2] = x1; out[offset+3] = y1;
+				out[offset+4] = x2; out[offset+5] = y2;
+			}
+			else
+			{
+				out[offset+2] = x2; out[offset+3] = y2;
+				out[offset+4] = x1; out[offset+5] = y1;
+			}
+		}
 
-			angleRad = (float) Math.acos( normal.dot( Y_AXIS ) );
+		// z component of (b-a) x (c-a), positive if a,b,c are clockwise on screen (y pointing down)
+		private static double cross(float ax,float ay,float bx,float by,float cx,float cy) {
+			return (double) ( bx - ax ) * ( cy - ay ) - (double) ( by - ay ) * ( cx - ax );
 		}
 
 		@Override
@@ -0,0 +1,254 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams a scene as a single-page PDF.
+ *
+ * The page content is deflated on the fly, each run of quads becomes a single path that gets filled
+ * (and outlined) with one operator. Its length is only known at the end so it is written as an indirect
+ * object after the content stream. Labels use the standard Helvetica fonts that every viewer provides,
+ * one pixel maps to one point.
+ */
+public class PDFWriter extends VectorWriter
+{
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final int PAGE = 3;
+    private static final int CONTENT = 4;
+    private static final int CONTENT_LENGTH = 5;
+    private static final int FONT_REGULAR = 6;
+    private static final int FONT_BOLD = 7;
+
+    private final CountingOutputStream out;
+    private final long[] offsets = new long[ FONT_BOLD + 1 ];
+    private final Deflater compressor = new Deflater( Deflater.DEFAULT_COMPRESSION );
+    private final DeflaterOutputStream deflater;
+    private final Writer content;
+    private final long contentStart;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private Color runColor;
+    private boolean inPath;
+
+    /**
+     * Create instance and write everything up to the start of the page content.
+     *
+     * @param out stream to write to, gets closed by {@link #close()}
+     * @param width
+     * @param height
+     * @throws IOException
+     */
+    public PDFWriter(OutputStream out,int width,int height) throws IOException
+    {
+        super( width , height );
+        this.out = new CountingOutputStream( out );
+
+        // binary comment marks the file as binary for transfer programs
+        writeRaw( "%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n" );
+        writeObject( CATALOG , "<< /Type /Catalog /Pages "+PAGES+" 0 R >>" );
+        writeObject( PAGES , "<< /Type /Pages /Kids [ "+PAGE+" 0 R ] /Count 1 >>" );
+        writeObject( PAGE , "<< /Type /Page /Parent "+PAGES+" 0 R /MediaBox [ 0 0 "+width+" "+height+" ]"
+                + " /Resources << /Font << /F1 "+FONT_REGULAR+" 0 R /F2 "+FONT_BOLD+" 0 R >> >> /Contents "+CONTENT+" 0 R >>" );
+        writeObject( FONT_REGULAR , "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>" );
+        writeObject( FONT_BOLD , "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica-Bold /Encoding /WinAnsiEncoding >>" );
+
+        offsets[ CONTENT ] = this.out.count;
+        writeRaw( CONTENT+" 0 obj\n<< /Length "+CONTENT_LENGTH+" 0 R /Filter /FlateDecode >>\nstream\n" );
+        contentStart = this.out.count;
+
+        this.deflater = new DeflaterOutputStream( new FilterOutputStream( this.out )
+        {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write( b , off , len );
+            }
+
+            @Override
+            public void close() {
+                // the trailer still needs to be written
+            }
+        }, compressor , 64*1024 );
+        this.content = new OutputStreamWriter( deflater , StandardCharsets.ISO_8859_1 );
+
+        // use the same coordinate system as Java2D (origin top-left, y pointing down)
+        content.write( "1 0 0 -1 0 "+height+" cm\n" );
+        buffer.setLength( 0 );
+        color( SceneRenderer.BACKGROUND , "rg" );
+        buffer.append( "0 0 " ).append( width ).append( ' ' ).append( height ).append( " re f\n" );
+        content.append( buffer );
+    }
+
+    @Override
+    public void beginRun(Color color)
+    {
+        runColor = color;
+        inPath = false;
+    }
+
+    @Override
+    protected void writePolygon(float[] points,int offset,int count) throws IOException
+    {
+        buffer.setLength( 0 );
+        if ( ! inPath )
+        {
+            color( runColor , "rg" );
+            if ( drawOutlines )
+            {
+                color( Mesh.OUTLINE_COLOR , "RG" );
+                buffer.append( "0 w\n" ); // thinnest line the device can render, like Mesh.OUTLINE_STROKE
+            }
+            inPath = true;
+        }
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            format( points[offset+2*i] , buffer ).append( ' ' );
+            format( points[offset+2*i+1] , buffer ).append( i == 0 ? " m " : " l " );
+        }
+        buffer.append( "h\n" );
+        content.append( buffer );
+    }
+
+    @Override
+    public void endRun()
+    {
+        if ( inPath )
+        {
+            write( drawOutlines ? "B\n" : "f\n" );
+            inPath = false;
+        }
+    }
+
+    @Override
+    public void line(int x0, int y0, int x1, int y1, Color color)
+    {
+        buffer.setLength( 0 );
+        color( color , "RG" );
+        buffer.append( "1 w " ).append( x0 ).append( ' ' ).append( y0 ).append( " m " ).append( x1 ).append( ' ' ).append( y1 ).append( " l S\n" );
+        write( buffer );
+    }
+
+    @Override
+    public void text(String text, int x, int y, Font font, Color color)
+    {
+        buffer.setLength( 0 );
+        color( color , "rg" );
+        buffer.append( "BT /" ).append( font.isBold() ? "F2 " : "F1 " );
+        format( font.getSize2D() , buffer ).append( " Tf" );
+        // flip glyphs back upright
+        buffer.append( " 1 0 0 -1 " ).append( x ).append( ' ' ).append( y ).append( " Tm (" );
+        for ( int i = 0 , len = text.length() ; i < len ; i++ )
+        {
+            final char c = text.charAt( i );
+            if ( c == '(' || c == ')' || c == '\\' ) {
+                buffer.append( '\\' ).append( c );
+            } else {
+                buffer.append( c < 32 || c > 255 ? '?' : c );
+            }
+        }
+        buffer.append( ") Tj ET\n" );
+        write( buffer );
+    }
+
+    @Override
+    public void polygon(int[] xPoints, int[] yPoints, int count, Color fill, Color outline)
+    {
+        buffer.setLength( 0 );
+        color( fill , "rg" );
+        color( outline , "RG" );
+        buffer.append( "1 w" );
+        for ( int i = 0 ; i < count ; i++ ) {
+            buffer.append( ' ' ).append( xPoints[i] ).append( ' ' ).append( yPoints[i] ).append( i == 0 ? " m" : " l" );
+        }
+        buffer.append( " h B\n" );
+        write( buffer );
+    }
+
+    private void color(Color color,String operator)
+    {
+        format( color.getRed() / 255f , 3 , buffer ).append( ' ' );
+        format( color.getGreen() / 255f , 3 , buffer ).append( ' ' );
+        format( color.getBlue() / 255f , 3 , buffer ).append( ' ' ).append( operator ).append( '\n' );
+    }
+
+    private void write(CharSequence s)
+    {
+        try {
+            content.append( s );
+        } catch (IOException e) {
+            throw wrap( e );
+        }
+    }
+
+    private void writeRaw(String s) throws IOException {
+        out.write( s.getBytes( StandardCharsets.ISO_8859_1 ) );
+    }
+
+    private void writeObject(int number,String dictionary) throws IOException
+    {
+        offsets[ number ] = out.count;
+        writeRaw( number+" 0 obj\n"+dictionary+"\nendobj\n" );
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            content.flush();
+            deflater.finish();
+            final long length = out.count - contentStart;
+            writeRaw( "\nendstream\nendobj\n" );
+            writeObject( CONTENT_LENGTH , Long.toString( length ) );
+
+            final long xref = out.count;
+            final StringBuilder trailer = new StringBuilder();
+            trailer.append( "xref\n0 " ).append( offsets.length ).append( "\n0000000000 65535 f \n" );
+            for ( int i = 1 ; i < offsets.length ; i++ ) {
+                trailer.append( String.format( "%010d 00000 n \n" , offsets[i] ) );
+            }
+            trailer.append( "trailer\n<< /Size " ).append( offsets.length ).append( " /Root " ).append( CATALOG ).append( " 0 R >>\n" );
+            trailer.append( "startxref\n" ).append( xref ).append( "\n%%EOF\n" );
+            writeRaw( trailer.toString() );
+        }
+        finally
+        {
+            compressor.end();
+            out.close();
+            super.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream
+    {
+        public long count;
+
+        public CountingOutputStream(OutputStream out) {
+            super( out );
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write( b );
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write( b , off , len );
+            count += len;
+        }
+    }
+}
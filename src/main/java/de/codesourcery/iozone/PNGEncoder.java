@@ -0,0 +1,478 @@
+package de.codesourcery.iozone;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes truecolor PNG images, filtering and compressing the image data on multiple threads.
+ *
+ * Scanlines are split into chunks that get filtered and deflated independently, like pigz does.
+ * Each chunk is compressed with the last 32 KB of its predecessor as preset dictionary and ends
+ * with a sync flush, so the compressed chunks simply concatenate into a single zlib stream whose
+ * Adler-32 checksum is combined from the per-chunk checksums.
+ */
+public final class PNGEncoder
+{
+    /** Stored deflate blocks and unfiltered scanlines, fastest option for intermediate files */
+    public static final int UNCOMPRESSED = Deflater.NO_COMPRESSION;
+    public static final int FAST = Deflater.BEST_SPEED;
+    public static final int DEFAULT = Deflater.DEFAULT_COMPRESSION;
+    public static final int BEST = Deflater.BEST_COMPRESSION;
+
+    // amount of filtered image data per chunk, same as pigz's default block size
+    private static final int CHUNK_SIZE = 128*1024;
+
+    private static final int DICTIONARY_SIZE = 32*1024;
+
+    // highest compression level that uses a fixed scanline filter instead of picking the best one per row
+    private static final int FAST_FILTER_MAX_LEVEL = 3;
+
+    private static final byte[] SIGNATURE = { (byte) 0x89 , 'P' , 'N' , 'G' , '\r' , '\n' , 0x1a , '\n' };
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    private final int level;
+    private final ExecutorService executor;
+
+    public PNGEncoder() {
+        this(DEFAULT);
+    }
+
+    /**
+     * Create instance that filters and compresses chunks on the common fork-join pool.
+     *
+     * @param level deflate compression level (0-9 or {@link #DEFAULT})
+     * @see #PNGEncoder(int, ExecutorService)
+     */
+    public PNGEncoder(int level) {
+        this(level, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param level deflate compression level (0-9 or {@link #DEFAULT})
+     * @param executor executor to filter and compress chunks on, the thread calling {@link #write(BufferedImage, OutputStream)}
+     * waits for them. Pass a bounded pool to limit the CPU used for encoding.
+     */
+    public PNGEncoder(int level,ExecutorService executor)
+    {
+        if ( level != DEFAULT && ( level < 0 || level > 9 ) ) {
+            throw new IllegalArgumentException("Invalid compression level: "+level);
+        }
+        this.level = level;
+        this.executor = executor;
+    }
+
+    private static final class Chunk
+    {
+        public final int firstRow;
+        public final int rowCount;
+
+        public byte[] filtered;
+        public long adler32;
+        public byte[] compressed;
+
+        public Chunk(int firstRow, int rowCount)
+        {
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+        }
+    }
+
+    public byte[] encode(BufferedImage image) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write( image , out );
+        return out.toByteArray();
+    }
+
+    public void write(BufferedImage image,File file) throws IOException
+    {
+        try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( file ) , 64*1024 ) ) {
+            write( image , out );
+        }
+    }
+
+    public void write(BufferedImage image,OutputStream out) throws IOException
+    {
+        final boolean alpha = image.getColorModel().hasAlpha();
+        final int bytesPerPixel = alpha ? 4 : 3;
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int rowBytes = width * bytesPerPixel;
+
+        final int rowsPerChunk = Math.max( 1 , CHUNK_SIZE / (rowBytes+1) );
+        final List<Chunk> chunks = new ArrayList<>();
+        for ( int row = 0 ; row < height ; row += rowsPerChunk ) {
+            chunks.add( new Chunk( row , Math.min( rowsPerChunk , height - row ) ) );
+        }
+
+        // filter all chunks first, compressing a chunk needs the filtered data of its predecessor as dictionary
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for ( Chunk chunk : chunks )
+        {
+            tasks.add( () ->
+            {
+                chunk.filtered = filter( image , chunk , bytesPerPixel );
+                final Adler32 adler = new Adler32();
+                adler.update( chunk.filtered , 0 , chunk.filtered.length );
+                chunk.adler32 = adler.getValue();
+                return null;
+            });
+        }
+        invokeAll( tasks );
+
+        tasks.clear();
+        for ( int i = 0 ; i < chunks.size() ; i++ )
+        {
+            final Chunk chunk = chunks.get(i);
+            final Chunk previous = i > 0 ? chunks.get(i-1) : null;
+            final boolean last = i == chunks.size() - 1;
+            tasks.add( () ->
+            {
+                chunk.compressed = deflate( chunk.filtered , previous != null ? previous.filtered : null , last );
+                return null;
+            });
+        }
+        invokeAll( tasks );
+
+        final DataOutputStream data = new DataOutputStream( out );
+        data.write( SIGNATURE );
+
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        final DataOutputStream headerData = new DataOutputStream( header );
+        headerData.writeInt( width );
+        headerData.writeInt( height );
+        headerData.writeByte( 8 ); // bit depth
+        headerData.writeByte( alpha ? 6 : 2 ); // color type, truecolor with or without alpha
+        headerData.writeByte( 0 ); // compression method
+        headerData.writeByte( 0 ); // filter method
+        headerData.writeByte( 0 ); // no interlacing
+        writeChunk( data , "IHDR" , header.toByteArray() );
+
+        long adler32 = 1;
+        for ( int i = 0 ; i < chunks.size() ; i++ )
+        {
+            final Chunk chunk = chunks.get(i);
+            adler32 = combineAdler32( adler32 , chunk.adler32 , chunk.filtered.length );
+            chunk.filtered = null;
+
+            byte[] payload = chunk.compressed;
+            if ( i == 0 )
+            {
+                final byte[] tmp = new byte[ payload.length + 2 ];
+                writeZLibHeader( tmp );
+                System.arraycopy( payload , 0 , tmp , 2 , payload.length );
+                payload = tmp;
+            }
+            if ( i == chunks.size() - 1 )
+            {
+                final byte[] tmp = new byte[ payload.length + 4 ];
+                System.arraycopy( payload , 0 , tmp , 0 , payload.length );
+                tmp[ payload.length   ] = (byte) (adler32 >>> 24);
+                tmp[ payload.length+1 ] = (byte) (adler32 >>> 16);
+                tmp[ payload.length+2 ] = (byte) (adler32 >>> 8);
+                tmp[ payload.length+3 ] = (byte) adler32;
+                payload = tmp;
+            }
+            writeChunk( data , "IDAT" , payload );
+            chunk.compressed = null;
+        }
+        writeChunk( data , "IEND" , new byte[0] );
+        data.flush();
+    }
+
+    private void invokeAll(List<Callable<Void>> tasks) throws IOException
+    {
+        try
+        {
+            for ( Future<Void> future : executor.invokeAll( tasks ) ) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted",e);
+        }
+        catch (ExecutionException e)
+        {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    private void writeZLibHeader(byte[] out)
+    {
+        final int cmf = 0x78; // deflate, 32 KB window
+        final int flevel;
+        if ( level == DEFAULT || level == 6 ) {
+            flevel = 2;
+        } else if ( level < 2 ) {
+            flevel = 0;
+        } else if ( level < 6 ) {
+            flevel = 1;
+        } else {
+            flevel = 3;
+        }
+        int flg = flevel << 6;
+        flg += 31 - ( (cmf << 8) + flg ) % 31;
+        out[0] = (byte) cmf;
+        out[1] = (byte) flg;
+    }
+
+    private static void writeChunk(DataOutputStream out,String type,byte[] payload) throws IOException
+    {
+        final byte[] typeBytes = type.getBytes( "US-ASCII" );
+        final CRC32 crc = new CRC32();
+        crc.update( typeBytes );
+        crc.update( payload );
+
+        out.writeInt( payload.length );
+        out.write( typeBytes );
+        out.write( payload );
+        out.writeInt( (int) crc.getValue() );
+    }
+
+    private byte[] deflate(byte[] input,byte[] previousInput,boolean last)
+    {
+        final Deflater deflater = new Deflater( level , true );
+        try
+        {
+            if ( previousInput != null )
+            {
+                final int len = Math.min( DICTIONARY_SIZE , previousInput.length );
+                deflater.setDictionary( previousInput , previousInput.length - len , len );
+            }
+            deflater.setInput( input );
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream( level == UNCOMPRESSED ? input.length + 1024 : input.length / 4 );
+            final byte[] buffer = new byte[ 64*1024 ];
+            if ( last )
+            {
+                deflater.finish();
+                while ( ! deflater.finished() ) {
+                    out.write( buffer , 0 , deflater.deflate( buffer ) );
+                }
+            }
+            else
+            {
+                // sync flush ends on a byte boundary so the next chunk can be appended as-is
+                int len;
+                do {
+                    len = deflater.deflate( buffer , 0 , buffer.length , Deflater.SYNC_FLUSH );
+                    out.write( buffer , 0 , len );
+                } while ( len == buffer.length );
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive byte sequences, port of zlib's <code>adler32_combine()</code>.
+     */
+    private static long combineAdler32(long adler1,long adler2,long len2)
+    {
+        final long base = 65521;
+        final long rem = len2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = ( rem * sum1 ) % base;
+        sum1 += ( adler2 & 0xffff ) + base - 1;
+        sum2 += ( (adler1 >>> 16) & 0xffff ) + ( (adler2 >>> 16) & 0xffff ) + base - rem;
+        if ( sum1 >= base ) {
+            sum1 -= base;
+        }
+        if ( sum1 >= base ) {
+            sum1 -= base;
+        }
+        if ( sum2 >= ( base << 1 ) ) {
+            sum2 -= ( base << 1 );
+        }
+        if ( sum2 >= base ) {
+            sum2 -= base;
+        }
+        return sum1 | ( sum2 << 16 );
+    }
+
+    private byte[] filter(BufferedImage image,Chunk chunk,int bytesPerPixel)
+    {
+        final int width = image.getWidth();
+        final int rowBytes = width * bytesPerPixel;
+        final byte[] result = new byte[ chunk.rowCount * ( rowBytes+1 ) ];
+
+        final int[] argb = new int[ width ];
+        byte[] previous = new byte[ rowBytes ];
+        byte[] current = new byte[ rowBytes ];
+        final byte[][] candidates = new byte[5][ rowBytes ];
+        final int[] pixels = getPackedPixels( image );
+
+        if ( chunk.firstRow > 0 ) {
+            readRow( image , pixels , chunk.firstRow - 1 , argb , previous , bytesPerPixel );
+        }
+        int offset = 0;
+        for ( int y = chunk.firstRow , end = chunk.firstRow + chunk.rowCount ; y < end ; y++ )
+        {
+            readRow( image , pixels , y , argb , current , bytesPerPixel );
+            if ( level == UNCOMPRESSED )
+            {
+                result[ offset ] = FILTER_NONE;
+                System.arraycopy( current , 0 , result , offset+1 , rowBytes );
+            }
+            else if ( level <= FAST_FILTER_MAX_LEVEL && level != DEFAULT )
+            {
+                // trying all filters takes longer than deflating at low levels, charts mostly repeat the row above
+                result[ offset ] = FILTER_UP;
+                applyFilter( FILTER_UP , current , previous , candidates[FILTER_UP] , bytesPerPixel );
+                System.arraycopy( candidates[FILTER_UP] , 0 , result , offset+1 , rowBytes );
+            }
+            else
+            {
+                // pick the filter with the smallest sum of absolute values, like libpng does
+                int bestFilter = FILTER_NONE;
+                long bestSum = Long.MAX_VALUE;
+                for ( int filter = FILTER_NONE ; filter <= FILTER_PAETH ; filter++ )
+                {
+                    final long sum = applyFilter( filter , current , previous , candidates[filter] , bytesPerPixel );
+                    if ( sum < bestSum ) {
+                        bestSum = sum;
+                        bestFilter = filter;
+                    }
+                }
+                result[ offset ] = (byte) bestFilter;
+                System.arraycopy( candidates[ bestFilter ] , 0 , result , offset+1 , rowBytes );
+            }
+            offset += rowBytes + 1;
+
+            final byte[] tmp = previous;
+            previous = current;
+            current = tmp;
+        }
+        return result;
+    }
+
+    private static long applyFilter(int filter,byte[] row,byte[] prior,byte[] out,int bpp)
+    {
+        final int len = row.length;
+        switch( filter )
+        {
+            case FILTER_NONE:
+                System.arraycopy( row , 0 , out , 0 , len );
+                break;
+            case FILTER_SUB:
+                System.arraycopy( row , 0 , out , 0 , Math.min( bpp , len ) );
+                for ( int i = bpp ; i < len ; i++ ) {
+                    out[i] = (byte) ( row[i] - row[i-bpp] );
+                }
+                break;
+            case FILTER_UP:
+                for ( int i = 0 ; i < len ; i++ ) {
+                    out[i] = (byte) ( row[i] - prior[i] );
+                }
+                break;
+            case FILTER_AVERAGE:
+                for ( int i = 0 ; i < len ; i++ ) 
+                {
+                    final int a = i >= bpp ? row[i-bpp] & 0xff : 0;
+                    out[i] = (byte) ( row[i] - ( ( a + (prior[i] & 0xff) ) >>> 1 ) );
+                }
+                break;
+            default:
+                for ( int i = 0 ; i < len ; i++ ) 
+                {
+                    final int a = i >= bpp ? row[i-bpp] & 0xff : 0;
+                    final int c = i >= bpp ? prior[i-bpp] & 0xff : 0;
+                    out[i] = (byte) ( row[i] - paeth( a , prior[i] & 0xff , c ) );
+                }
+        }
+        long sum = 0;
+        for ( int i = 0 ; i < len ; i++ ) {
+            sum += Math.abs( out[i] );
+        }
+        return sum;
+    }
+
+    private static int paeth(int a,int b,int c)
+    {
+        final int p = a + b - c;
+        final int pa = Math.abs( p - a );
+        final int pb = Math.abs( p - b );
+        final int pc = Math.abs( p - c );
+        if ( pa <= pb && pa <= pc ) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Returns the pixel array of images we render into so rows can be copied without going
+     * through the color model.
+     *
+     * @param image
+     * @return pixels in row-major order without padding or <code>null</code> if the image has a different layout
+     */
+    private static int[] getPackedPixels(BufferedImage image)
+    {
+        final int type = image.getType();
+        if ( type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB ) {
+            return null;
+        }
+        final WritableRaster raster = image.getRaster();
+        if ( ! ( raster.getDataBuffer() instanceof DataBufferInt ) || ! ( raster.getSampleModel() instanceof SinglePixelPackedSampleModel ) ) {
+            return null;
+        }
+        final DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        final SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        if ( buffer.getOffset() != 0 || model.getScanlineStride() != image.getWidth() || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0 ) {
+            return null;
+        }
+        return buffer.getData();
+    }
+
+    private static void readRow(BufferedImage image,int[] pixels,int y,int[] argb,byte[] out,int bytesPerPixel)
+    {
+        final int width = image.getWidth();
+        if ( pixels != null ) {
+            System.arraycopy( pixels , y * width , argb , 0 , width );
+        } else {
+            image.getRGB( 0 , y , width , 1 , argb , 0 , width );
+        }
+        for ( int x = 0 , ptr = 0 ; x < width ; x++ )
+        {
+            final int pixel = argb[x];
+            out[ptr++] = (byte) (pixel >>> 16);
+            out[ptr++] = (byte) (pixel >>> 8);
+            out[ptr++] = (byte) pixel;
+            if ( bytesPerPixel == 4 ) {
+                out[ptr++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.codesourcery.iozone;
+
+import java.util.Arrays;
+
+import de.codesourcery.iozone.Mesh.Quad;
+
+/**
+ * Screen-space uniform grid that maps pixel coordinates to the front-most
+ * quad rendered there.
+ *
+ * The grid gets filled while quads are rendered back-to-front, every quad is appended
+ * to the head of the per-cell lists of all grid cells its bounding box overlaps
+ * so that lookups encounter the quads closest to the viewer first.
+ */
+public class PickingGrid 
+{
+    public static final int DEFAULT_CELL_SIZE = 16;
+    
+    private final int cellSize;
+    
+    private int columns;
+    private int rows;
+    
+    // index of the first entry for each grid cell, -1 if the cell is empty
+    private int[] cellHeads = new int[0];
+    
+    // singly-linked lists of entries
+    private int[] entryNext = new int[1024];
+    private Quad[] entryQuad = new Quad[1024];
+    private int entryCount;
+    
+    public PickingGrid() {
+        this(DEFAULT_CELL_SIZE);
+    }
+    
+    public PickingGrid(int cellSize) 
+    {
+        if ( cellSize < 1 ) {
+            throw new IllegalArgumentException("Cell size must be >= 1");
+        }
+        this.cellSize = cellSize;
+    }
+    
+    /**
+     * Discards all quads and adjusts the grid to the given screen size.
+     * 
+     * @param width
+     * @param height
+     */
+    public void reset(int width,int height) 
+    {
+        columns = Math.max( 1 , (width + cellSize -1 ) / cellSize );
+        rows = Math.max( 1 , (height + cellSize -1 ) / cellSize );
+        if ( cellHeads.length < columns*rows ) {
+            cellHeads = new int[ columns * rows ];
+        }
+        Arrays.fill( cellHeads , -1 );
+        Arrays.fill( entryQuad , 0 , entryCount , null );
+        entryCount = 0;
+    }
+    
+    /**
+     * Adds a quad whose corners are already in screen coordinates. 
+     * 
+     * Quads must be added in back-to-front order.
+     * 
+     * @param quad
+     */
+    public void add(Quad quad) 
+    {
+        final float minX = Math.min( Math.min( quad.c0.x , quad.c1.x ) , Math.min( quad.c2.x , quad.c3.x ) );
+        final float maxX = Math.max( Math.max( quad.c0.x , quad.c1.x ) , Math.max( quad.c2.x , quad.c3.x ) );
+        final float minY = Math.min( Math.min( quad.c0.y , quad.c1.y ) , Math.min( quad.c2.y , quad.c3.y ) );
+        final float maxY = Math.max( Math.max( quad.c0.y , quad.c1.y ) , Math.max( quad.c2.y , quad.c3.y ) );
+        
+        final int col0 = Math.max( 0 , (int) minX / cellSize );
+        final int col1 = Math.min( columns-1 , (int) maxX / cellSize );
+        final int row0 = Math.max( 0 , (int) minY / cellSize );
+        final int row1 = Math.min( rows-1 , (int) maxY / cellSize );
+        
+        for ( int row = row0 ; row <= row1 ; row++ ) 
+        {
+            for ( int col = col0 ; col <= col1 ; col++ ) 
+            {
+                final int cell = row*columns+col;
+                if ( entryCount == entryNext.length ) 
+                {
+                    entryNext = Arrays.copyOf( entryNext , entryCount*2 );
+                    entryQuad = Arrays.copyOf( entryQuad , entryCount*2 );
+                }
+                entryQuad[ entryCount ] = quad;
+                entryNext[ entryCount ] = cellHeads[ cell ];
+                cellHeads[ cell ] = entryCount++;
+            }
+        }
+    }
+    
+    /**
+     * Returns the front-most quad covering a given screen location.
+     * 
+     * @param x
+     * @param y
+     * @return quad or <code>null</code>
+     */
+    public Quad pick(int x,int y) 
+    {
+        if ( x < 0 || y < 0 ) {
+            return null;
+        }
+        final int col = x / cellSize;
+        final int row = y / cellSize;
+        if ( col >= columns || row >= rows ) {
+            return null;
+        }
+        for ( int entry = cellHeads[ row*columns+col ] ; entry != -1 ; entry = entryNext[ entry ] ) 
+        {
+            final Quad quad = entryQuad[ entry ];
+            if ( contains( quad , x , y ) ) {
+                return quad;
+            }
+        }
+        return null;
+    }
+    
+    private static boolean contains(Quad quad,float x,float y) 
+    {
+        // crossing number test on the polygon as it was rasterized (integer coordinates)
+        boolean inside = false;
+        inside ^= crosses( (int) quad.c0.x , (int) quad.c0.y , (int) quad.c1.x , (int) quad.c1.y , x , y );
+        inside ^= crosses( (int) quad.c1.x , (int) quad.c1.y , (int) quad.c2.x , (int) quad.c2.y , x , y );
+        inside ^= crosses( (int) quad.c2.x , (int) quad.c2.y , (int) quad.c3.x , (int) quad.c3.y , x , y );
+        inside ^= crosses( (int) quad.c3.x , (int) quad.c3.y , (int) quad.c0.x , (int) quad.c0.y , x , y );
+        return inside;
+    }
+    
+    private static boolean crosses(float x0,float y0,float x1,float y1,float x,float y) 
+    {
+        if ( (y0 > y) == (y1 > y) ) {
+            return false;
+        }
+        return x < x0 + (y - y0) * (x1 - x0) / (y1 - y0);
+    }
+}
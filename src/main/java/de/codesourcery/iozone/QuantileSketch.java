@@ -0,0 +1,164 @@
+package de.codesourcery.iozone;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch for non-negative values with bounded relative error.
+ *
+ * Values are counted in logarithmically sized buckets (bucket <code>i</code> covers
+ * <code>(gamma^(i-1),gamma^i]</code>), so memory only depends on the ratio between the
+ * largest and smallest value seen and not on the number of values added.
+ */
+public final class QuantileSketch 
+{
+    /**
+     * Default relative accuracy of quantile estimates.
+     */
+    public static final double DEFAULT_ACCURACY = 0.01;
+    
+    private final double gamma;
+    private final double logGamma;
+    
+    private int[] counts = new int[0];
+    private int minIndex; // bucket index of counts[0]
+    
+    private long zeroCount;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+    
+    public QuantileSketch(double relativeAccuracy) 
+    {
+        if ( relativeAccuracy <= 0 || relativeAccuracy >= 1 ) {
+            throw new IllegalArgumentException("Relative accuracy must be in (0,1)");
+        }
+        this.gamma = (1 + relativeAccuracy) / ( 1 - relativeAccuracy );
+        this.logGamma = Math.log( gamma );
+    }
+    
+    public void add(double value) 
+    {
+        if ( value < 0 ) {
+            throw new IllegalArgumentException("Negative values are not supported: "+value);
+        }
+        count++;
+        sum += value;
+        min = Math.min( min , value );
+        max = Math.max( max , value );
+        if ( value == 0 ) {
+            zeroCount++;
+            return;
+        }
+        final int index = (int) Math.ceil( Math.log( value ) / logGamma );
+        ensureCapacity( index , index );
+        counts[ index - minIndex ]++;
+    }
+    
+    private void ensureCapacity(int lowIndex,int highIndex) 
+    {
+        if ( counts.length == 0 ) 
+        {
+            counts = new int[ highIndex - lowIndex + 1 ];
+            minIndex = lowIndex;
+            return;
+        }
+        final int newMin = Math.min( minIndex , lowIndex );
+        final int newMax = Math.max( minIndex + counts.length - 1 , highIndex );
+        if ( newMin != minIndex || newMax != minIndex + counts.length - 1 ) 
+        {
+            final int[] tmp = new int[ newMax - newMin + 1 ];
+            System.arraycopy( counts , 0 , tmp , minIndex - newMin , counts.length );
+            counts = tmp;
+            minIndex = newMin;
+        }
+    }
+    
+    /**
+     * Adds all values of another sketch to this one.
+     * 
+     * @param other sketch, must have been created with the same relative accuracy
+     */
+    public void merge(QuantileSketch other) 
+    {
+        if ( other.gamma != gamma ) {
+            throw new IllegalArgumentException("Cannot merge sketches with different accuracies");
+        }
+        if ( other.counts.length > 0 ) 
+        {
+            ensureCapacity( other.minIndex , other.minIndex + other.counts.length - 1 );
+            final int offset = other.minIndex - minIndex;
+            for ( int i = 0 ; i < other.counts.length ; i++ ) {
+                counts[ offset + i ] += other.counts[i];
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min( min , other.min );
+        max = Math.max( max , other.max );
+    }
+    
+    /**
+     * Returns an estimate of the q-quantile.
+     * 
+     * @param q quantile in [0,1]
+     * @return estimate or <code>NaN</code> if the sketch is empty
+     */
+    public double getQuantile(double q) 
+    {
+        if ( q < 0 || q > 1 ) {
+            throw new IllegalArgumentException("Quantile must be in [0,1]: "+q);
+        }
+        if ( count == 0 ) {
+            return Double.NaN;
+        }
+        if ( q == 0 ) {
+            return min;
+        }
+        if ( q == 1 ) {
+            return max;
+        }
+        final long rank = (long) ( q * ( count - 1 ) );
+        long seen = zeroCount;
+        if ( rank < seen ) {
+            return 0;
+        }
+        for ( int i = 0 ; i < counts.length ; i++ ) 
+        {
+            seen += counts[i];
+            if ( rank < seen ) 
+            {
+                // the bucket's midpoint (in relative terms) minimizes the relative error
+                final double estimate = 2 * Math.pow( gamma , minIndex + i ) / ( gamma + 1 );
+                return Math.max( min , Math.min( max , estimate ) );
+            }
+        }
+        return max;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+    
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+    
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+    
+    @Override
+    public String toString() {
+        return "QuantileSketch[ count="+count+", min="+getMin()+", max="+getMax()+", buckets="+Arrays.stream( counts ).filter( c -> c != 0 ).count()+" ]";
+    }
+}
@@ -0,0 +1,71 @@
+package de.codesourcery.iozone;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event emitted for every frame rendered by the 3D viewer, the event's
+ * duration covers the whole frame.
+ *
+ * Only {@link FrameStats} refers to this class and only after checking that JFR is available.
+ *
+ * @see FrameStats
+ */
+@Name("de.codesourcery.iozone.RenderFrame")
+@Label("Render Frame")
+@Category({"IOZone","Rendering"})
+@Description("Time spent in the individual phases of rendering a frame")
+@StackTrace(false)
+public class RenderFrameEvent extends jdk.jfr.Event
+{
+    private static final EventType TYPE = EventType.getEventType( RenderFrameEvent.class );
+
+    @Label("Quality")
+    public String quality;
+
+    @Label("Charts")
+    public int charts;
+
+    @Label("Quads")
+    public int quads;
+
+    @Label("Transform")
+    @Timespan(Timespan.NANOSECONDS)
+    public long transform;
+
+    @Label("Color")
+    @Timespan(Timespan.NANOSECONDS)
+    public long color;
+
+    @Label("Sort")
+    @Timespan(Timespan.NANOSECONDS)
+    public long sort;
+
+    @Label("Raster")
+    @Timespan(Timespan.NANOSECONDS)
+    public long raster;
+
+    @Label("Text")
+    @Timespan(Timespan.NANOSECONDS)
+    public long text;
+
+    /**
+     * Starts an event for a new frame.
+     *
+     * @return the started event or <code>null</code> if no recording has this event enabled
+     */
+    public static RenderFrameEvent beginIfEnabled()
+    {
+        if ( ! TYPE.isEnabled() ) {
+            return null;
+        }
+        final RenderFrameEvent event = new RenderFrameEvent();
+        event.begin();
+        return event;
+    }
+}
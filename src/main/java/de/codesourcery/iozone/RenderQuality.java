@@ -0,0 +1,31 @@
+package de.codesourcery.iozone;
+
+/**
+ * Level of detail used when rendering charts.
+ */
+public enum RenderQuality 
+{
+    /**
+     * Used while the user is moving the camera: Every second vertex of the meshes, no quad
+     * outlines and no axis labels.
+     */
+    DRAFT(2,false,false),
+    /**
+     * Full detail.
+     */
+    FULL(1,true,true);
+    
+    /**
+     * Number of mesh cells that get merged into one quad along each axis.
+     */
+    public final int meshStride;
+    public final boolean drawOutlines;
+    public final boolean drawLabels;
+    
+    private RenderQuality(int meshStride, boolean drawOutlines, boolean drawLabels) 
+    {
+        this.meshStride = meshStride;
+        this.drawOutlines = drawOutlines;
+        this.drawLabels = drawLabels;
+    }
+}
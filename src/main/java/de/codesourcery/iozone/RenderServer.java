@@ -0,0 +1,342 @@
+package de.codesourcery.iozone;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReader;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+import de.codesourcery.iozone.ReportIndex.FileInfo;
+import de.codesourcery.iozone.ReportIndex.ReportInfo;
+
+/**
+ * Embedded HTTP server that renders charts from a local directory of results files as PNG.
+ * 
+ * <pre>
+ * GET /reports                                          - lists available files and reports
+ * GET /chart2d?file=&lt;path&gt;&amp;report=&lt;name&gt;[&amp;width=640&amp;height=480]
+ * GET /chart3d?file=&lt;path&gt;&amp;report=&lt;name&gt;[&amp;preset=DEFAULT][&amp;width=640&amp;height=480]
+ * </pre>
+ * 
+ * File paths are relative to the results directory, unknown files or reports yield a 404. Encoded images are kept in an LRU cache 
+ * bounded by total size and concurrent requests for the same image share a single render. Parsed results files are
+ * cached as well so rendering other reports of a recently used file does not parse it again. Report names
+ * get listed from an in-memory {@link ReportIndex} that only re-indexes files that changed since the previous listing.
+ */
+public class RenderServer 
+{
+    public static final int DEFAULT_PORT = 8080;
+    
+    public static final long DEFAULT_CACHE_SIZE_BYTES = 64*1024*1024;
+    
+    public static final int MAX_IMAGE_SIZE = 4096;
+    
+    /**
+     * Max. number of parsed results files to keep.
+     */
+    public static final int PARSED_FILES_CACHE_SIZE = 16;
+    
+    // colors of the data surface are random, they must not change when an image gets rendered again
+    public static final long COLOR_SEED = 0x10201L;
+    
+    private final File resultsDir;
+    private final long maxCacheBytes;
+    
+    // guarded by itself, least recently used first
+    private final LinkedHashMap<String,byte[]> cache = new LinkedHashMap<>(16,0.75f,true);
+    private long cacheBytes;
+    
+    private final ConcurrentHashMap<String,CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    
+    // guarded by itself, keyed by path and modification time
+    private final LinkedHashMap<String,IOZoneReader> parsedFiles = new LinkedHashMap<String,IOZoneReader>(16,0.75f,true) 
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,IOZoneReader> eldest) {
+            return size() > PARSED_FILES_CACHE_SIZE;
+        }
+    };
+    
+    // guarded by itself, in-memory only so the results directory may be read-only
+    private final ReportIndex index;
+    
+    private final ExecutorService executor;
+    private HttpServer server;
+    
+    public RenderServer(File resultsDir,long maxCacheBytes,int threads) throws IOException 
+    {
+        this.resultsDir = resultsDir.getAbsoluteFile();
+        this.maxCacheBytes = maxCacheBytes;
+        this.index = new ReportIndex( null );
+        this.executor = Executors.newFixedThreadPool( threads );
+    }
+    
+    public void start(int port) throws IOException 
+    {
+        server = HttpServer.create( new InetSocketAddress( port ) , 0 );
+        server.createContext( "/reports" , this::listReports );
+        server.createContext( "/chart2d" , exchange -> serveImage( exchange , false ) );
+        server.createContext( "/chart3d" , exchange -> serveImage( exchange , true ) );
+        server.setExecutor( executor );
+        server.start();
+        System.out.println("Serving charts for "+resultsDir+" on port "+port);
+    }
+    
+    public void stop() 
+    {
+        server.stop( 0 );
+        executor.shutdownNow();
+    }
+    
+    private void listReports(HttpExchange exchange) throws IOException 
+    {
+        final StringBuilder buffer = new StringBuilder();
+        synchronized( index ) 
+        {
+            // only re-indexes files that are new or changed since the last listing
+            index.update( Collections.singletonList( resultsDir ) );
+            for ( FileInfo file : index.getFiles() ) 
+            {
+                final String path = resultsDir.toPath().relativize( new File( file.path ).toPath() ).toString();
+                for ( ReportInfo report : file.reports ) {
+                    buffer.append( path ).append( '\t' ).append( report.reportName ).append( '\n' );
+                }
+            }
+        }
+        send( exchange , 200 , "text/plain; charset=utf-8" , buffer.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+    
+    private void serveImage(HttpExchange exchange,boolean render3D) throws IOException 
+    {
+        final byte[] image;
+        try 
+        {
+            final Map<String,String> params = parseQuery( exchange.getRequestURI().getRawQuery() );
+            final File file = resolve( required( params , "file" ) );
+            final String reportName = required( params , "report" );
+            final int width = intParam( params , "width" , 640 );
+            final int height = intParam( params , "height" , 480 );
+            final CameraPreset preset = render3D ? CameraPreset.valueOf( params.getOrDefault( "preset" , CameraPreset.DEFAULT.name() ).toUpperCase() ) : null;
+            
+            // file modification time is part of the key so replaced results files never get served from the cache
+            final String key = (render3D ? "3d" : "2d" )+"|"+file.getPath()+"|"+file.lastModified()+"|"+reportName+"|"+preset+"|"+width+"x"+height;
+            image = getImage( key , () -> 
+            {
+                final IOZoneReport report = getReports( file ).stream().filter( r -> r.reportName.equals( reportName ) ).findFirst()
+                        .orElseThrow( () -> new NotFoundException("No report '"+reportName+"' in "+params.get( "file" ) ) );
+                return render3D ? render3D( report , preset , width , height ) : Chart2DRenderer.renderPNG( report , width , height ); 
+            });
+        } 
+        catch(NotFoundException e) 
+        {
+            send( exchange , 404 , "text/plain; charset=utf-8" , String.valueOf( e.getMessage() ).getBytes( StandardCharsets.UTF_8 ) );
+            return;
+        } 
+        catch(IllegalArgumentException e) 
+        {
+            send( exchange , 400 , "text/plain; charset=utf-8" , String.valueOf( e.getMessage() ).getBytes( StandardCharsets.UTF_8 ) );
+            return;
+        } 
+        catch(Exception e) 
+        {
+            e.printStackTrace();
+            send( exchange , 500 , "text/plain; charset=utf-8" , String.valueOf( e.getMessage() ).getBytes( StandardCharsets.UTF_8 ) );
+            return;
+        }
+        send( exchange , 200 , "image/png" , image );
+    }
+    
+    protected interface ImageSource 
+    {
+        public byte[] render() throws Exception;
+    }
+    
+    protected static final class NotFoundException extends IllegalArgumentException 
+    {
+        private static final long serialVersionUID = 1L;
+
+        public NotFoundException(String message) {
+            super( message );
+        }
+    }
+    
+    private IOZoneReader getReports(File file) throws IOException 
+    {
+        final String key = file.getPath()+"|"+file.lastModified();
+        synchronized( parsedFiles ) 
+        {
+            final IOZoneReader cached = parsedFiles.get( key );
+            if ( cached != null ) {
+                return cached;
+            }
+        }
+        // parse outside the lock, concurrent misses for the same file just parse it twice
+        final IOZoneReader reader = Chart3DViewer.loadReports( file );
+        synchronized( parsedFiles ) {
+            parsedFiles.put( key , reader );
+        }
+        return reader;
+    }
+    
+    private byte[] getImage(String key,ImageSource source) throws Exception 
+    {
+        synchronized( cache ) 
+        {
+            final byte[] cached = cache.get( key );
+            if ( cached != null ) {
+                return cached;
+            }
+        }
+        
+        // identical requests arriving while the image is being rendered wait for the same result 
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        final CompletableFuture<byte[]> existing = inFlight.putIfAbsent( key , future );
+        if ( existing != null ) {
+            return unwrap( existing );
+        }
+        
+        try 
+        {
+            final byte[] image = source.render();
+            put( key , image );
+            future.complete( image );
+        } 
+        catch(Exception e) 
+        {
+            future.completeExceptionally( e );
+        } finally {
+            inFlight.remove( key );
+        }
+        return unwrap( future );
+    }
+    
+    private static byte[] unwrap(CompletableFuture<byte[]> future) throws Exception 
+    {
+        try {
+            return future.get();
+        } 
+        catch(ExecutionException e) 
+        {
+            if ( e.getCause() instanceof Exception ) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    private void put(String key,byte[] image) 
+    {
+        if ( image.length > maxCacheBytes ) {
+            return;
+        }
+        synchronized( cache ) 
+        {
+            final byte[] previous = cache.put( key , image );
+            cacheBytes += image.length - ( previous != null ? previous.length : 0 );
+            for ( Iterator<byte[]> it = cache.values().iterator() ; cacheBytes > maxCacheBytes && it.hasNext() ; ) 
+            {
+                cacheBytes -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+    
+    private static byte[] render3D(IOZoneReport report,CameraPreset preset,int width,int height) throws IOException 
+    {
+        final IOZone3DChart chart = new IOZone3DChart( report , COLOR_SEED );
+        final BufferedImage image = SceneRenderer.renderImage( Collections.singletonList( chart ) , preset.createCamera( width , height ) , RenderQuality.FULL );
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write( image , "png" , out );
+        return out.toByteArray();
+    }
+    
+    private File resolve(String path) throws IOException 
+    {
+        final File file = new File( resultsDir , path ).getCanonicalFile();
+        if ( ! file.getPath().startsWith( resultsDir.getCanonicalPath()+File.separator ) || ! file.isFile() ) {
+            throw new NotFoundException("No such file: "+path);
+        }
+        return file;
+    }
+    
+    private static String required(Map<String,String> params,String name) 
+    {
+        final String value = params.get( name );
+        if ( value == null || value.isEmpty() ) {
+            throw new IllegalArgumentException("Missing parameter '"+name+"'");
+        }
+        return value;
+    }
+    
+    private static int intParam(Map<String,String> params,String name,int defaultValue) 
+    {
+        final String value = params.get( name );
+        if ( value == null ) {
+            return defaultValue;
+        }
+        final int result = Integer.parseInt( value );
+        if ( result < 1 || result > MAX_IMAGE_SIZE ) {
+            throw new IllegalArgumentException("Parameter '"+name+"' must be in range [1,"+MAX_IMAGE_SIZE+"]");
+        }
+        return result;
+    }
+    
+    private static Map<String,String> parseQuery(String query) throws UnsupportedEncodingException 
+    {
+        final Map<String,String> result = new HashMap<>();
+        if ( query != null ) 
+        {
+            for ( String pair : query.split("&") ) 
+            {
+                final int idx = pair.indexOf( '=' );
+                if ( idx > 0 ) {
+                    result.put( URLDecoder.decode( pair.substring( 0 , idx ) , "UTF-8" ) , URLDecoder.decode( pair.substring( idx+1 ) , "UTF-8" ) );
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static void send(HttpExchange exchange,int status,String contentType,byte[] body) throws IOException 
+    {
+        exchange.getResponseHeaders().set( "Content-Type" , contentType );
+        exchange.sendResponseHeaders( status , body.length );
+        try ( OutputStream out = exchange.getResponseBody() ) {
+            out.write( body );
+        }
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 1 ) {
+            System.err.println("Usage: <results directory> [<port>] [<cache size in MB>]");
+            System.exit(1);
+        }
+        System.setProperty( "java.awt.headless" , "true" );
+        
+        final int port = args.length > 1 ? Integer.parseInt( args[1] ) : DEFAULT_PORT;
+        final long cacheSize = args.length > 2 ? Long.parseLong( args[2] )*1024*1024 : DEFAULT_CACHE_SIZE_BYTES;
+        new RenderServer( new File( args[0] ) , cacheSize , Runtime.getRuntime().availableProcessors() ).start( port );
+    }
+}
@@ -0,0 +1,263 @@
+package de.codesourcery.iozone;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.codesourcery.iozone.IOZoneFileParser.FileEntry;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReader;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Aggregates the results of many iozone runs into per-cell statistics.
+ *
+ * One {@link QuantileSketch} is kept per report, file size and record length so memory usage
+ * does not depend on the number of runs. Aggregators populated on different threads
+ * can be combined using {@link #merge(ReportAggregator)}.
+ */
+public class ReportAggregator 
+{
+    public enum Statistic 
+    {
+        MIN("min"),
+        MEAN("mean"),
+        MEDIAN("median"),
+        P99("p99"),
+        MAX("max");
+        
+        public final String label;
+        
+        private Statistic(String label) {
+            this.label = label;
+        }
+        
+        public double get(QuantileSketch sketch) 
+        {
+            switch( this ) 
+            {
+                case MIN:    return sketch.getMin();
+                case MEAN:   return sketch.getMean();
+                case MEDIAN: return sketch.getQuantile( 0.5 );
+                case P99:    return sketch.getQuantile( 0.99 );
+                case MAX:    return sketch.getMax();
+                default:
+                    throw new RuntimeException("Unhandled switch/case: "+this);
+            }
+        }
+    }
+    
+    // report name -> file size -> record length -> sketch
+    private final Map<String,Map<Integer,Map<Integer,QuantileSketch>>> reports = new LinkedHashMap<>();
+    
+    private int runCount;
+    
+    /**
+     * Adds all reports of a single iozone run.
+     * 
+     * @param run reports of the run, usually an {@link IOZoneReader}
+     */
+    public void add(Iterable<IOZoneReport> run) 
+    {
+        for ( IOZoneReport report : run ) 
+        {
+            final Map<Integer, Map<Integer, QuantileSketch>> cells = reports.computeIfAbsent( report.reportName , k -> new TreeMap<>() );
+            for ( int fileSize : report.getFileSizes() ) 
+            {
+                final FileEntry entry = report.getFileEntry( fileSize );
+                final Map<Integer, QuantileSketch> row = cells.computeIfAbsent( fileSize , k -> new TreeMap<>() );
+                for ( int i = 0 ; i < entry.values.length ; i++ ) 
+                {
+                    if ( entry.hasValue( i ) ) {
+                        row.computeIfAbsent( report.recordLengths[i] , k -> new QuantileSketch() ).add( entry.values[i] );
+                    }
+                }
+            }
+        }
+        runCount++;
+    }
+    
+    /**
+     * Adds all statistics of another aggregator to this one.
+     *  
+     * @param other
+     */
+    public void merge(ReportAggregator other) 
+    {
+        other.reports.forEach( (reportName,otherCells) -> 
+        {
+            final Map<Integer, Map<Integer, QuantileSketch>> cells = reports.computeIfAbsent( reportName , k -> new TreeMap<>() );
+            otherCells.forEach( (fileSize,otherRow) -> 
+            {
+                final Map<Integer, QuantileSketch> row = cells.computeIfAbsent( fileSize , k -> new TreeMap<>() );
+                otherRow.forEach( (recordLength,sketch) -> row.computeIfAbsent( recordLength , k -> new QuantileSketch() ).merge( sketch ) );
+            });
+        });
+        runCount += other.runCount;
+    }
+    
+    public int getRunCount() {
+        return runCount;
+    }
+    
+    /**
+     * Creates one synthetic report per aggregated report, holding the given statistic for each cell.
+     * 
+     * @param statistic
+     * @return reports named <code>&lt;report name&gt; (&lt;statistic&gt;)</code>
+     */
+    public List<IOZoneReport> getReports(Statistic statistic) 
+    {
+        final List<IOZoneReport> result = new ArrayList<>();
+        reports.forEach( (reportName,cells) -> 
+        {
+            final TreeSet<Integer> allRecordLengths = new TreeSet<>();
+            cells.values().forEach( row -> allRecordLengths.addAll( row.keySet() ) );
+            final int[] recordLengths = allRecordLengths.stream().mapToInt( Integer::intValue ).toArray();
+            
+            final IOZoneReport report = new IOZoneReport( reportName+" ("+statistic.label+")" , recordLengths );
+            cells.forEach( (fileSize,row) -> 
+            {
+                // cells missing in all runs are marked, not reported as zero throughput
+                final int[] values = new int[ recordLengths.length ];
+                Arrays.fill( values , IOZoneReport.MISSING );
+                int len = 0;
+                for ( Map.Entry<Integer, QuantileSketch> cell : row.entrySet() ) 
+                {
+                    final int idx = Arrays.binarySearch( recordLengths , cell.getKey() );
+                    values[idx] = (int) Math.round( statistic.get( cell.getValue() ) );
+                    len = Math.max( len , idx+1 );
+                }
+                report.addEntry( fileSize , Arrays.copyOf( values , len ) );
+            });
+            result.add( report );
+        });
+        return result;
+    }
+    
+    /**
+     * Parses and aggregates result files in parallel.
+     * 
+     * @param files
+     * @param threads number of worker threads, each worker aggregates into its own instance and all get merged at the end
+     * @return
+     * @throws IOException
+     */
+    public static ReportAggregator aggregate(List<File> files,int threads) throws IOException 
+    {
+        final ConcurrentLinkedQueue<File> queue = new ConcurrentLinkedQueue<>( files );
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try 
+        {
+            final List<Future<ReportAggregator>> partials = new ArrayList<>();
+            for ( int i = 0 ; i < threads ; i++ ) 
+            {
+                partials.add( executor.submit( () -> 
+                {
+                    final ReportAggregator partial = new ReportAggregator();
+                    for ( File file = queue.poll() ; file != null ; file = queue.poll() ) 
+                    {
+                        final IOZoneReader run;
+                        try {
+                            run = Chart3DViewer.loadReports( file );
+                        } 
+                        catch(IOException | RuntimeException e) 
+                        {
+                            // one stray file in an archive directory should not fail the whole aggregation
+                            System.err.println("Skipping "+file+": "+e.getMessage());
+                            continue;
+                        }
+                        if ( ! run.iterator().hasNext() ) {
+                            System.err.println("Skipping "+file+": no reports found");
+                            continue;
+                        }
+                        partial.add( run );
+                    }
+                    return partial;
+                }));
+            }
+            final ReportAggregator result = new ReportAggregator();
+            for ( Future<ReportAggregator> partial : partials ) {
+                result.merge( partial.get() );
+            }
+            return result;
+        } 
+        catch (InterruptedException e) 
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted",e);
+        } 
+        catch (ExecutionException e) 
+        {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Collects all results files, recursing into directories.
+     * 
+     * Metadata sidecar files (<code>*.properties</code>) and {@link ReportIndex} files are left out.
+     * 
+     * @param paths
+     * @return
+     */
+    public static List<File> listFiles(List<File> paths) 
+    {
+        final List<File> result = new ArrayList<>();
+        for ( File path : paths ) 
+        {
+            if ( path.isDirectory() ) 
+            {
+                final File[] children = path.listFiles();
+                if ( children != null ) 
+                {
+                    Arrays.sort( children );
+                    result.addAll( listFiles( Arrays.asList( children ) ) );
+                }
+            } else if ( path.isFile() && ! path.getName().endsWith(".properties") && ! ReportIndex.isIndexFile( path ) ) {
+                result.add( path );
+            }
+        }
+        return result;
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 2 ) {
+            System.err.println("Usage: <output directory> <results file or directory> [<results file or directory> ...]");
+            System.exit(1);
+        }
+        final File outputDir = new File( args[0] );
+        final List<File> inputs = new ArrayList<>();
+        for ( int i = 1 ; i < args.length ; i++ ) {
+            inputs.add( new File( args[i] ) );
+        }
+        
+        final List<File> files = listFiles( inputs );
+        final ReportAggregator aggregator = aggregate( files , Runtime.getRuntime().availableProcessors() );
+        System.out.println("Aggregated "+aggregator.getRunCount()+" runs");
+        
+        outputDir.mkdirs();
+        for ( Statistic statistic : Statistic.values() ) 
+        {
+            for ( IOZoneReport report : aggregator.getReports( statistic ) ) {
+                Chart2DRenderer.writeChart( report , outputDir );
+            }
+        }
+    }
+}
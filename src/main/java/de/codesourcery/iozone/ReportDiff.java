@@ -0,0 +1,256 @@
+package de.codesourcery.iozone;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import de.codesourcery.iozone.IOZoneFileParser.FileEntry;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReader;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Computes per-cell throughput deltas between a baseline and a candidate run.
+ * 
+ * Reports are matched by name and only the file sizes and record lengths present in 
+ * both reports are compared.
+ */
+public class ReportDiff 
+{
+    /**
+     * Deltas of a single report.
+     * 
+     * All per-cell arrays are laid out row-major, <code>fileSizeIndex * recordLengths.length + recordLengthIndex</code>.
+     * Cells without a value in either run hold <code>NaN</code>.
+     */
+    public static final class ReportDelta 
+    {
+        public final String reportName;
+        public final int[] fileSizes;
+        public final int[] recordLengths;
+        
+        public final float[] baseline;
+        public final float[] candidate;
+        public final float[] absoluteDelta;
+        public final float[] relativeDelta;
+        
+        protected ReportDelta(String reportName,int[] fileSizes,int[] recordLengths) 
+        {
+            this.reportName = reportName;
+            this.fileSizes = fileSizes;
+            this.recordLengths = recordLengths;
+            final int cells = fileSizes.length * recordLengths.length;
+            this.baseline = new float[cells];
+            this.candidate = new float[cells];
+            this.absoluteDelta = new float[cells];
+            this.relativeDelta = new float[cells];
+        }
+        
+        protected void compute() 
+        {
+            final float[] base = baseline;
+            final float[] cand = candidate;
+            final float[] abs = absoluteDelta;
+            final float[] rel = relativeDelta;
+            for ( int i = 0 , len = base.length ; i < len ; i++ ) 
+            {
+                final float delta = cand[i] - base[i];
+                abs[i] = delta;
+                rel[i] = delta / base[i];
+            }
+        }
+        
+        /**
+         * Creates a synthetic report holding the relative deltas in percent.
+         * 
+         * Cells without a value in either run are set to {@link IOZoneReport#MISSING} so that charts
+         * don't show them as "no change".
+         *  
+         * @return
+         */
+        public IOZoneReport toReport() 
+        {
+            final IOZoneReport report = new IOZoneReport( reportName+" (delta %)" , recordLengths );
+            for ( int f = 0 ; f < fileSizes.length ; f++ ) 
+            {
+                final int[] values = new int[ recordLengths.length ];
+                for ( int r = 0 , ptr = f * recordLengths.length ; r < recordLengths.length ; r++ , ptr++ ) 
+                {
+                    final float value = relativeDelta[ptr];
+                    values[r] = value == value && ! Float.isInfinite( value ) ? Math.round( value * 100 ) : IOZoneReport.MISSING;
+                }
+                report.addEntry( fileSizes[f] , values );
+            }
+            return report;
+        }
+        
+    }
+    
+    /**
+     * A single compared cell.
+     */
+    public static final class CellDelta 
+    {
+        public final String reportName;
+        public final int fileSize;
+        public final int recordLength;
+        public final float baseline;
+        public final float candidate;
+        public final float relativeDelta;
+        
+        protected CellDelta(ReportDelta delta,int fileSizeIdx,int recordLengthIdx) 
+        {
+            final int ptr = fileSizeIdx * delta.recordLengths.length + recordLengthIdx;
+            this.reportName = delta.reportName;
+            this.fileSize = delta.fileSizes[ fileSizeIdx ];
+            this.recordLength = delta.recordLengths[ recordLengthIdx ];
+            this.baseline = delta.baseline[ptr];
+            this.candidate = delta.candidate[ptr];
+            this.relativeDelta = delta.relativeDelta[ptr];
+        }
+        
+        @Override
+        public String toString() 
+        {
+            final DecimalFormat df = new DecimalFormat("#,##0");
+            return reportName+" , file size "+fileSize+"k , record length "+recordLength+"k : "+
+                   df.format( baseline )+" -> "+df.format( candidate )+" ("+new DecimalFormat("+0.0;-0.0").format( relativeDelta*100 )+" %)"; 
+        }
+    }
+    
+    /**
+     * Creates a chart for a report returned by {@link ReportDelta#toReport()}, 
+     * using a diverging color map. Cells without a value in either run are drawn in {@link IOZone3DChart#MISSING_COLOR}.
+     * 
+     * @param deltaReport
+     * @return
+     */
+    public static IOZone3DChart createChart(IOZoneReport deltaReport) {
+        return new IOZone3DChart( deltaReport , new DivergingColorMap() , value -> Math.round( value )+" %" );
+    }
+    
+    /**
+     * Compares all reports present in both runs.
+     * 
+     * @param baseline
+     * @param candidate
+     * @return
+     */
+    public static List<ReportDelta> compare(IOZoneReader baseline,IOZoneReader candidate) 
+    {
+        final Set<String> candidateNames = candidate.stream().map( r -> r.reportName ).collect( Collectors.toSet() );
+        final List<ReportDelta> result = new ArrayList<>();
+        for ( IOZoneReport report : baseline ) 
+        {
+            if ( candidateNames.contains( report.reportName ) ) {
+                result.add( compare( report , candidate.getReport( report.reportName ) ) );
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Compares two reports.
+     * 
+     * @param baseline
+     * @param candidate
+     * @return deltas for all file sizes and record lengths present in both reports
+     */
+    public static ReportDelta compare(IOZoneReport baseline,IOZoneReport candidate) 
+    {
+        final int[] fileSizes = intersect( baseline.getFileSizes().stream().mapToInt( Integer::intValue ).toArray() , 
+                                           candidate.getFileSizes().stream().mapToInt( Integer::intValue ).toArray() );
+        final int[] recordLengths = intersect( baseline.recordLengths , candidate.recordLengths );
+        
+        final ReportDelta delta = new ReportDelta( baseline.reportName , fileSizes , recordLengths );
+        gather( baseline , fileSizes , recordLengths , delta.baseline );
+        gather( candidate , fileSizes , recordLengths , delta.candidate );
+        delta.compute();
+        return delta;
+    }
+    
+    private static void gather(IOZoneReport report,int[] fileSizes,int[] recordLengths,float[] out) 
+    {
+        // column in this report for each of the common record lengths
+        final int[] columns = new int[ recordLengths.length ];
+        for ( int r = 0 ; r < recordLengths.length ; r++ ) {
+            columns[r] = indexOf( report.recordLengths , recordLengths[r] );
+        }
+        for ( int f = 0 , ptr = 0 ; f < fileSizes.length ; f++ ) 
+        {
+            final FileEntry entry = report.getFileEntry( fileSizes[f] );
+            for ( int r = 0 ; r < columns.length ; r++ , ptr++ ) {
+                out[ptr] = entry.hasValue( columns[r] ) ? entry.values[ columns[r] ] : Float.NaN;
+            }
+        }
+    }
+    
+    private static int indexOf(int[] array,int value) 
+    {
+        for ( int i = 0 ; i < array.length ; i++ ) {
+            if ( array[i] == value ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static int[] intersect(int[] a,int[] b) 
+    {
+        return Arrays.stream( a ).filter( v -> indexOf( b , v ) != -1 ).sorted().toArray();
+    }
+    
+    /**
+     * Returns the cells with the largest relative throughput loss.
+     * 
+     * @param deltas
+     * @param maxCount maximum number of cells to return
+     * @return cells with a negative relative delta, worst first
+     */
+    public static List<CellDelta> getWorstRegressions(List<ReportDelta> deltas,int maxCount) 
+    {
+        final List<CellDelta> result = new ArrayList<>();
+        for ( ReportDelta delta : deltas ) 
+        {
+            final float[] rel = delta.relativeDelta;
+            for ( int i = 0 ; i < rel.length ; i++ ) 
+            {
+                if ( rel[i] < 0 ) {
+                    result.add( new CellDelta( delta , i / delta.recordLengths.length , i % delta.recordLengths.length ) );
+                }
+            }
+        }
+        result.sort( Comparator.comparingDouble( c -> c.relativeDelta ) );
+        return result.subList( 0 , Math.min( maxCount , result.size() ) );
+    }
+    
+    /**
+     * Prints the worst regressions and exits with status 2 if any cell lost more than the given percentage
+     * of its baseline throughput.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 2 ) {
+            System.err.println("Usage: <baseline file> <candidate file> [<max. regression in percent, default 10>] [<number of cells to list, default 20>]");
+            System.exit(1);
+        }
+        final IOZoneReader baseline = Chart3DViewer.loadReports( new File( args[0] ) );
+        final IOZoneReader candidate = Chart3DViewer.loadReports( new File( args[1] ) );
+        final float maxRegression = args.length > 2 ? Float.parseFloat( args[2] ) : 10;
+        final int count = args.length > 3 ? Integer.parseInt( args[3] ) : 20;
+        
+        final List<CellDelta> worst = getWorstRegressions( compare( baseline , candidate ) , count );
+        worst.forEach( System.out::println );
+        
+        if ( ! worst.isEmpty() && -worst.get(0).relativeDelta*100 > maxRegression ) 
+        {
+            System.err.println("Regression exceeds "+maxRegression+" %: "+worst.get(0));
+            System.exit(2);
+        }
+    }
+}
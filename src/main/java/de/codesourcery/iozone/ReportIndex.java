@@ -0,0 +1,507 @@
+package de.codesourcery.iozone;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import de.codesourcery.iozone.IOZoneFileParser.FileEntry;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReader;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Compact on-disk index over an archive of iozone result files.
+ * 
+ * For every result file the index stores host/tag metadata and, for each report,
+ * its byte range within the (decompressed) file together with axis ranges and summary statistics. 
+ * Matching reports can then be loaded without scanning or parsing any other part of the archive.
+ * 
+ * Metadata is read from an optional <code>&lt;results file&gt;.properties</code> file next to the 
+ * results file, the host defaults to the name of the directory containing the results file.
+ */
+public class ReportIndex 
+{
+    private static final int MAGIC = 0x494f5a49; // 'IOZI'
+    private static final int VERSION = 1;
+    
+    public static final String HOST_KEY = "host";
+    
+    private final File indexFile;
+    
+    // keyed by absolute path
+    private final Map<String,FileInfo> files = new LinkedHashMap<>();
+    
+    public static final class FileInfo 
+    {
+        public final String path;
+        public final long length;
+        public final long lastModified;
+        // modification time of the metadata sidecar file when it was read, 0 if there was none
+        public final long sidecarLastModified;
+        public final Map<String,String> metadata;
+        public final List<ReportInfo> reports = new ArrayList<>();
+        
+        public FileInfo(String path, long length, long lastModified,long sidecarLastModified,Map<String,String> metadata) 
+        {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.sidecarLastModified = sidecarLastModified;
+            this.metadata = metadata;
+        }
+        
+        public String getHost() {
+            return metadata.get( HOST_KEY );
+        }
+        
+        protected boolean isUpToDate(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+        
+        /**
+         * Returns whether the metadata sidecar file has neither been created, changed nor deleted since it was read.
+         * 
+         * @param file results file
+         * @return
+         */
+        protected boolean isMetadataUpToDate(File file) {
+            return getSidecar( file ).lastModified() == sidecarLastModified;
+        }
+    }
+    
+    public static final class ReportInfo 
+    {
+        public final FileInfo file;
+        public final String reportName;
+        
+        // byte range of the report within the results file, after decompressing it
+        public final long offset;
+        public final int length;
+        
+        public final int minFileSize;
+        public final int maxFileSize;
+        public final int minRecordLength;
+        public final int maxRecordLength;
+        
+        public final int cellCount;
+        public final int minValue;
+        public final int maxValue;
+        public final double meanValue;
+        
+        public ReportInfo(FileInfo file, String reportName, long offset, int length, 
+                int minFileSize, int maxFileSize, int minRecordLength, int maxRecordLength,
+                int cellCount, int minValue, int maxValue, double meanValue) 
+        {
+            this.file = file;
+            this.reportName = reportName;
+            this.offset = offset;
+            this.length = length;
+            this.minFileSize = minFileSize;
+            this.maxFileSize = maxFileSize;
+            this.minRecordLength = minRecordLength;
+            this.maxRecordLength = maxRecordLength;
+            this.cellCount = cellCount;
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            this.meanValue = meanValue;
+        }
+        
+        @Override
+        public String toString() 
+        {
+            return file.path+" @ "+offset+" [ "+reportName+" , host: "+file.getHost()+" , "+new Date( file.lastModified )+
+                   " , file sizes "+minFileSize+"k-"+maxFileSize+"k , record lengths "+minRecordLength+"k-"+maxRecordLength+"k"+
+                   " , "+cellCount+" cells , min "+minValue+" , max "+maxValue+" , mean "+Math.round( meanValue )+" ]";
+        }
+    }
+    
+    /**
+     * Opens an index, reading it from disk if the index file exists.
+     * 
+     * @param indexFile index file or <code>null</code> for an index that is only kept in memory
+     * @throws IOException
+     */
+    public ReportIndex(File indexFile) throws IOException 
+    {
+        this.indexFile = indexFile;
+        if ( indexFile != null && indexFile.exists() ) {
+            read();
+        }
+    }
+    
+    public List<FileInfo> getFiles() {
+        return Collections.unmodifiableList( new ArrayList<>( files.values() ) );
+    }
+    
+    /**
+     * Brings the index up-to-date with all results files found below the given 
+     * files/directories, re-indexing only files that are new or changed (including their metadata sidecar 
+     * file) and dropping files below the given roots that no longer exist. Indexed files outside of the roots
+     * are left untouched, so an archive can be indexed one directory at a time.
+     *  
+     * @param roots
+     * @return number of files that got (re-)indexed
+     * @throws IOException
+     */
+    public int update(List<File> roots) throws IOException 
+    {
+        final List<File> candidates = ReportAggregator.listFiles( roots );
+        
+        final List<Path> rootPaths = roots.stream().map( ReportIndex::normalize ).collect( Collectors.toList() );
+        files.keySet().removeIf( path -> 
+        {
+            final Path file = normalize( new File( path ) );
+            return rootPaths.stream().anyMatch( file::startsWith ) && ! Files.isRegularFile( file );
+        });
+        
+        int indexed = 0;
+        for ( File file : candidates ) 
+        {
+            final FileInfo info = files.get( file.getAbsolutePath() );
+            if ( info == null || ! info.isUpToDate( file ) || ! info.isMetadataUpToDate( file ) ) 
+            {
+                files.put( file.getAbsolutePath() , index( file ) );
+                indexed++;
+            }
+        }
+        write();
+        return indexed;
+    }
+    
+    /**
+     * Checks whether a file is an index file, so it can be told apart from results files 
+     * kept in the same directory.
+     * 
+     * @param file
+     * @return
+     */
+    public static boolean isIndexFile(File file) 
+    {
+        try ( DataInputStream in = new DataInputStream( new FileInputStream( file ) ) ) {
+            return in.readInt() == MAGIC;
+        } 
+        catch(IOException e) {
+            return false;
+        }
+    }
+    
+    private static Path normalize(File file) {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+    
+    protected static FileInfo index(File file) throws IOException 
+    {
+        final long lastModified = file.lastModified();
+        // read before the sidecar itself so a concurrent change gets picked up by the next update
+        final long sidecarLastModified = getSidecar( file ).lastModified();
+        final byte[] data = readDecoded( file );
+        
+        final FileInfo result = new FileInfo( file.getAbsolutePath() , file.length() , lastModified , sidecarLastModified , readMetadata( file ) );
+        
+        // find lines holding nothing but a quoted report name, each report extends to the next one
+        final List<Integer> reportStarts = new ArrayList<>();
+        for ( int lineStart = 0 ; lineStart < data.length ; ) 
+        {
+            int lineEnd = lineStart;
+            while ( lineEnd < data.length && data[lineEnd] != '\n' ) {
+                lineEnd++;
+            }
+            if ( IOZoneFileParser.isReportHeader( data , lineStart , lineEnd ) ) {
+                reportStarts.add( lineStart );
+            }
+            lineStart = lineEnd+1;
+        }
+        reportStarts.add( data.length );
+        
+        for ( int i = 0 ; i < reportStarts.size()-1 ; i++ ) 
+        {
+            final int offset = reportStarts.get(i);
+            final int length = reportStarts.get(i+1) - offset;
+            try 
+            {
+                final IOZoneReport report = parse( new ByteArrayInputStream( data , offset , length ) );
+                result.reports.add( summarize( result , report , offset , length ) );
+            } 
+            catch(RuntimeException e) 
+            {
+                // keep the file in the index so we don't retry until it changes 
+                System.err.println("Skipping unparseable report in "+file+" @ "+offset+": "+e.getMessage());
+            }
+        }
+        return result;
+    }
+    
+    // offsets get recorded within the decompressed data so compressed results files can be indexed as well 
+    private static byte[] readDecoded(File file) throws IOException 
+    {
+        try ( InputStream in = CompressedInput.decode( new FileInputStream( file ) ) ) 
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream( (int) Math.min( file.length() , Integer.MAX_VALUE-8 ) );
+            final byte[] buffer = new byte[ 64*1024 ];
+            for ( int len ; ( len = in.read( buffer ) ) != -1 ; ) {
+                out.write( buffer , 0 , len );
+            }
+            return out.toByteArray();
+        }
+    }
+    
+    private static Map<String,String> readMetadata(File file) throws IOException 
+    {
+        final Map<String,String> result = new HashMap<>();
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if ( parent != null ) {
+            result.put( HOST_KEY , parent.getName() );
+        }
+        final File sidecar = getSidecar( file );
+        if ( sidecar.isFile() ) 
+        {
+            final Properties props = new Properties();
+            try ( InputStream in = new FileInputStream( sidecar ) ) {
+                props.load( in );
+            }
+            props.stringPropertyNames().forEach( key -> result.put( key , props.getProperty( key ) ) );
+        }
+        return result;
+    }
+    
+    private static File getSidecar(File file) {
+        return new File( file.getPath()+".properties" );
+    }
+    
+    private static ReportInfo summarize(FileInfo file,IOZoneReport report,long offset,int length) 
+    {
+        final List<Integer> fileSizes = report.getFileSizes();
+        int cells = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        double sum = 0;
+        int maxColumns = 0;
+        for ( int fileSize : fileSizes ) 
+        {
+            final FileEntry entry = report.getFileEntry( fileSize );
+            maxColumns = Math.max( maxColumns , entry.values.length );
+            for ( int i = 0 ; i < entry.values.length ; i++ ) 
+            {
+                if ( ! entry.hasValue( i ) ) {
+                    continue;
+                }
+                final int value = entry.values[i];
+                min = Math.min( min , value );
+                max = Math.max( max , value );
+                sum += value;
+                cells++;
+            }
+        }
+        int minRecordLength = Integer.MAX_VALUE;
+        int maxRecordLength = Integer.MIN_VALUE;
+        for ( int i = 0 ; i < maxColumns && i < report.recordLengths.length ; i++ ) 
+        {
+            minRecordLength = Math.min( minRecordLength , report.recordLengths[i] );
+            maxRecordLength = Math.max( maxRecordLength , report.recordLengths[i] );
+        }
+        return new ReportInfo( file , report.reportName , offset , length , 
+                fileSizes.isEmpty() ? 0 : fileSizes.get(0) , fileSizes.isEmpty() ? 0 : fileSizes.get( fileSizes.size()-1 ) ,
+                maxColumns == 0 ? 0 : minRecordLength , maxColumns == 0 ? 0 : maxRecordLength ,
+                cells , cells == 0 ? 0 : min , cells == 0 ? 0 : max , cells == 0 ? 0 : sum / cells );
+    }
+    
+    private static IOZoneReport parse(InputStream in) throws IOException 
+    {
+        final IOZoneReader reader = Chart3DViewer.loadReports( in );
+        if ( reader.getReports().size() != 1 ) {
+            throw new IOException("Expected exactly one report but got "+reader.getReports().size());
+        }
+        return reader.getReports().get(0);
+    }
+    
+    /**
+     * Returns all indexed reports matching a predicate.
+     * 
+     * @param predicate
+     * @return
+     */
+    public List<ReportInfo> query(Predicate<ReportInfo> predicate) 
+    {
+        return files.values().stream().flatMap( f -> f.reports.stream() ).filter( predicate ).collect( Collectors.toList() );
+    }
+    
+    /**
+     * Returns all reports with a given name, optionally restricted by host and the modification time of the results file.
+     * 
+     * @param reportName
+     * @param host host or <code>null</code>
+     * @param fromMillis
+     * @param toMillis
+     * @return
+     */
+    public List<ReportInfo> query(String reportName,String host,long fromMillis,long toMillis) 
+    {
+        return query( r -> r.reportName.equals( reportName ) && 
+                           ( host == null || host.equals( r.file.getHost() ) ) &&
+                           r.file.lastModified >= fromMillis && r.file.lastModified < toMillis );
+    }
+    
+    /**
+     * Loads a report by seeking directly to its location in the results file.
+     *  
+     * @param info
+     * @return
+     * @throws IOException if the results file is missing or changed since it was indexed
+     */
+    public static IOZoneReport load(ReportInfo info) throws IOException 
+    {
+        final File file = new File( info.file.path );
+        if ( ! info.file.isUpToDate( file ) ) {
+            throw new IOException("File changed since it was indexed: "+file);
+        }
+        final byte[] buffer = new byte[ info.length ];
+        // offsets refer to the decompressed data, skipping is cheap for uncompressed files
+        try ( DataInputStream in = new DataInputStream( CompressedInput.decode( new FileInputStream( file ) ) ) ) 
+        {
+            for ( long remaining = info.offset ; remaining > 0 ; ) 
+            {
+                final long skipped = in.skip( remaining );
+                if ( skipped <= 0 ) {
+                    throw new EOFException("Report offset "+info.offset+" is beyond the end of "+file);
+                }
+                remaining -= skipped;
+            }
+            in.readFully( buffer );
+        }
+        return parse( new ByteArrayInputStream( buffer ) );
+    }
+    
+    private void read() throws IOException 
+    {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) ) ) 
+        {
+            if ( in.readInt() != MAGIC ) {
+                throw new IOException("Not an index file: "+indexFile);
+            }
+            final int version = in.readInt();
+            if ( version != VERSION ) {
+                throw new IOException("Unsupported index version "+version+" in "+indexFile);
+            }
+            for ( int fileCount = in.readInt() ; fileCount > 0 ; fileCount-- ) 
+            {
+                final String path = in.readUTF();
+                final long length = in.readLong();
+                final long lastModified = in.readLong();
+                final long sidecarLastModified = in.readLong();
+                final Map<String,String> metadata = new HashMap<>();
+                for ( int count = in.readInt() ; count > 0 ; count-- ) {
+                    metadata.put( in.readUTF() , in.readUTF() );
+                }
+                final FileInfo file = new FileInfo( path , length , lastModified , sidecarLastModified , metadata );
+                for ( int count = in.readInt() ; count > 0 ; count-- ) 
+                {
+                    file.reports.add( new ReportInfo( file , in.readUTF() , in.readLong() , in.readInt() , 
+                            in.readInt() , in.readInt() , in.readInt() , in.readInt() ,
+                            in.readInt() , in.readInt() , in.readInt() , in.readDouble() ) );
+                }
+                files.put( path , file );
+            }
+        }
+    }
+    
+    private void write() throws IOException 
+    {
+        if ( indexFile == null ) {
+            return;
+        }
+        final File tmpFile = new File( indexFile.getPath()+".tmp" );
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) ) ) 
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( files.size() );
+            for ( FileInfo file : files.values() ) 
+            {
+                out.writeUTF( file.path );
+                out.writeLong( file.length );
+                out.writeLong( file.lastModified );
+                out.writeLong( file.sidecarLastModified );
+                out.writeInt( file.metadata.size() );
+                for ( Map.Entry<String,String> entry : file.metadata.entrySet() ) 
+                {
+                    out.writeUTF( entry.getKey() );
+                    out.writeUTF( entry.getValue() );
+                }
+                out.writeInt( file.reports.size() );
+                for ( ReportInfo report : file.reports ) 
+                {
+                    out.writeUTF( report.reportName );
+                    out.writeLong( report.offset );
+                    out.writeInt( report.length );
+                    out.writeInt( report.minFileSize );
+                    out.writeInt( report.maxFileSize );
+                    out.writeInt( report.minRecordLength );
+                    out.writeInt( report.maxRecordLength );
+                    out.writeInt( report.cellCount );
+                    out.writeInt( report.minValue );
+                    out.writeInt( report.maxValue );
+                    out.writeDouble( report.meanValue );
+                }
+            }
+        }
+        // readers never see a partially written index
+        Files.move( tmpFile.toPath() , indexFile.toPath() , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+    }
+    
+    private static long parseDate(String s) throws IOException 
+    {
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd").parse( s ).getTime();
+        } catch (ParseException e) {
+            throw new IOException("Invalid date (expected yyyy-MM-dd): "+s);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 3 || ! ( "update".equals( args[1] ) || "query".equals( args[1] ) ) ) 
+        {
+            System.err.println("Usage: <index file> update <results file or directory> [<results file or directory> ...]");
+            System.err.println("       <index file> query <report name> [<host> [<from yyyy-MM-dd> [<to yyyy-MM-dd, exclusive>]]]");
+            System.exit(1);
+        }
+        final ReportIndex index = new ReportIndex( new File( args[0] ) );
+        if ( "update".equals( args[1] ) ) 
+        {
+            final List<File> roots = new ArrayList<>();
+            for ( int i = 2 ; i < args.length ; i++ ) {
+                roots.add( new File( args[i] ) );
+            }
+            final int indexed = index.update( roots );
+            System.out.println("Indexed "+indexed+" new or changed files, "+index.getFiles().size()+" files in index");
+            return;
+        }
+        final String host = args.length > 3 && ! "".equals( args[3] ) ? args[3] : null;
+        final long from = args.length > 4 ? parseDate( args[4] ) : Long.MIN_VALUE;
+        final long to = args.length > 5 ? parseDate( args[5] ) : Long.MAX_VALUE;
+        index.query( args[2] , host , from , to ).forEach( System.out::println );
+    }
+}
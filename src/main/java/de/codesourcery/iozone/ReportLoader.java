@@ -0,0 +1,264 @@
+package de.codesourcery.iozone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Parses results files on a background thread, handing off every report as soon as it
+ * has been read so callers can start displaying it while the rest of the input is still being parsed.
+ *
+ * Progress is tracked by the number of (compressed) bytes consumed, loading may be cancelled at any time
+ * in which case all reports handed off so far remain valid.
+ *
+ * Compressed files get decompressed on the fly. On machines with more than one CPU, files are read and decompressed
+ * on a pool of reader threads ahead of the parser, up to one file per reader thread, so I/O and decompression of
+ * upcoming files overlap with parsing the current one.
+ */
+public class ReportLoader
+{
+    private final List<File> files;
+    private final ReportSelection selection;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor( r ->
+    {
+        final Thread t = new Thread( r , "report-loader" );
+        t.setDaemon( true );
+        return t;
+    });
+
+    // number of files read and decompressed ahead of the parser (including the file being parsed), each one on its own reader thread
+    private static final int READ_AHEAD_FILES = Runtime.getRuntime().availableProcessors() - 1;
+
+    // null if there is no spare CPU, reading ahead would only add overhead then
+    private final ExecutorService readers = READ_AHEAD_FILES < 1 ? null : Executors.newFixedThreadPool( READ_AHEAD_FILES , r ->
+    {
+        final Thread t = new Thread( r , "report-reader" );
+        t.setDaemon( true );
+        return t;
+    });
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final long totalBytes;
+
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private volatile Throwable failure;
+    private volatile int reportCount;
+
+    // reports of each completely parsed file
+    private final Map<File,List<IOZoneReport>> reportsByFile = Collections.synchronizedMap( new LinkedHashMap<>() );
+
+    private final class CountingInputStream extends FilterInputStream
+    {
+        public CountingInputStream(InputStream in) {
+            super( in );
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final int result = super.read();
+            if ( result != -1 ) {
+                bytesRead.incrementAndGet();
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            final int result = super.read( b , off , len );
+            if ( result > 0 ) {
+                bytesRead.addAndGet( result );
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param files results files to parse in order, the reports bundled on the classpath get loaded if this list is empty
+     */
+    public ReportLoader(List<File> files)
+    {
+        this( files , ReportSelection.ALL );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param files results files to parse in order, the reports bundled on the classpath get loaded if this list is empty
+     * @param selection reports to load, all other reports are skipped without being parsed
+     */
+    public ReportLoader(List<File> files,ReportSelection selection)
+    {
+        this.files = new ArrayList<>( files );
+        this.selection = selection;
+        long total = 0;
+        for ( File file : files ) {
+            total += file.length();
+        }
+        this.totalBytes = total;
+    }
+
+    /**
+     * Starts parsing.
+     *
+     * @param listener invoked on the loader's thread with every report in input order
+     * @param finished invoked on the loader's thread after the last report got handed off,
+     * also when loading failed or got cancelled
+     */
+    public void start(Consumer<IOZoneReport> listener,Runnable finished)
+    {
+        executor.execute( () ->
+        {
+            try
+            {
+                final Consumer<IOZoneReport> handOff = report ->
+                {
+                    if ( cancelled ) {
+                        throw new CancellationException();
+                    }
+                    reportCount++;
+                    listener.accept( report );
+                };
+                if ( files.isEmpty() )
+                {
+                    try ( InputStream in = Chart3DViewer.class.getResourceAsStream( "/iozone.txt" ) )
+                    {
+                        if ( in == null ) {
+                            throw new FileNotFoundException( "classpath:/iozone.txt" );
+                        }
+                        Chart3DViewer.loadReports( new CountingInputStream( in ) , selection , handOff );
+                    }
+                }
+                final List<InputStream> inputs = new ArrayList<>();
+                try
+                {
+                    for ( int i = 0 ; i < files.size() ; i++ )
+                    {
+                        while ( inputs.size() < Math.min( files.size() , i + Math.max( 1 , READ_AHEAD_FILES ) ) ) {
+                            inputs.add( open( files.get( inputs.size() ) ) );
+                        }
+                        final File file = files.get(i);
+                        try ( InputStream in = inputs.get(i) ) {
+                            reportsByFile.put( file , Chart3DViewer.loadReports( in , selection , handOff ).getReports() );
+                        }
+                        catch(RuntimeException | IOException e)
+                        {
+                            if ( e instanceof CancellationException ) {
+                                throw (CancellationException) e;
+                            }
+                            throw new RuntimeException("Failed to parse "+file.getAbsolutePath()+": "+e.getMessage(),e);
+                        }
+                    }
+                }
+                finally
+                {
+                    // stops reading files that will no longer be parsed
+                    for ( InputStream in : inputs ) {
+                        in.close();
+                    }
+                }
+            }
+            catch(CancellationException e) {
+                // reports handed off so far are kept
+            }
+            catch(Throwable t) {
+                failure = t;
+            }
+            finally
+            {
+                done = true;
+                finished.run();
+                executor.shutdown();
+                if ( readers != null ) {
+                    readers.shutdownNow();
+                }
+            }
+        });
+    }
+
+    private InputStream open(File file) throws IOException
+    {
+        if ( readers == null ) {
+            return new CountingInputStream( new FileInputStream( file ) );
+        }
+        return CompressedInput.readAhead( () -> new CountingInputStream( new FileInputStream( file ) ) , readers );
+    }
+
+    /**
+     * Stops loading once the report currently being parsed is complete.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns why loading failed.
+     *
+     * @return error or <code>null</code> if loading succeeded, got cancelled or is still in progress
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns the number of reports handed off so far.
+     *
+     * @return
+     */
+    public int getReportCount() {
+        return reportCount;
+    }
+
+    /**
+     * Returns the fraction of input consumed so far.
+     *
+     * @return value between 0 and 1, or -1 if the input size is not known in advance
+     */
+    public double getProgress()
+    {
+        if ( totalBytes == 0 ) {
+            return done ? 1 : -1;
+        }
+        return Math.min( 1 , bytesRead.get() / (double) totalBytes );
+    }
+
+    /**
+     * Returns the reports of all files that were parsed completely, keyed by file.
+     *
+     * @return
+     */
+    public Map<File,List<IOZoneReport>> getReportsByFile()
+    {
+        synchronized( reportsByFile ) {
+            return new LinkedHashMap<>( reportsByFile );
+        }
+    }
+}
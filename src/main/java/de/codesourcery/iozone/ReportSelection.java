@@ -0,0 +1,113 @@
+package de.codesourcery.iozone;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Selects which reports, file sizes and record lengths to load.
+ *
+ * The selection is evaluated by the parser while scanning the input (see {@link IOZoneFileParser.IOZoneReader#IOZoneReader(java.io.InputStream, ReportSelection, java.util.function.Consumer)})
+ * so unselected reports and rows are skipped without ever being tokenized and no charts get built for them.
+ */
+public final class ReportSelection
+{
+    /**
+     * Selects everything.
+     */
+    public static final ReportSelection ALL = new ReportSelection( null , Integer.MIN_VALUE , Integer.MAX_VALUE , Integer.MIN_VALUE , Integer.MAX_VALUE );
+
+    // null selects all reports
+    private final Set<String> reportNames;
+
+    public final int minFileSize;
+    public final int maxFileSize;
+    public final int minRecordLength;
+    public final int maxRecordLength;
+
+    /**
+     * Create instance.
+     *
+     * @param reportNames names of reports to select, <code>null</code> selects all reports
+     * @param minFileSize smallest file size (in KB) to select, inclusive
+     * @param maxFileSize largest file size (in KB) to select, inclusive
+     * @param minRecordLength smallest record length (in KB) to select, inclusive
+     * @param maxRecordLength largest record length (in KB) to select, inclusive
+     */
+    public ReportSelection(Collection<String> reportNames, int minFileSize, int maxFileSize, int minRecordLength, int maxRecordLength)
+    {
+        if ( minFileSize > maxFileSize || minRecordLength > maxRecordLength ) {
+            throw new IllegalArgumentException("Empty range");
+        }
+        this.reportNames = reportNames == null ? null : Collections.unmodifiableSet( new LinkedHashSet<>( reportNames ) );
+        this.minFileSize = minFileSize;
+        this.maxFileSize = maxFileSize;
+        this.minRecordLength = minRecordLength;
+        this.maxRecordLength = maxRecordLength;
+    }
+
+    /**
+     * Creates a selection from system properties.
+     *
+     * <ul>
+     *   <li><code>iozone.reports</code> - comma-separated report names</li>
+     *   <li><code>iozone.fileSizes</code> - file size range in KB, like <code>64-1024</code></li>
+     *   <li><code>iozone.recordLengths</code> - record length range in KB, like <code>4-512</code></li>
+     * </ul>
+     *
+     * Missing properties select everything.
+     *
+     * @return
+     */
+    public static ReportSelection fromSystemProperties()
+    {
+        final String names = System.getProperty( "iozone.reports" );
+        final int[] fileSizes = parseRange( System.getProperty( "iozone.fileSizes" ) );
+        final int[] recordLengths = parseRange( System.getProperty( "iozone.recordLengths" ) );
+        if ( names == null && fileSizes == null && recordLengths == null ) {
+            return ALL;
+        }
+        return new ReportSelection( names == null ? null : Arrays.stream( names.split(",") ).map( String::trim ).filter( s -> ! s.isEmpty() ).collect( Collectors.toList() ) ,
+                fileSizes == null ? Integer.MIN_VALUE : fileSizes[0] , fileSizes == null ? Integer.MAX_VALUE : fileSizes[1] ,
+                recordLengths == null ? Integer.MIN_VALUE : recordLengths[0] , recordLengths == null ? Integer.MAX_VALUE : recordLengths[1] );
+    }
+
+    // "min-max", "min-" or "-max"
+    private static int[] parseRange(String value)
+    {
+        if ( value == null || value.trim().isEmpty() ) {
+            return null;
+        }
+        final int idx = value.indexOf( '-' );
+        if ( idx == -1 ) {
+            final int v = Integer.parseInt( value.trim() );
+            return new int[] { v , v };
+        }
+        final String min = value.substring( 0 , idx ).trim();
+        final String max = value.substring( idx+1 ).trim();
+        return new int[] { min.isEmpty() ? Integer.MIN_VALUE : Integer.parseInt( min ) , max.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt( max ) };
+    }
+
+    public boolean includesReport(String reportName) {
+        return reportNames == null || reportNames.contains( reportName );
+    }
+
+    public boolean includesFileSize(int fileSize) {
+        return fileSize >= minFileSize && fileSize <= maxFileSize;
+    }
+
+    public boolean includesRecordLength(int recordLength) {
+        return recordLength >= minRecordLength && recordLength <= maxRecordLength;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "reports: "+( reportNames == null ? "all" : reportNames )+
+               ", file sizes: "+( minFileSize == Integer.MIN_VALUE ? "" : minFileSize )+"-"+( maxFileSize == Integer.MAX_VALUE ? "" : maxFileSize )+
+               ", record lengths: "+( minRecordLength == Integer.MIN_VALUE ? "" : minRecordLength )+"-"+( maxRecordLength == Integer.MAX_VALUE ? "" : maxRecordLength );
+    }
+}
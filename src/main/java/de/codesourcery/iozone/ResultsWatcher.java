@@ -0,0 +1,185 @@
+package de.codesourcery.iozone;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Watches results files for changes and re-parses them on a background thread.
+ * 
+ * Whenever one or more files changed, the listener gets invoked (on the watcher's thread) with 
+ * the reports of all watched files, in the order the files were passed to the constructor. 
+ * The next change is not processed before the listener returns, a listener failing with a 
+ * runtime exception gets logged and does not stop the watcher.
+ */
+public class ResultsWatcher 
+{
+    /**
+     * Time to wait for further changes before re-parsing, files are usually written in several chunks.
+     */
+    public static final long SETTLE_MILLIS = 250;
+    
+    private final Map<Path,List<IOZoneReport>> reportsByFile = new LinkedHashMap<>();
+    private volatile Consumer<List<IOZoneReport>> listener;
+    private final ReportSelection selection;
+    
+    private final WatchService watchService;
+    private final Thread thread;
+    
+    /**
+     * Parses all files and starts listening for file-system changes, 
+     * no listener gets invoked before {@link #start(Consumer)} is called.
+     * 
+     * @param files
+     * @throws IOException if parsing any of the files fails
+     */
+    public ResultsWatcher(List<File> files) throws IOException 
+    {
+        this( parse( files ) , ReportSelection.ALL );
+    }
+    
+    /**
+     * Starts listening for file-system changes of files that have already been parsed, 
+     * no listener gets invoked before {@link #start(Consumer)} is called.
+     * 
+     * @param reportsByFile reports of each file, in the order they should be passed to the listener
+     * @param selection reports to load when re-parsing changed files 
+     * @throws IOException
+     */
+    public ResultsWatcher(Map<File,List<IOZoneReport>> reportsByFile,ReportSelection selection) throws IOException 
+    {
+        this.selection = selection;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        
+        final Set<Path> directories = new HashSet<>();
+        for ( Map.Entry<File,List<IOZoneReport>> entry : reportsByFile.entrySet() ) 
+        {
+            final Path path = entry.getKey().toPath().toAbsolutePath().normalize();
+            this.reportsByFile.put( path , entry.getValue() );
+            if ( directories.add( path.getParent() ) ) {
+                path.getParent().register( watchService , StandardWatchEventKinds.ENTRY_CREATE , StandardWatchEventKinds.ENTRY_MODIFY );
+            }
+        }
+        
+        thread = new Thread( this::run , "results-watcher" );
+        thread.setDaemon( true );
+    }
+    
+    private static Map<File,List<IOZoneReport>> parse(List<File> files) throws IOException 
+    {
+        final Map<File,List<IOZoneReport>> result = new LinkedHashMap<>();
+        for ( File file : files ) {
+            result.put( file , Chart3DViewer.loadReports( file ).getReports() );
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the reports of all watched files as parsed by the constructor.
+     * 
+     * @return
+     */
+    public List<IOZoneReport> getReports() 
+    {
+        final List<IOZoneReport> result = new ArrayList<>();
+        reportsByFile.values().forEach( result::addAll );
+        return result;
+    }
+    
+    public void start(Consumer<List<IOZoneReport>> listener) 
+    {
+        this.listener = listener;
+        thread.start();
+    }
+    
+    public void stop() throws IOException 
+    {
+        thread.interrupt();
+        watchService.close();
+    }
+    
+    private void run() 
+    {
+        try 
+        {
+            while ( ! Thread.currentThread().isInterrupted() ) 
+            {
+                final Set<Path> changed = new HashSet<>();
+                collect( watchService.take() , changed );
+                
+                // wait for the writer to finish, collecting any further changes in the meantime
+                WatchKey key;
+                while ( ( key = watchService.poll( SETTLE_MILLIS , TimeUnit.MILLISECONDS ) ) != null ) {
+                    collect( key , changed );
+                }
+                if ( changed.isEmpty() ) {
+                    continue;
+                }
+                
+                boolean reparsed = false;
+                for ( Path path : changed ) 
+                {
+                    try 
+                    {
+                        reportsByFile.put( path , Chart3DViewer.loadReports( path.toFile() , selection ).getReports() );
+                        reparsed = true;
+                        System.out.println("Reloaded "+path);
+                    } 
+                    catch(IOException | RuntimeException e) 
+                    {
+                        // keep showing the last good version
+                        System.err.println("Failed to reload "+path+": "+e.getMessage());
+                    }
+                }
+                if ( reparsed ) 
+                {
+                    try {
+                        listener.accept( getReports() );
+                    } 
+                    catch(RuntimeException e) 
+                    {
+                        // keep watching, the next change gets another chance
+                        System.err.println("Failed to apply reloaded reports: "+e.getMessage());
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } 
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+    
+    private void collect(WatchKey key,Set<Path> changed) 
+    {
+        final Path dir = (Path) key.watchable();
+        for ( WatchEvent<?> event : key.pollEvents() ) 
+        {
+            if ( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+                changed.addAll( reportsByFile.keySet() );
+                continue;
+            }
+            final Path path = dir.resolve( (Path) event.context() ).normalize();
+            if ( reportsByFile.containsKey( path ) ) {
+                changed.add( path );
+            }
+        }
+        key.reset();
+    }
+}
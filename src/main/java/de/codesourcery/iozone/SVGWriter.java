@@ -0,0 +1,190 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams a scene as SVG.
+ *
+ * Each run of quads becomes a single <code>&lt;path&gt;</code> element using the default non-zero fill rule.
+ */
+public class SVGWriter extends VectorWriter
+{
+    private final Writer out;
+    private final StringBuilder buffer = new StringBuilder();
+
+    private Color runColor;
+    private boolean inPath;
+
+    /**
+     * Create instance and write the document header.
+     *
+     * @param out stream to write to, gets closed by {@link #close()}
+     * @param width
+     * @param height
+     * @throws IOException
+     */
+    public SVGWriter(OutputStream out,int width,int height) throws IOException
+    {
+        super( width , height );
+        this.out = new OutputStreamWriter( out , StandardCharsets.UTF_8 );
+        this.out.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+        this.out.write( "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\""+width+"\" height=\""+height+"\" viewBox=\"0 0 "+width+" "+height+"\">\n" );
+        this.out.write( "<rect width=\"100%\" height=\"100%\" fill=\""+toHex( SceneRenderer.BACKGROUND )+"\"/>\n" );
+    }
+
+    @Override
+    public void beginRun(Color color)
+    {
+        runColor = color;
+        inPath = false;
+    }
+
+    @Override
+    protected void writePolygon(float[] points,int offset,int count) throws IOException
+    {
+        buffer.setLength( 0 );
+        if ( ! inPath )
+        {
+            buffer.append( "<path fill=\"" ).append( toHex( runColor ) ).append( '"' );
+            if ( drawOutlines ) {
+                buffer.append( " stroke=\"" ).append( toHex( Mesh.OUTLINE_COLOR ) ).append( "\" stroke-width=\"0.5\"" );
+            }
+            buffer.append( " d=\"" );
+            inPath = true;
+        }
+        // implicit lineto after the first coordinate pair
+        buffer.append( 'M' );
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            if ( i > 0 ) {
+                buffer.append( ' ' );
+            }
+            format( points[offset+2*i] , buffer ).append( ' ' );
+            format( points[offset+2*i+1] , buffer );
+        }
+        buffer.append( 'Z' );
+        out.append( buffer );
+    }
+
+    @Override
+    public void endRun()
+    {
+        if ( inPath )
+        {
+            try {
+                out.write( "\"/>\n" );
+            } catch (IOException e) {
+                throw wrap( e );
+            }
+            inPath = false;
+        }
+    }
+
+    @Override
+    public void line(int x0, int y0, int x1, int y1, Color color)
+    {
+        write( "<line x1=\""+x0+"\" y1=\""+y0+"\" x2=\""+x1+"\" y2=\""+y1+"\" stroke=\""+toHex( color )+"\"/>\n" );
+    }
+
+    @Override
+    public void text(String text, int x, int y, Font font, Color color)
+    {
+        buffer.setLength( 0 );
+        buffer.append( "<text x=\"" ).append( x ).append( "\" y=\"" ).append( y );
+        buffer.append( "\" font-family=\"" ).append( getFamily( font ) ).append( "\" font-size=\"" );
+        format( font.getSize2D() , buffer ).append( '"' );
+        if ( font.isBold() ) {
+            buffer.append( " font-weight=\"bold\"" );
+        }
+        if ( font.isItalic() ) {
+            buffer.append( " font-style=\"italic\"" );
+        }
+        buffer.append( " fill=\"" ).append( toHex( color ) ).append( "\">" );
+        escape( text , buffer ).append( "</text>\n" );
+        write( buffer );
+    }
+
+    @Override
+    public void polygon(int[] xPoints, int[] yPoints, int count, Color fill, Color outline)
+    {
+        buffer.setLength( 0 );
+        buffer.append( "<polygon points=\"" );
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            if ( i > 0 ) {
+                buffer.append( ' ' );
+            }
+            buffer.append( xPoints[i] ).append( ',' ).append( yPoints[i] );
+        }
+        buffer.append( "\" fill=\"" ).append( toHex( fill ) ).append( "\" stroke=\"" ).append( toHex( outline ) ).append( "\"/>\n" );
+        write( buffer );
+    }
+
+    private void write(CharSequence s)
+    {
+        try {
+            out.append( s );
+        } catch (IOException e) {
+            throw wrap( e );
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            out.write( "</svg>\n" );
+        } finally {
+            out.close();
+            super.close();
+        }
+    }
+
+    private static String getFamily(Font font)
+    {
+        // map Java's logical fonts to generic CSS families
+        switch( font.getFamily() )
+        {
+            case Font.DIALOG:
+            case Font.SANS_SERIF:
+                return "sans-serif";
+            case Font.SERIF:
+                return "serif";
+            case Font.MONOSPACED:
+            case Font.DIALOG_INPUT:
+                return "monospace";
+            default:
+                return escape( font.getFamily() , new StringBuilder() ).append( ",sans-serif" ).toString();
+        }
+    }
+
+    private static String toHex(Color color)
+    {
+        final String hex = Integer.toHexString( color.getRGB() & 0xffffff );
+        return "#000000".substring( 0 , 7 - hex.length() )+hex;
+    }
+
+    private static StringBuilder escape(String text,StringBuilder out)
+    {
+        for ( int i = 0 , len = text.length() ; i < len ; i++ )
+        {
+            final char c = text.charAt( i );
+            switch( c )
+            {
+                case '<': out.append( "&lt;" ); break;
+                case '>': out.append( "&gt;" ); break;
+                case '&': out.append( "&amp;" ); break;
+                case '"': out.append( "&quot;" ); break;
+                default:
+                    out.append( c );
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,151 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+
+import de.codesourcery.iozone.Mesh.Quad;
+
+/**
+ * Renders charts into images without requiring a display.
+ */
+public class SceneRenderer 
+{
+    public static final Color BACKGROUND = Color.WHITE;
+    
+    /**
+     * Renders charts into a new image.
+     * 
+     * @param charts
+     * @param camera camera, its viewport size determines the size of the image
+     * @param quality
+     * @return
+     */
+    public static BufferedImage renderImage(List<IOZone3DChart> charts,PerspectiveCamera camera,RenderQuality quality) 
+    {
+        final BufferedImage image = new BufferedImage( (int) camera.viewportWidth , (int) camera.viewportHeight , BufferedImage.TYPE_INT_RGB );
+        final Graphics2D gfx = image.createGraphics();
+        try {
+            gfx.setColor( BACKGROUND );
+            gfx.fillRect( 0 , 0 , image.getWidth() , image.getHeight() );
+            render( charts , camera , gfx , quality );
+        } finally {
+            gfx.dispose();
+        }
+        return image;
+    }
+    
+    /**
+     * Renders charts, quads first and axis labels on top.
+     * 
+     * @param charts
+     * @param camera
+     * @param gfx
+     * @param quality
+     * @return number of quads rendered
+     */
+    public static int render(List<IOZone3DChart> charts,PerspectiveCamera camera,Graphics2D gfx,RenderQuality quality) 
+    {
+        return render( charts , camera , gfx , quality , null );
+    }
+    
+    /**
+     * Renders charts, quads first and axis labels on top.
+     * 
+     * @param charts
+     * @param camera
+     * @param gfx
+     * @param quality
+     * @param stats receives the time spent in the individual render phases, may be <code>null</code>
+     * @return number of quads rendered
+     */
+    public static int render(List<IOZone3DChart> charts,PerspectiveCamera camera,Graphics2D gfx,RenderQuality quality,FrameStats stats) 
+    {
+        final LabelOccupancy occupancy = new LabelOccupancy();
+        occupancy.reset( (int) camera.viewportWidth , (int) camera.viewportHeight );
+        return render( charts , camera , gfx , quality , stats , occupancy );
+    }
+    
+    /**
+     * Renders charts, quads first and axis labels on top.
+     * 
+     * @param charts
+     * @param camera
+     * @param gfx
+     * @param quality
+     * @param stats receives the time spent in the individual render phases, may be <code>null</code>
+     * @param occupancy screen areas already covered by labels, labels overlapping them are skipped. The caller is responsible for resetting it.
+     * @return number of quads rendered
+     */
+    public static int render(List<IOZone3DChart> charts,PerspectiveCamera camera,Graphics2D gfx,RenderQuality quality,FrameStats stats,LabelOccupancy occupancy) 
+    {
+        return render( charts , camera , new Graphics2DSink( gfx , quality.drawOutlines ) , quality , stats , occupancy );
+    }
+    
+    /**
+     * Renders charts, quads first and axis labels on top.
+     * 
+     * @param charts
+     * @param camera
+     * @param gfx
+     * @param quality
+     * @param stats receives the time spent in the individual render phases, may be <code>null</code>
+     * @param occupancy screen areas already covered by labels, labels overlapping them are skipped. The caller is responsible for resetting it.
+     * @param fontScale label font size at a depth of one world unit, see {@link Axis#render(com.badlogic.gdx.math.Matrix4, SceneSink, com.badlogic.gdx.graphics.Camera, boolean, LabelOccupancy, float)}
+     * @return number of quads rendered
+     */
+    public static int render(List<IOZone3DChart> charts,PerspectiveCamera camera,Graphics2D gfx,RenderQuality quality,FrameStats stats,LabelOccupancy occupancy,float fontScale) 
+    {
+        return render( charts , camera , new Graphics2DSink( gfx , quality.drawOutlines ) , quality , stats , occupancy , fontScale );
+    }
+    
+    /**
+     * Renders charts into a sink, quads first and axis labels on top.
+     * 
+     * @param charts
+     * @param camera
+     * @param sink
+     * @param quality
+     * @param stats receives the time spent in the individual render phases, may be <code>null</code>
+     * @param occupancy screen areas already covered by labels, labels overlapping them are skipped. The caller is responsible for resetting it.
+     * @return number of quads rendered
+     */
+    public static int render(List<IOZone3DChart> charts,PerspectiveCamera camera,SceneSink sink,RenderQuality quality,FrameStats stats,LabelOccupancy occupancy) 
+    {
+        return render( charts , camera , sink , quality , stats , occupancy , 0 );
+    }
+    
+    /**
+     * Renders charts into a sink, quads first and axis labels on top.
+     * 
+     * @param charts
+     * @param camera
+     * @param sink
+     * @param quality
+     * @param stats receives the time spent in the individual render phases, may be <code>null</code>
+     * @param occupancy screen areas already covered by labels, labels overlapping them are skipped. The caller is responsible for resetting it.
+     * @param fontScale label font size at a depth of one world unit, values &lt;= 0 derive it from the distance to the camera
+     * @return number of quads rendered
+     */
+    public static int render(List<IOZone3DChart> charts,PerspectiveCamera camera,SceneSink sink,RenderQuality quality,FrameStats stats,LabelOccupancy occupancy,float fontScale) 
+    {
+        final List<Quad> quads = new ArrayList<>();
+        for ( int i = 0, len = charts.size() ; i < len ; i++ ) {
+            charts.get(i).toQuads( camera , null , quads , quality , stats );
+        }
+        Mesh.renderQuads( quads , camera , sink , null , stats );
+        
+        final long start = System.nanoTime();
+        for ( int i = 0, len = charts.size() ; i < len ; i++ ) {
+            charts.get(i).renderAxis( camera , sink , quality , occupancy , fontScale );
+        }
+        if ( stats != null ) {
+            stats.add( FrameStats.Phase.TEXT , System.nanoTime() - start );
+        }
+        return quads.size();
+    }
+}
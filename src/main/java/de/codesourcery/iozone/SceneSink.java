@@ -0,0 +1,77 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+
+import de.codesourcery.iozone.Mesh.Quad;
+
+/**
+ * Receives the primitives of a rendered scene in screen coordinates and drawing order.
+ *
+ * Quads arrive depth-sorted (back to front) in runs of consecutive quads sharing the same color,
+ * axis lines, labels and markers are drawn on top of them.
+ *
+ * @see Graphics2DSink
+ * @see VectorWriter
+ */
+public interface SceneSink
+{
+    /**
+     * Starts a run of quads.
+     *
+     * @param color fill color of all quads in the run
+     */
+    public void beginRun(Color color);
+
+    /**
+     * Adds a quad to the current run.
+     *
+     * @param quad quad whose corners have already been transformed into screen coordinates
+     */
+    public void quad(Quad quad);
+
+    /**
+     * Ends the current run.
+     */
+    public void endRun();
+
+    public void line(int x0,int y0,int x1,int y1,Color color);
+
+    /**
+     * Draws text.
+     *
+     * @param text
+     * @param x left end of the baseline
+     * @param y baseline
+     * @param font
+     * @param color
+     */
+    public void text(String text,int x,int y,Font font,Color color);
+
+    /**
+     * Draws a filled and outlined polygon.
+     *
+     * @param xPoints
+     * @param yPoints
+     * @param count number of points to use
+     * @param fill
+     * @param outline
+     */
+    public void polygon(int[] xPoints,int[] yPoints,int count,Color fill,Color outline);
+
+    /**
+     * Returns the font labels are derived from.
+     *
+     * @return
+     */
+    public Font getFont();
+
+    /**
+     * Returns metrics used to lay out labels.
+     *
+     * @param font
+     * @return
+     */
+    public FontMetrics getFontMetrics(Font font);
+}
@@ -0,0 +1,388 @@
+package de.codesourcery.iozone;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.math.Vector3;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Shows charts side by side in a grid of viewports.
+ *
+ * Viewports either all share one camera (linked, the default) or each have their own, press 'l' to
+ * toggle. Every viewport renders into its own image on a thread pool, painting only composites the
+ * most recently finished images and never waits for rendering. Viewports whose camera did not move 
+ * since they were last rendered are not rendered again.
+ */
+public class SplitScreenPanel extends JPanel
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final Color SEPARATOR_COLOR = Color.DARK_GRAY;
+    private static final Color TITLE_COLOR = Color.BLACK;
+
+    private final List<Viewport> viewports = new ArrayList<>();
+
+    private final PerspectiveCamera sharedCamera;
+    private boolean linked = true;
+
+    // viewport that receives keyboard input when cameras are not linked
+    private Viewport activeViewport;
+
+    private final ExecutorService renderPool = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() , r ->
+    {
+        final Thread t = new Thread( r , "viewport-renderer" );
+        t.setDaemon( true );
+        return t;
+    });
+
+    private int columns;
+    private int cellWidth;
+    private int cellHeight;
+
+    protected static final class Viewport
+    {
+        public final String title;
+        public final List<IOZone3DChart> charts;
+        public final PerspectiveCamera ownCamera;
+
+        // image shown on screen and image the render pool draws into, swapped on the EDT when rendering finished
+        private BufferedImage image;
+        private BufferedImage backImage;
+        private boolean dirty = true;
+        private boolean rendering;
+
+        public Viewport(String title,List<IOZone3DChart> charts,PerspectiveCamera ownCamera)
+        {
+            this.title = title;
+            this.charts = charts;
+            this.ownCamera = ownCamera;
+        }
+    }
+
+    private final MouseAdapter mouseAdapter = new MouseAdapter()
+    {
+        private Point dragged;
+        private Viewport draggedViewport;
+
+        @Override
+        public void mousePressed(MouseEvent e)
+        {
+            dragged = new Point( e.getPoint() );
+            draggedViewport = getViewportAt( e.getX() , e.getY() );
+            if ( draggedViewport != null ) {
+                activeViewport = draggedViewport;
+            }
+            requestFocusInWindow();
+        }
+
+        @Override
+        public void mouseReleased(MouseEvent e) {
+            dragged = null;
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e)
+        {
+            if ( dragged == null || draggedViewport == null ) {
+                return;
+            }
+            final int dx = e.getX() - dragged.x;
+            final int dy = e.getY() - dragged.y;
+            dragged.setLocation( e.getPoint() );
+
+            final PerspectiveCamera camera = getCamera( draggedViewport );
+            final Vector3 tmp = new Vector3();
+            camera.direction.rotate( camera.up , -dx * Chart3DViewer.MOUSE_ROT_DEG_PER_PIXEL );
+            tmp.set( camera.direction ).crs( camera.up ).nor();
+            camera.direction.rotate( tmp , -dy * Chart3DViewer.MOUSE_ROT_DEG_PER_PIXEL );
+            cameraChanged( draggedViewport );
+        }
+
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e)
+        {
+            final Viewport viewport = getViewportAt( e.getX() , e.getY() );
+            if ( viewport != null ) {
+                moveZ( viewport , -e.getWheelRotation() * Chart3DViewer.INC );
+            }
+        }
+    };
+
+    private final KeyAdapter keyListener = new KeyAdapter()
+    {
+        @Override
+        public void keyTyped(KeyEvent e)
+        {
+            final Viewport viewport = activeViewport;
+            switch( e.getKeyChar() )
+            {
+                case 'l': toggleLinked(); break;
+                case 'w': moveZ( viewport , Chart3DViewer.INC ); break;
+                case 's': moveZ( viewport , -Chart3DViewer.INC ); break;
+                case 'a': moveX( viewport , -Chart3DViewer.INC ); break;
+                case 'd': moveX( viewport , Chart3DViewer.INC ); break;
+                case '+': moveY( viewport , Chart3DViewer.INC ); break;
+                case '-': moveY( viewport , -Chart3DViewer.INC ); break;
+                case 'q': rot( viewport , Chart3DViewer.ROT ); break;
+                case 'e': rot( viewport , -Chart3DViewer.ROT ); break;
+                default:
+            }
+        }
+    };
+
+    /**
+     * Create instance.
+     *
+     * @param reports reports to show, one viewport per report with its chart at the origin
+     */
+    public SplitScreenPanel(List<IOZoneReport> reports)
+    {
+        if ( reports.isEmpty() ) {
+            throw new IllegalArgumentException("Need at least one report");
+        }
+        sharedCamera = CameraPreset.DEFAULT.createCamera( 640 , 480 );
+        for ( IOZoneReport report : reports ) {
+            viewports.add( new Viewport( report.reportName , Collections.singletonList( new IOZone3DChart( report ) ) , CameraPreset.DEFAULT.createCamera( 640 , 480 ) ) );
+        }
+        activeViewport = viewports.get(0);
+
+        final int rows = (int) Math.ceil( viewports.size() / (double) getColumnCount( viewports.size() ) );
+        setPreferredSize( new Dimension( 400 * getColumnCount( viewports.size() ) , 300 * rows ) );
+
+        addMouseListener( mouseAdapter );
+        addMouseMotionListener( mouseAdapter );
+        addMouseWheelListener( mouseAdapter );
+        addKeyListener( keyListener );
+        setFocusable( true );
+    }
+
+    private static int getColumnCount(int viewportCount) {
+        return (int) Math.ceil( Math.sqrt( viewportCount ) );
+    }
+
+    public boolean isLinked() {
+        return linked;
+    }
+
+    public void toggleLinked()
+    {
+        linked = ! linked;
+        if ( ! linked )
+        {
+            // start out where the linked camera was
+            for ( Viewport viewport : viewports )
+            {
+                viewport.ownCamera.position.set( sharedCamera.position );
+                viewport.ownCamera.direction.set( sharedCamera.direction );
+                viewport.ownCamera.up.set( sharedCamera.up );
+                viewport.ownCamera.update(true);
+            }
+        }
+        viewports.forEach( v -> v.dirty = true );
+        repaint();
+    }
+
+    private PerspectiveCamera getCamera(Viewport viewport) {
+        return linked ? sharedCamera : viewport.ownCamera;
+    }
+
+    private Viewport getViewportAt(int x,int y)
+    {
+        if ( cellWidth == 0 || cellHeight == 0 ) {
+            return null;
+        }
+        final int index = (y / cellHeight) * columns + (x / cellWidth);
+        return x / cellWidth < columns && index < viewports.size() ? viewports.get( index ) : null;
+    }
+
+    private void cameraChanged(Viewport viewport)
+    {
+        getCamera( viewport ).update(true);
+        if ( linked ) {
+            viewports.forEach( v -> v.dirty = true );
+        } else {
+            viewport.dirty = true;
+        }
+        repaint();
+    }
+
+    private void moveZ(Viewport viewport,float offset)
+    {
+        final PerspectiveCamera camera = getCamera( viewport );
+        camera.position.add( camera.direction.cpy().scl( offset ) );
+        cameraChanged( viewport );
+    }
+
+    private void moveX(Viewport viewport,float offset)
+    {
+        final PerspectiveCamera camera = getCamera( viewport );
+        camera.position.add( camera.direction.cpy().crs( camera.up ).nor().scl( offset ) );
+        cameraChanged( viewport );
+    }
+
+    private void moveY(Viewport viewport,float offset)
+    {
+        final PerspectiveCamera camera = getCamera( viewport );
+        camera.position.add( camera.up.cpy().scl( offset ) );
+        cameraChanged( viewport );
+    }
+
+    private void rot(Viewport viewport,float deg)
+    {
+        final PerspectiveCamera camera = getCamera( viewport );
+        camera.direction.rotate( camera.up , deg );
+        cameraChanged( viewport );
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        super.paintComponent( g );
+        layout( getWidth() , getHeight() );
+        startRendering();
+
+        final Graphics2D gfx = (Graphics2D) g;
+        for ( int i = 0 ; i < viewports.size() ; i++ )
+        {
+            final Viewport viewport = viewports.get(i);
+            final int x = (i % columns) * cellWidth;
+            final int y = (i / columns) * cellHeight;
+            gfx.drawImage( viewport.image , x , y , null );
+
+            gfx.setColor( SEPARATOR_COLOR );
+            gfx.drawRect( x , y , cellWidth - 1 , cellHeight - 1 );
+            gfx.setColor( TITLE_COLOR );
+            gfx.drawString( viewport.title , x + 5 , y + 15 );
+        }
+    }
+
+    /**
+     * Starts rendering all viewports that changed since they were last rendered, at most one
+     * render per viewport is in progress at any time. Must be invoked on the EDT.
+     */
+    private void startRendering()
+    {
+        for ( Viewport viewport : viewports )
+        {
+            if ( ! viewport.dirty || viewport.rendering ) {
+                continue;
+            }
+            viewport.dirty = false;
+            viewport.rendering = true;
+
+            // the camera keeps moving on the EDT while the viewport gets rendered
+            final PerspectiveCamera camera = copyOf( getCamera( viewport ) );
+            final BufferedImage target = viewport.backImage;
+            renderPool.execute( () ->
+            {
+                boolean finished = false;
+                try {
+                    renderViewport( viewport.charts , camera , target );
+                    finished = true;
+                }
+                finally
+                {
+                    final boolean swap = finished;
+                    SwingUtilities.invokeLater( () -> renderFinished( viewport , target , swap ) );
+                }
+            });
+        }
+    }
+
+    private void renderFinished(Viewport viewport,BufferedImage target,boolean swap)
+    {
+        viewport.rendering = false;
+        // images got replaced if the panel was resized while rendering
+        if ( swap && target == viewport.backImage )
+        {
+            viewport.backImage = viewport.image;
+            viewport.image = target;
+        }
+        repaint();
+    }
+
+    private static PerspectiveCamera copyOf(PerspectiveCamera camera)
+    {
+        final PerspectiveCamera copy = new PerspectiveCamera( camera.fieldOfView , camera.viewportWidth , camera.viewportHeight );
+        copy.position.set( camera.position );
+        copy.direction.set( camera.direction );
+        copy.up.set( camera.up );
+        copy.near = camera.near;
+        copy.far = camera.far;
+        copy.update(true);
+        return copy;
+    }
+
+    private void layout(int width,int height)
+    {
+        columns = getColumnCount( viewports.size() );
+        final int rows = (int) Math.ceil( viewports.size() / (double) columns );
+        final int newWidth = Math.max( 1 , width / columns );
+        final int newHeight = Math.max( 1 , height / rows );
+        if ( newWidth == cellWidth && newHeight == cellHeight ) {
+            return;
+        }
+        cellWidth = newWidth;
+        cellHeight = newHeight;
+
+        // all viewports have the same size so linked viewports can share a single camera
+        resize( sharedCamera );
+        for ( Viewport viewport : viewports )
+        {
+            resize( viewport.ownCamera );
+            viewport.image = createImage();
+            viewport.backImage = createImage();
+            viewport.dirty = true;
+        }
+    }
+
+    private void resize(PerspectiveCamera camera)
+    {
+        camera.viewportWidth = cellWidth;
+        camera.viewportHeight = cellHeight;
+        camera.update(true);
+    }
+
+    private BufferedImage createImage()
+    {
+        final BufferedImage image = new BufferedImage( cellWidth , cellHeight , BufferedImage.TYPE_INT_RGB );
+        final Graphics2D gfx = image.createGraphics();
+        gfx.setColor( SceneRenderer.BACKGROUND );
+        gfx.fillRect( 0 , 0 , cellWidth , cellHeight );
+        gfx.dispose();
+        return image;
+    }
+
+    private static void renderViewport(List<IOZone3DChart> charts,PerspectiveCamera camera,BufferedImage image)
+    {
+        final Graphics2D gfx = image.createGraphics();
+        try
+        {
+            gfx.setColor( SceneRenderer.BACKGROUND );
+            gfx.fillRect( 0 , 0 , image.getWidth() , image.getHeight() );
+            SceneRenderer.render( charts , camera , gfx , RenderQuality.FULL , null );
+        } finally {
+            gfx.dispose();
+        }
+    }
+}
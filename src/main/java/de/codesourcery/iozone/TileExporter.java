@@ -0,0 +1,405 @@
+package de.codesourcery.iozone;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Exports a table of charts as an image pyramid for zoomable image viewers, either in
+ * DeepZoom (<code>.dzi</code>) or XYZ (<code>z/x/y.png</code>) layout.
+ *
+ * Every pyramid level gets rendered from the same camera at its own resolution, one tile at a time. Tiles
+ * are rendered and written in parallel and only consider the charts whose projected bounds intersect them,
+ * at most <code>2*threads</code> tiles are held in memory at any time so arbitrarily large images can be exported.
+ *
+ * Labels have a fixed size in world space (see {@link #labelSize}) so they grow with the resolution of a level, just like
+ * labels on a map they only appear once zoomed in far enough to be readable.
+ */
+public class TileExporter
+{
+    private static final float FIELD_OF_VIEW = 40;
+
+    // extra space around the charts, relative to the image size
+    private static final float MARGIN = 1.05f;
+
+    // charts this close to a tile may still have labels extending into it, enough for labels at Axis.MAX_FONT_SIZE
+    private static final int LABEL_MARGIN = 192;
+
+    private final List<IOZone3DChart> charts;
+
+    // world-space bounds of each chart
+    private final List<BoundingBox> chartBounds = new ArrayList<>();
+
+    // world-space bounds of all charts
+    private final BoundingBox bounds = new BoundingBox().inf();
+
+    public int tileSize = 256;
+
+    /**
+     * Angle (in degrees) the camera looks down on the charts.
+     */
+    public float elevation = 20;
+
+    public RenderQuality quality = RenderQuality.FULL;
+
+    /**
+     * Height of axis labels in world units (a chart is {@value ChartManager#CHART_WIDTH} units wide).
+     */
+    public float labelSize = 3;
+
+    /**
+     * Compression level of tiles, see {@link PNGEncoder}.
+     */
+    public int pngLevel = PNGEncoder.FAST;
+
+    /**
+     * A pyramid level along with the camera to render it.
+     */
+    protected static final class Level
+    {
+        public final int index;
+        public final int width;
+        public final int height;
+        public final PerspectiveCamera camera;
+
+        // font size of labels at a view-space depth of one world unit
+        public final float fontScale;
+
+        // screen-space bounds of each chart, null if the chart does not lie completely in front of the camera
+        public final Rectangle[] chartBounds;
+
+        public Level(int index,int width,int height,PerspectiveCamera camera,float fontScale,Rectangle[] chartBounds)
+        {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+            this.camera = camera;
+            this.fontScale = fontScale;
+            this.chartBounds = chartBounds;
+        }
+
+        public int getColumnCount(int tileSize) {
+            return ( width + tileSize - 1 ) / tileSize;
+        }
+
+        public int getRowCount(int tileSize) {
+            return ( height + tileSize - 1 ) / tileSize;
+        }
+    }
+
+    protected interface TileFile {
+        public File get(int level,int column,int row);
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param charts charts to export, see {@link ChartManager#createAllCharts()}
+     */
+    public TileExporter(List<IOZone3DChart> charts)
+    {
+        this.charts = charts;
+        for ( IOZone3DChart chart : charts )
+        {
+            final BoundingBox box = chart.getBounds( new BoundingBox() );
+            chartBounds.add( box );
+            bounds.ext( box );
+        }
+        if ( charts.isEmpty() ) {
+            bounds.set( new Vector3() , new Vector3() );
+        }
+    }
+
+    /**
+     * Returns width divided by height of an image that tightly fits all charts.
+     *
+     * @return
+     */
+    public float getAspectRatio()
+    {
+        final Vector3 size = bounds.getDimensions( new Vector3() );
+        return Math.max( 1 , size.x ) / Math.max( 1 , getVisibleHeight( size ) );
+    }
+
+    private float getVisibleHeight(Vector3 size)
+    {
+        final double angle = Math.toRadians( elevation );
+        return (float) ( size.y * Math.cos( angle ) + size.z * Math.sin( angle ) );
+    }
+
+    /**
+     * Creates a camera that shows all charts centered in a viewport.
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public PerspectiveCamera createCamera(int width,int height)
+    {
+        Mesh.loadNativeLibrary();
+
+        final Vector3 size = bounds.getDimensions( new Vector3() );
+        final Vector3 center = bounds.getCenter( new Vector3() );
+
+        final float tanY = (float) Math.tan( Math.toRadians( FIELD_OF_VIEW / 2 ) );
+        final float tanX = tanY * width / height;
+        final float distance = MARGIN * Math.max( getVisibleHeight( size ) / 2 / tanY , size.x / 2 / tanX ) + size.z / 2;
+
+        final double angle = Math.toRadians( elevation );
+        final PerspectiveCamera camera = new PerspectiveCamera( FIELD_OF_VIEW , width , height );
+        camera.position.set( 0 , (float) Math.sin( angle ) , (float) Math.cos( angle ) ).scl( distance ).add( center );
+        CameraPreset.lookAt( camera , center );
+        camera.near = 1f;
+        camera.far = 2 * distance + size.len();
+        camera.update(true);
+
+        // the estimate above ignores perspective, center the projected bounds and scale them to fit
+        for ( int i = 0 ; i < 2 ; i++ )
+        {
+            final Rectangle screen = toScreen( bounds , camera );
+            if ( screen == null ) {
+                break;
+            }
+            final float worldPerPixel = 2 * camera.position.dst( center ) * tanY / height;
+            final Vector3 right = camera.direction.cpy().crs( camera.up ).nor();
+            camera.position.mulAdd( right , (float) ( screen.getCenterX() - width / 2.0 ) * worldPerPixel );
+            camera.position.mulAdd( camera.up , (float) ( height / 2.0 - screen.getCenterY() ) * worldPerPixel );
+
+            final float scale = MARGIN * Math.max( screen.width / (float) width , screen.height / (float) height );
+            camera.position.mulAdd( center.cpy().sub( camera.position ) , 1 - scale );
+            camera.update(true);
+        }
+        return camera;
+    }
+
+    protected Level createLevel(int index,int width,int height)
+    {
+        final PerspectiveCamera camera = createCamera( width , height );
+        final Rectangle[] screenBounds = new Rectangle[ charts.size() ];
+        for ( int i = 0 ; i < screenBounds.length ; i++ ) {
+            screenBounds[i] = toScreen( chartBounds.get(i) , camera );
+        }
+        // pixels per world unit at depth 1
+        final float pixelsPerUnit = height / ( 2 * (float) Math.tan( Math.toRadians( FIELD_OF_VIEW / 2 ) ) );
+        return new Level( index , width , height , camera , labelSize * pixelsPerUnit , screenBounds );
+    }
+
+    private static Rectangle toScreen(BoundingBox box,PerspectiveCamera camera)
+    {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        final Vector3 v = new Vector3();
+        for ( int corner = 0 ; corner < 8 ; corner++ )
+        {
+            v.set( ( corner & 1 ) == 0 ? box.min.x : box.max.x , ( corner & 2 ) == 0 ? box.min.y : box.max.y , ( corner & 4 ) == 0 ? box.min.z : box.max.z );
+            v.mul( camera.view );
+            if ( v.z >= -camera.near ) {
+                return null;
+            }
+            Axis.worldToScreen( v , camera );
+            minX = Math.min( minX , v.x );
+            minY = Math.min( minY , v.y );
+            maxX = Math.max( maxX , v.x );
+            maxY = Math.max( maxY , v.y );
+        }
+        final int x = (int) Math.floor( minX );
+        final int y = (int) Math.floor( minY );
+        return new Rectangle( x , y , (int) Math.ceil( maxX ) - x + 1 , (int) Math.ceil( maxY ) - y + 1 );
+    }
+
+    /**
+     * Renders a single tile.
+     *
+     * @param level
+     * @param column
+     * @param row
+     * @return
+     */
+    public BufferedImage renderTile(Level level,int column,int row)
+    {
+        final int x = column * tileSize;
+        final int y = row * tileSize;
+        final int width = Math.min( tileSize , level.width - x );
+        final int height = Math.min( tileSize , level.height - y );
+
+        final Rectangle area = new Rectangle( x - LABEL_MARGIN , y - LABEL_MARGIN , width + 2*LABEL_MARGIN , height + 2*LABEL_MARGIN );
+        final List<IOZone3DChart> visible = new ArrayList<>();
+        for ( int i = 0 ; i < level.chartBounds.length ; i++ )
+        {
+            if ( level.chartBounds[i] == null || level.chartBounds[i].intersects( area ) ) {
+                visible.add( charts.get(i) );
+            }
+        }
+
+        final BufferedImage image = new BufferedImage( width , height , BufferedImage.TYPE_INT_RGB );
+        final Graphics2D gfx = image.createGraphics();
+        try
+        {
+            gfx.setColor( SceneRenderer.BACKGROUND );
+            gfx.fillRect( 0 , 0 , width , height );
+            if ( ! visible.isEmpty() )
+            {
+                // labels near the tile border are placed the same way in all adjacent tiles
+                final LabelOccupancy occupancy = new LabelOccupancy();
+                occupancy.reset( area.x , area.y , area.width , area.height );
+                gfx.translate( -x , -y );
+                SceneRenderer.render( visible , level.camera , gfx , quality , null , null , occupancy , level.fontScale );
+            }
+        } finally {
+            gfx.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Writes a DeepZoom image, tiles go into a <code>&lt;name&gt;_files</code> directory next to the descriptor.
+     *
+     * @param descriptor <code>.dzi</code> file to write
+     * @param width width of the full-resolution image in pixels, the height is derived from the {@link #getAspectRatio() aspect ratio}
+     * @param threads
+     * @return number of tiles written
+     * @throws IOException
+     */
+    public int writeDeepZoom(File descriptor,int width,int threads) throws IOException
+    {
+        final int height = Math.max( 1 , Math.round( width / getAspectRatio() ) );
+        final String name = descriptor.getName().replaceFirst( "\\.[^.]*$" , "" );
+        final File tileDir = new File( descriptor.getAbsoluteFile().getParentFile() , name+"_files" );
+
+        // level 0 is a single pixel, every level doubles the resolution of the previous one
+        final int maxLevel = 32 - Integer.numberOfLeadingZeros( Math.max( width , height ) - 1 );
+        final List<int[]> sizes = new ArrayList<>();
+        for ( int level = 0 ; level <= maxLevel ; level++ )
+        {
+            final int scale = 1 << ( maxLevel - level );
+            sizes.add( new int[] { ( width + scale - 1 ) / scale , ( height + scale - 1 ) / scale } );
+        }
+        final int tiles = writeTiles( sizes , ( level , column , row ) -> new File( tileDir , level+File.separator+column+"_"+row+".png" ) , threads );
+
+        try ( Writer writer = new OutputStreamWriter( new FileOutputStream( descriptor ) , StandardCharsets.UTF_8 ) )
+        {
+            writer.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+            writer.write( "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\""+tileSize+"\" Overlap=\"0\" Format=\"png\">\n" );
+            writer.write( "  <Size Width=\""+width+"\" Height=\""+height+"\"/>\n" );
+            writer.write( "</Image>\n" );
+        }
+        return tiles;
+    }
+
+    /**
+     * Writes tiles as <code>&lt;z&gt;/&lt;x&gt;/&lt;y&gt;.png</code>, zoom level 0 is a single tile showing all charts.
+     *
+     * @param outputDir
+     * @param maxZoom
+     * @param threads
+     * @return number of tiles written
+     * @throws IOException
+     */
+    public int writeXYZ(File outputDir,int maxZoom,int threads) throws IOException
+    {
+        final List<int[]> sizes = new ArrayList<>();
+        for ( int zoom = 0 ; zoom <= maxZoom ; zoom++ ) {
+            sizes.add( new int[] { tileSize << zoom , tileSize << zoom } );
+        }
+        return writeTiles( sizes , ( zoom , x , y ) -> new File( outputDir , zoom+File.separator+x+File.separator+y+".png" ) , threads );
+    }
+
+    private int writeTiles(List<int[]> sizes,TileFile tileFile,int threads) throws IOException
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        final ArrayDeque<Future<?>> inFlight = new ArrayDeque<>();
+        int tiles = 0;
+        try
+        {
+            for ( int index = 0 ; index < sizes.size() ; index++ )
+            {
+                final Level level = createLevel( index , sizes.get(index)[0] , sizes.get(index)[1] );
+                for ( int row = 0 , rows = level.getRowCount( tileSize ) ; row < rows ; row++ )
+                {
+                    for ( int column = 0 , columns = level.getColumnCount( tileSize ) ; column < columns ; column++ )
+                    {
+                        if ( inFlight.size() >= 2*threads ) {
+                            inFlight.removeFirst().get();
+                        }
+                        final int currentRow = row;
+                        final int currentColumn = column;
+                        inFlight.add( executor.submit( () ->
+                        {
+                            final File file = tileFile.get( level.index , currentColumn , currentRow );
+                            file.getParentFile().mkdirs();
+                            new PNGEncoder( pngLevel ).write( renderTile( level , currentColumn , currentRow ) , file );
+                            return null;
+                        }));
+                        tiles++;
+                    }
+                }
+            }
+            while ( ! inFlight.isEmpty() ) {
+                inFlight.removeFirst().get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted",e);
+        }
+        catch (ExecutionException e)
+        {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        } finally {
+            executor.shutdownNow();
+        }
+        return tiles;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 3 ) {
+            System.err.println("Usage: <output .dzi file or XYZ directory> <image width (.dzi) or max. zoom level (XYZ)> <results file> [<results file> ...]");
+            System.exit(1);
+        }
+        System.setProperty( "java.awt.headless" , "true" );
+
+        final ReportSelection selection = ReportSelection.fromSystemProperties();
+        final List<IOZoneReport> reports = new ArrayList<>();
+        for ( int i = 2 ; i < args.length ; i++ ) {
+            reports.addAll( Chart3DViewer.loadReports( new File( args[i] ) , selection ).getReports() );
+        }
+        // same table layout as in the interactive viewer
+        final TileExporter exporter = new TileExporter( new ChartManager( reports ).createAllCharts() );
+        final File output = new File( args[0] );
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        long time = -System.currentTimeMillis();
+        final int tiles;
+        if ( output.getName().toLowerCase().endsWith(".dzi") ) {
+            tiles = exporter.writeDeepZoom( output , Integer.parseInt( args[1] ) , threads );
+        } else {
+            tiles = exporter.writeXYZ( output , Integer.parseInt( args[1] ) , threads );
+        }
+        time += System.currentTimeMillis();
+        System.out.println("Wrote "+tiles+" tiles of "+reports.size()+" charts to "+output+" in "+time+" ms");
+    }
+}
@@ -0,0 +1,258 @@
+package de.codesourcery.iozone;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.math.Vector3;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Renders an orbit animation around a set of charts.
+ * 
+ * Every frame gets its own camera so frames are rendered in parallel, output is 
+ * either a numbered PNG sequence or an animated GIF.
+ */
+public class TurntableExporter 
+{
+    private final List<IOZone3DChart> charts;
+    
+    private final Vector3 center = new Vector3();
+    
+    public float radius = 250;
+    public float elevation = 120;
+    
+    public int width = 640;
+    public int height = 480;
+    
+    public RenderQuality quality = RenderQuality.FULL;
+    
+    /**
+     * Compression level of PNG sequences, see {@link PNGEncoder}.
+     */
+    public int pngLevel = PNGEncoder.FAST;
+    
+    public TurntableExporter(List<IOZone3DChart> charts) 
+    {
+        this.charts = charts;
+        
+        // orbit around the centroid of all chart origins
+        final Vector3 tmp = new Vector3();
+        for ( IOZone3DChart chart : charts ) {
+            center.add( chart.modelMatrix.getTranslation( tmp ) );
+        }
+        center.scl( 1f / Math.max( 1 , charts.size() ) );
+    }
+    
+    /**
+     * Creates the camera for a frame.
+     * 
+     * @param frame
+     * @param frameCount
+     * @return
+     */
+    public PerspectiveCamera createCamera(int frame,int frameCount) 
+    {
+        Mesh.loadNativeLibrary();
+        
+        final double angle = 2 * Math.PI * frame / frameCount;
+        final PerspectiveCamera camera = new PerspectiveCamera( 40 , width , height );
+        camera.position.set( center.x + radius * (float) Math.sin( angle ) , center.y + elevation , center.z + radius * (float) Math.cos( angle ) );
+        CameraPreset.lookAt( camera , center );
+        camera.near = 0.1f;
+        camera.far = 10000f;
+        camera.update(true);
+        return camera;
+    }
+    
+    public BufferedImage renderFrame(int frame,int frameCount) {
+        return SceneRenderer.renderImage( charts , createCamera( frame , frameCount ) , quality );
+    }
+    
+    /**
+     * Writes frames as <code>frame_00000.png</code>, <code>frame_00001.png</code>, ...
+     * 
+     * @param outputDir
+     * @param frameCount
+     * @param threads
+     * @throws IOException
+     */
+    public void writePNGSequence(File outputDir,int frameCount,int threads) throws IOException 
+    {
+        outputDir.mkdirs();
+        // frames are independent, render and encode them entirely on the worker threads
+        forEachFrame( frameCount , threads , frame -> 
+        {
+            new PNGEncoder( pngLevel ).write( renderFrame( frame , frameCount ) , new File( outputDir , String.format( "frame_%05d.png" , frame ) ) );
+            return null;
+        } , result -> {} );
+    }
+    
+    /**
+     * Writes an endlessly looping animated GIF.
+     * 
+     * Frames are rendered and color-reduced in parallel and appended to the GIF in order as they
+     * become available, only a bounded number of frames is held in memory at any time.
+     * 
+     * @param outputFile
+     * @param frameCount
+     * @param frameDelayMillis
+     * @param threads
+     * @throws IOException
+     */
+    public void writeGIF(File outputFile,int frameCount,int frameDelayMillis,int threads) throws IOException 
+    {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName( "gif" ).next();
+        
+        // image output streams do not truncate existing files
+        outputFile.delete();
+        try ( ImageOutputStream out = ImageIO.createImageOutputStream( outputFile ) ) 
+        {
+            writer.setOutput( out );
+            writer.prepareWriteSequence( null );
+            
+            forEachFrame( frameCount , threads , frame -> toIndexed( renderFrame( frame , frameCount ) ) , image -> 
+            {
+                final IIOMetadata metadata = writer.getDefaultImageMetadata( ImageTypeSpecifier.createFromRenderedImage( image ) , null );
+                configureFrame( metadata , frameDelayMillis );
+                writer.writeToSequence( new IIOImage( image , null , metadata ) , null );
+            });
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+    }
+    
+    private static BufferedImage toIndexed(BufferedImage image) 
+    {
+        final BufferedImage result = new BufferedImage( image.getWidth() , image.getHeight() , BufferedImage.TYPE_BYTE_INDEXED );
+        final Graphics2D gfx = result.createGraphics();
+        gfx.drawImage( image , 0 , 0 , null );
+        gfx.dispose();
+        return result;
+    }
+    
+    private static void configureFrame(IIOMetadata metadata,int frameDelayMillis) throws IOException 
+    {
+        final String format = metadata.getNativeMetadataFormatName();
+        final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree( format );
+        
+        final IIOMetadataNode control = child( root , "GraphicControlExtension" );
+        control.setAttribute( "disposalMethod" , "none" );
+        control.setAttribute( "userInputFlag" , "FALSE" );
+        control.setAttribute( "transparentColorFlag" , "FALSE" );
+        control.setAttribute( "delayTime" , Integer.toString( frameDelayMillis / 10 ) );
+        control.setAttribute( "transparentColorIndex" , "0" );
+        
+        final IIOMetadataNode extension = new IIOMetadataNode( "ApplicationExtension" );
+        extension.setAttribute( "applicationID" , "NETSCAPE" );
+        extension.setAttribute( "authenticationCode" , "2.0" );
+        extension.setUserObject( new byte[] { 1 , 0 , 0 } ); // loop forever
+        child( root , "ApplicationExtensions" ).appendChild( extension );
+        
+        metadata.setFromTree( format , root );
+    }
+    
+    private static IIOMetadataNode child(IIOMetadataNode parent,String name) 
+    {
+        for ( int i = 0 ; i < parent.getLength() ; i++ ) 
+        {
+            if ( parent.item(i).getNodeName().equals( name ) ) {
+                return (IIOMetadataNode) parent.item(i);
+            }
+        }
+        final IIOMetadataNode node = new IIOMetadataNode( name );
+        parent.appendChild( node );
+        return node;
+    }
+    
+    protected interface FrameTask<T> {
+        public T process(int frame) throws IOException;
+    }
+    
+    protected interface FrameConsumer<T> {
+        public void accept(T result) throws IOException;
+    }
+    
+    /**
+     * Processes frames in parallel and hands the results to a consumer in frame order, keeping 
+     * at most <code>2*threads</code> frames in flight.
+     */
+    private static <T> void forEachFrame(int frameCount,int threads,FrameTask<T> task,FrameConsumer<T> consumer) throws IOException 
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        final ArrayDeque<Future<T>> inFlight = new ArrayDeque<>();
+        try 
+        {
+            for ( int frame = 0 ; frame < frameCount || ! inFlight.isEmpty() ; ) 
+            {
+                while ( frame < frameCount && inFlight.size() < 2*threads ) 
+                {
+                    final int current = frame++;
+                    inFlight.add( executor.submit( () -> task.process( current ) ) );
+                }
+                consumer.accept( inFlight.removeFirst().get() );
+            }
+        } 
+        catch (InterruptedException e) 
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted",e);
+        } 
+        catch (ExecutionException e) 
+        {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 2 ) {
+            System.err.println("Usage: <results file> <output directory or .gif file> [<frame count, default 360>] [<width> <height>]");
+            System.exit(1);
+        }
+        System.setProperty( "java.awt.headless" , "true" );
+        
+        final List<IOZoneReport> reports = Chart3DViewer.loadReports( new File( args[0] ) ).getReports();
+        final TurntableExporter exporter = new TurntableExporter( new ChartManager( reports ).createAllCharts() );
+        if ( args.length > 4 ) 
+        {
+            exporter.width = Integer.parseInt( args[3] );
+            exporter.height = Integer.parseInt( args[4] );
+        }
+        final File output = new File( args[1] );
+        final int frames = args.length > 2 ? Integer.parseInt( args[2] ) : 360;
+        final int threads = Runtime.getRuntime().availableProcessors();
+        
+        long time = -System.currentTimeMillis();
+        if ( output.getName().toLowerCase().endsWith(".gif") ) {
+            exporter.writeGIF( output , frames , 40 , threads );
+        } else {
+            exporter.writePNGSequence( output , frames , threads );
+        }
+        time += System.currentTimeMillis();
+        System.out.println("Wrote "+frames+" frames to "+output+" in "+time+" ms");
+    }
+}
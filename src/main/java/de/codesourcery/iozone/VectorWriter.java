@@ -0,0 +1,245 @@
+package de.codesourcery.iozone;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+import de.codesourcery.iozone.Mesh.Quad;
+
+/**
+ * Base class for sinks that stream a scene to a vector graphics file.
+ *
+ * Primitives are written as soon as they arrive, each run of same-colored quads becomes a single
+ * path so output size grows with the number of visible quads but memory use does not. Quads lying
+ * completely outside the page are dropped.
+ *
+ * Text is laid out using Java2D font metrics, viewers may substitute fonts with slightly different widths.
+ *
+ * @see SVGWriter
+ * @see PDFWriter
+ */
+public abstract class VectorWriter implements SceneSink, Closeable
+{
+    protected final int width;
+    protected final int height;
+
+    /**
+     * Whether to outline quads like {@link RenderQuality#FULL} rendering does.
+     */
+    public boolean drawOutlines = true;
+
+    // only used for label layout
+    private final Graphics2D metrics = new BufferedImage( 1 , 1 , BufferedImage.TYPE_INT_RGB ).createGraphics();
+
+    // scratch buffers for Quad#toClockwise()
+    private final float[] corners = new float[8];
+    private final float[] polygons = new float[12];
+
+    // buffer for number formatting
+    private final char[] digits = new char[24];
+
+    /**
+     * Create instance.
+     *
+     * @param width page width in pixels
+     * @param height page height in pixels
+     */
+    protected VectorWriter(int width,int height)
+    {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates a writer for the format implied by a file's extension.
+     *
+     * @param file output file ending with <code>.svg</code> or <code>.pdf</code>
+     * @param width page width in pixels
+     * @param height page height in pixels
+     * @return
+     * @throws IOException
+     */
+    public static VectorWriter create(File file,int width,int height) throws IOException
+    {
+        final String name = file.getName().toLowerCase();
+        if ( ! name.endsWith( ".svg" ) && ! name.endsWith( ".pdf" ) ) {
+            throw new IllegalArgumentException( "Unsupported file type, expected .svg or .pdf: "+file );
+        }
+        final BufferedOutputStream out = new BufferedOutputStream( new FileOutputStream( file ) , 64*1024 );
+        if ( name.endsWith( ".svg" ) ) {
+            return new SVGWriter( out , width , height );
+        }
+        return new PDFWriter( out , width , height );
+    }
+
+    @Override
+    public final void quad(Quad quad)
+    {
+        if ( isVisible( quad ) )
+        {
+            corners[0] = quad.c0.x; corners[1] = quad.c0.y;
+            corners[2] = quad.c1.x; corners[3] = quad.c1.y;
+            corners[4] = quad.c2.x; corners[5] = quad.c2.y;
+            corners[6] = quad.c3.x; corners[7] = quad.c3.y;
+            try 
+            {
+                // runs get filled using the non-zero rule, see Quad#toClockwise()
+                if ( Quad.toClockwise( corners , polygons ) == 1 ) {
+                    writePolygon( polygons , 0 , 4 );
+                } else {
+                    writePolygon( polygons , 0 , 3 );
+                    writePolygon( polygons , 6 , 3 );
+                }
+            } catch (IOException e) {
+                throw wrap( e );
+            }
+        }
+    }
+
+    private boolean isVisible(Quad quad)
+    {
+        final float minX = Math.min( Math.min( quad.c0.x , quad.c1.x ) , Math.min( quad.c2.x , quad.c3.x ) );
+        final float maxX = Math.max( Math.max( quad.c0.x , quad.c1.x ) , Math.max( quad.c2.x , quad.c3.x ) );
+        final float minY = Math.min( Math.min( quad.c0.y , quad.c1.y ) , Math.min( quad.c2.y , quad.c3.y ) );
+        final float maxY = Math.max( Math.max( quad.c0.y , quad.c1.y ) , Math.max( quad.c2.y , quad.c3.y ) );
+        return maxX >= 0 && minX <= width && maxY >= 0 && minY <= height;
+    }
+
+    /**
+     * Writes a polygon of the current run, the run's color has been passed to {@link #beginRun(java.awt.Color)}.
+     *
+     * @param points x,y pairs in screen coordinates, wound clockwise
+     * @param offset index of the first point's x coordinate
+     * @param count number of points
+     * @throws IOException
+     */
+    protected abstract void writePolygon(float[] points,int offset,int count) throws IOException;
+
+    @Override
+    public Font getFont() {
+        return metrics.getFont();
+    }
+
+    @Override
+    public FontMetrics getFontMetrics(Font font) {
+        return metrics.getFontMetrics( font );
+    }
+
+    @Override
+    public void close() throws IOException {
+        metrics.dispose();
+    }
+
+    /**
+     * Formats a coordinate with at most two decimals, trailing zeros are omitted.
+     *
+     * @param value
+     * @param out
+     * @return <code>out</code>
+     */
+    protected final StringBuilder format(float value,StringBuilder out)
+    {
+        return format( value , 2 , out );
+    }
+
+    /**
+     * Formats a number, trailing zeros are omitted.
+     *
+     * @param value
+     * @param decimals max. number of decimals, at most 6
+     * @param out
+     * @return <code>out</code>
+     */
+    protected final StringBuilder format(float value,int decimals,StringBuilder out)
+    {
+        int scale = 1;
+        for ( int i = 0 ; i < decimals ; i++ ) {
+            scale *= 10;
+        }
+        long scaled = Math.round( (double) value * scale );
+        if ( scaled < 0 )
+        {
+            out.append( '-' );
+            scaled = -scaled;
+        }
+        long integer = scaled / scale;
+        int fraction = (int) ( scaled % scale );
+        int pos = digits.length;
+        if ( fraction != 0 )
+        {
+            int fractionDigits = decimals;
+            while ( fraction % 10 == 0 ) 
+            {
+                fraction /= 10;
+                fractionDigits--;
+            }
+            for ( int i = 0 ; i < fractionDigits ; i++ , fraction /= 10 ) {
+                digits[--pos] = (char) ( '0' + fraction % 10 );
+            }
+            digits[--pos] = '.';
+        }
+        do {
+            digits[--pos] = (char) ( '0' + integer % 10 );
+            integer /= 10;
+        } while ( integer != 0 );
+        return out.append( digits , pos , digits.length - pos );
+    }
+
+    protected static UncheckedIOException wrap(IOException e) {
+        return new UncheckedIOException( e );
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if ( args.length < 2 ) {
+            System.err.println("Usage: <results file> <output .svg or .pdf file> [<report name, default is the first report>] [<camera preset, default DEFAULT>] [<width> <height>]");
+            System.exit(1);
+        }
+        System.setProperty( "java.awt.headless" , "true" );
+
+        final List<IOZoneReport> reports = Chart3DViewer.loadReports( new File( args[0] ) ).getReports();
+        IOZoneReport report = reports.isEmpty() ? null : reports.get(0);
+        if ( args.length > 2 )
+        {
+            report = null;
+            for ( IOZoneReport candidate : reports )
+            {
+                if ( candidate.reportName.equals( args[2] ) ) {
+                    report = candidate;
+                }
+            }
+        }
+        if ( report == null ) {
+            System.err.println("No such report: "+( args.length > 2 ? args[2] : "<first>" ) );
+            System.exit(1);
+        }
+        final CameraPreset preset = args.length > 3 ? CameraPreset.valueOf( args[3].toUpperCase() ) : CameraPreset.DEFAULT;
+        final int width = args.length > 5 ? Integer.parseInt( args[4] ) : 640;
+        final int height = args.length > 5 ? Integer.parseInt( args[5] ) : 480;
+
+        final File output = new File( args[1] );
+        final PerspectiveCamera camera = preset.createCamera( width , height );
+        final LabelOccupancy occupancy = new LabelOccupancy();
+        occupancy.reset( width , height );
+
+        long time = -System.currentTimeMillis();
+        final int quads;
+        try ( VectorWriter writer = create( output , width , height ) ) {
+            quads = SceneRenderer.render( Collections.singletonList( new IOZone3DChart( report ) ) , camera , writer , RenderQuality.FULL , null , null , occupancy );
+        }
+        time += System.currentTimeMillis();
+        System.out.println("Wrote "+quads+" quads to "+output+" ("+output.length()+" bytes) in "+time+" ms");
+    }
+}
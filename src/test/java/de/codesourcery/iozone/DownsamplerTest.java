@@ -0,0 +1,62 @@
+package de.codesourcery.iozone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DownsamplerTest
+{
+    private static final int LEN = 1000;
+
+    private static final int PEAK = 313;
+    private static final int DIP = 701;
+
+    private static double[] xValues()
+    {
+        final double[] x = new double[ LEN ];
+        for ( int i = 0 ; i < LEN ; i++ ) {
+            x[i] = i * 4;
+        }
+        return x;
+    }
+
+    private static double[] yValues()
+    {
+        // gentle wave with one sharp peak and one sharp dip
+        final double[] y = new double[ LEN ];
+        for ( int i = 0 ; i < LEN ; i++ ) {
+            y[i] = 100 + 10 * Math.sin( i / 50d );
+        }
+        y[PEAK] = 1000;
+        y[DIP] = -1000;
+        return y;
+    }
+
+    @Test
+    public void testKeepsEndpointsAndExtremes()
+    {
+        final int[] indices = Downsampler.lttb( xValues() , yValues() , 20 );
+
+        assertEquals( 20 , indices.length );
+        assertEquals( 0 , indices[0] );
+        assertEquals( LEN - 1 , indices[ indices.length - 1 ] );
+        assertTrue( Arrays.binarySearch( indices , PEAK ) >= 0 );
+        assertTrue( Arrays.binarySearch( indices , DIP ) >= 0 );
+        for ( int i = 1 ; i < indices.length ; i++ ) {
+            assertTrue( "indices not ascending" , indices[i] > indices[i-1] );
+        }
+    }
+
+    @Test
+    public void testKeepsShortSeries()
+    {
+        final double[] x = { 4 , 8 , 16 };
+        final double[] y = { 1 , 2 , 3 };
+        assertArrayEquals( new int[] { 0 , 1 , 2 } , Downsampler.lttb( x , y , 3 ) );
+        assertArrayEquals( new int[] { 0 , 2 } , Downsampler.lttb( x , y , 2 ) );
+    }
+}
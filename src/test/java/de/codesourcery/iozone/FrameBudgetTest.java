@@ -0,0 +1,60 @@
+package de.codesourcery.iozone;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.codesourcery.iozone.FrameBudgetCheck.Result;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+/**
+ * Replays an orbit around the bundled example results and fails if rendering exceeds its
+ * allocation budget or the output differs from the reference images.
+ *
+ * Frame times depend on the machine and its load, so the frame time budget is only checked when
+ * <code>-Diozone.budget.maxFrameMillis=&lt;ms&gt;</code> is set (<code>mvn test -Pframe-timing</code> uses {@link #MAX_FRAME_MILLIS}).
+ *
+ * Reference images get regenerated with
+ * <code>FrameBudgetCheck -Diozone.budget.goldenDir=src/test/resources/frame-budget/golden -Diozone.budget.updateGolden=true src/main/resources/iozone.txt</code>
+ */
+public class FrameBudgetTest
+{
+    public static final long MAX_BYTES_PER_FRAME = 1_500_000;
+    public static final long MAX_FRAME_MILLIS = 100;
+    public static final double GOLDEN_TOLERANCE = 0.001;
+
+    private static final File RESULTS_FILE = new File( "src/main/resources/iozone.txt" );
+    private static final File GOLDEN_DIR = new File( "src/test/resources/frame-budget/golden" );
+
+    private static FrameBudgetCheck check;
+
+    @BeforeClass
+    public static void setup() throws IOException
+    {
+        System.setProperty( "iozone.colorSeed" , Long.toString( FrameBudgetCheck.DEFAULT_COLOR_SEED ) );
+
+        final List<IOZoneReport> reports = Chart3DViewer.loadReports( RESULTS_FILE ).getReports();
+        final List<IOZone3DChart> charts = new ChartManager( reports ).createAllCharts();
+        check = new FrameBudgetCheck( charts , FrameBudgetCheck.createOrbit( charts , 120 ) , RenderQuality.FULL );
+    }
+
+    @Test
+    public void testStaysWithinBudget()
+    {
+        final Result result = check.measure( 4 );
+        final List<String> failures = FrameBudgetCheck.checkBudgets( result , MAX_BYTES_PER_FRAME , Long.getLong( "iozone.budget.maxFrameMillis" , -1 ) );
+        assertTrue( result+"\n"+String.join( "\n" , failures ) , failures.isEmpty() );
+    }
+
+    @Test
+    public void testMatchesReferenceImages() throws IOException
+    {
+        final List<String> failures = check.compareGoldenImages( GOLDEN_DIR , GOLDEN_TOLERANCE );
+        assertTrue( String.join( "\n" , failures ) , failures.isEmpty() );
+    }
+}
@@ -0,0 +1,62 @@
+package de.codesourcery.iozone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReader;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+
+public class IOZoneFileParserTest
+{
+    private static IOZoneReader parse(String input,ReportSelection selection) throws IOException {
+        return new IOZoneReader( new ByteArrayInputStream( input.getBytes( "ISO-8859-1" ) ) , selection , null );
+    }
+
+    @Test
+    public void testParsesBundledResults() throws IOException
+    {
+        final IOZoneReader reader = Chart3DViewer.loadReports();
+        assertEquals( 13 , reader.getReports().size() );
+
+        final IOZoneReport report = reader.getReport( "Writer report" );
+        assertArrayEquals( new int[] { 4 , 8 , 16 , 32 , 64 , 128 , 256 , 512 , 1024 , 2048 , 4096 , 8192 , 16384 } , report.recordLengths );
+        assertArrayEquals( new int[] { 581273 , 743988 , 743988 , 771797 , 752329 } , report.getFileEntry( 64 ).values );
+    }
+
+    @Test
+    public void testSelection() throws IOException
+    {
+        final String input = "\"Writer report\"\n" +
+                             "  \"4\"  \"8\"  \"16\"\n" +
+                             "\"64\"   1  2  3\n" +
+                             "\"128\"  4  5  6\n" +
+                             "\n" +
+                             "\"Reader report\"\n" +
+                             "  \"4\"  \"8\"  \"16\"\n" +
+                             "\"64\"   7  8  9\n";
+
+        final IOZoneReader all = parse( input , ReportSelection.ALL );
+        assertEquals( 2 , all.getReports().size() );
+        assertArrayEquals( new int[] { 7 , 8 , 9 } , all.getReport( "Reader report" ).getFileEntry( 64 ).values );
+
+        final IOZoneReader selected = parse( input , new ReportSelection( Arrays.asList( "Writer report" ) , 128 , 128 , 8 , 16 ) );
+        assertEquals( 1 , selected.getReports().size() );
+        final IOZoneReport report = selected.getReport( "Writer report" );
+        assertArrayEquals( new int[] { 8 , 16 } , report.recordLengths );
+        assertEquals( Arrays.asList( 128 ) , report.getFileSizes() );
+        assertArrayEquals( new int[] { 5 , 6 } , report.getFileEntry( 128 ).values );
+    }
+
+    @Test
+    public void testInputWithoutReports() throws IOException
+    {
+        assertTrue( parse( "tag=nightly\n" , ReportSelection.ALL ).getReports().isEmpty() );
+    }
+}
@@ -0,0 +1,78 @@
+package de.codesourcery.iozone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.codesourcery.iozone.IOZoneFileParser.FileEntry;
+import de.codesourcery.iozone.IOZoneFileParser.IOZoneReport;
+import de.codesourcery.iozone.ReportAggregator.Statistic;
+
+public class MissingCellsTest 
+{
+    private static IOZoneReport createReport(int... values) 
+    {
+        final IOZoneReport report = new IOZoneReport( "Writer report" , new int[] { 4 , 8 , 16 , 32 } );
+        report.addEntry( 64 , values );
+        return report;
+    }
+    
+    @Test
+    public void testHasValue() 
+    {
+        final FileEntry entry = createReport( 100 , IOZoneReport.MISSING , 300 ).getFileEntry( 64 );
+        assertTrue( entry.hasValue( 0 ) );
+        assertFalse( entry.hasValue( 1 ) );
+        assertTrue( entry.hasValue( 2 ) );
+        assertFalse( entry.hasValue( 3 ) );
+    }
+    
+    @Test
+    public void testAggregationIgnoresMissingCells() 
+    {
+        final ReportAggregator aggregator = new ReportAggregator();
+        aggregator.add( Collections.singletonList( createReport( 100 , IOZoneReport.MISSING , 300 ) ) );
+        aggregator.add( Collections.singletonList( createReport( 200 , IOZoneReport.MISSING , 500 ) ) );
+        
+        final List<IOZoneReport> reports = aggregator.getReports( Statistic.MIN );
+        assertEquals( 1 , reports.size() );
+        assertArrayEquals( new int[] { 4 , 16 } , reports.get(0).recordLengths );
+        assertArrayEquals( new int[] { 100 , 300 } , reports.get(0).getFileEntry( 64 ).values );
+    }
+    
+    @Test
+    public void testAggregationMarksCellsMissingFromAllRuns() 
+    {
+        final IOZoneReport other = new IOZoneReport( "Writer report" , new int[] { 4 , 8 , 16 , 32 } );
+        other.addEntry( 128 , new int[] { IOZoneReport.MISSING , 400 } );
+        
+        final ReportAggregator aggregator = new ReportAggregator();
+        aggregator.add( Collections.singletonList( createReport( 100 , IOZoneReport.MISSING , 300 ) ) );
+        aggregator.add( Collections.singletonList( other ) );
+        
+        final IOZoneReport report = aggregator.getReports( Statistic.MAX ).get(0);
+        assertArrayEquals( new int[] { 4 , 8 , 16 } , report.recordLengths );
+        assertArrayEquals( new int[] { 100 , IOZoneReport.MISSING , 300 } , report.getFileEntry( 64 ).values );
+        assertFalse( report.getFileEntry( 128 ).hasValue( 0 ) );
+        assertTrue( report.getFileEntry( 128 ).hasValue( 1 ) );
+    }
+    
+    @Test
+    public void testDiffTreatsMissingCellsAsAbsent() 
+    {
+        final ReportDiff.ReportDelta delta = ReportDiff.compare( createReport( 100 , IOZoneReport.MISSING , 300 ) , createReport( 110 , 200 , 300 ) );
+        assertEquals( 0.1f , delta.relativeDelta[0] , 1e-6f );
+        assertTrue( Float.isNaN( delta.relativeDelta[1] ) );
+        assertEquals( 0f , delta.relativeDelta[2] , 1e-6f );
+        assertTrue( ReportDiff.getWorstRegressions( Collections.singletonList( delta ) , 10 ).isEmpty() );
+        
+        final IOZoneReport report = delta.toReport();
+        assertFalse( report.getFileEntry( 64 ).hasValue( 1 ) );
+    }
+}
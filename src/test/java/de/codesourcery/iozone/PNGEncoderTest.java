@@ -0,0 +1,91 @@
+package de.codesourcery.iozone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PNGEncoderTest
+{
+    private static final int[] LEVELS = { 0 , 1 , 9 };
+
+    // odd sizes so rows and chunks don't line up with anything
+    private static final int[][] SIZES = { { 1 , 1 } , { 17 , 5 } , { 333 , 77 } };
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setUp() {
+        executor = Executors.newFixedThreadPool( 2 );
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static BufferedImage createImage(int type,int width,int height)
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        final BufferedImage image = new BufferedImage( width , height , type );
+        for ( int y = 0 ; y < height ; y++ )
+        {
+            for ( int x = 0 ; x < width ; x++ )
+            {
+                // mix of flat areas and noise so every filter type gets picked
+                image.setRGB( x , y , x < width / 2 ? 0xff000000 | (x*7) << 16 | y << 8 : rnd.nextInt() );
+            }
+        }
+        return image;
+    }
+
+    private static void assertRoundTrip(int type) throws IOException
+    {
+        for ( int level : LEVELS )
+        {
+            for ( int[] size : SIZES )
+            {
+                final BufferedImage expected = createImage( type , size[0] , size[1] );
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new PNGEncoder( level , executor ).write( expected , out );
+
+                final String msg = "level "+level+", "+size[0]+"x"+size[1];
+                final BufferedImage actual = ImageIO.read( new ByteArrayInputStream( out.toByteArray() ) );
+                assertNotNull( msg , actual );
+                assertEquals( msg , size[0] , actual.getWidth() );
+                assertEquals( msg , size[1] , actual.getHeight() );
+                for ( int y = 0 ; y < size[1] ; y++ )
+                {
+                    for ( int x = 0 ; x < size[0] ; x++ )
+                    {
+                        assertEquals( msg+" at ("+x+","+y+")" , Integer.toHexString( expected.getRGB( x , y ) ) , Integer.toHexString( actual.getRGB( x , y ) ) );
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTripRGB() throws IOException
+    {
+        assertRoundTrip( BufferedImage.TYPE_INT_RGB );
+    }
+
+    @Test
+    public void testRoundTripARGB() throws IOException
+    {
+        assertRoundTrip( BufferedImage.TYPE_INT_ARGB );
+    }
+}
@@ -0,0 +1,139 @@
+package de.codesourcery.iozone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+public class ReportIndexTest 
+{
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+    
+    private File createResultsFile(File dir,String name) throws IOException 
+    {
+        dir.mkdirs();
+        final File file = new File( dir , name );
+        try ( InputStream in = getClass().getResourceAsStream( "/iozone.txt" ) ) {
+            Files.copy( in , file.toPath() );
+        }
+        return file;
+    }
+    
+    private static List<String> getPaths(ReportIndex index) {
+        return index.getFiles().stream().map( f -> new File( f.path ).getName() ).sorted().collect( Collectors.toList() );
+    }
+    
+    @Test
+    public void testUpdateOnlyDropsMissingFilesBelowRoots() throws IOException 
+    {
+        final File host1 = tmp.newFolder( "host1" );
+        final File host2 = tmp.newFolder( "host2" );
+        final File a = createResultsFile( host1 , "a.txt" );
+        createResultsFile( host2 , "b.txt" );
+        
+        final ReportIndex index = new ReportIndex( new File( tmp.getRoot() , "index.bin" ) );
+        assertEquals( 1 , index.update( Collections.singletonList( host1 ) ) );
+        assertEquals( 1 , index.update( Collections.singletonList( host2 ) ) );
+        assertEquals( Arrays.asList( "a.txt" , "b.txt" ) , getPaths( index ) );
+        
+        // deleted file outside of the roots stays until its own directory gets updated
+        Files.delete( a.toPath() );
+        assertEquals( 0 , index.update( Collections.singletonList( host2 ) ) );
+        assertEquals( Arrays.asList( "a.txt" , "b.txt" ) , getPaths( index ) );
+        
+        assertEquals( 0 , index.update( Collections.singletonList( host1 ) ) );
+        assertEquals( Collections.singletonList( "b.txt" ) , getPaths( index ) );
+        
+        // survives a round-trip through the index file
+        assertEquals( Collections.singletonList( "b.txt" ) , getPaths( new ReportIndex( new File( tmp.getRoot() , "index.bin" ) ) ) );
+    }
+    
+    @Test
+    public void testSidecarNewerThanResultsFileIsNotReindexed() throws IOException 
+    {
+        final File dir = tmp.newFolder( "host1" );
+        final File results = createResultsFile( dir , "a.txt" );
+        final File sidecar = new File( dir , "a.txt.properties" );
+        Files.write( sidecar.toPath() , "tag=nightly\n".getBytes( "ISO-8859-1" ) );
+        
+        final long now = System.currentTimeMillis() / 1000 * 1000;
+        results.setLastModified( now - 60_000 );
+        sidecar.setLastModified( now );
+        
+        final File indexFile = new File( tmp.getRoot() , "index.bin" );
+        final List<File> roots = Collections.singletonList( dir );
+        assertEquals( 1 , new ReportIndex( indexFile ).update( roots ) );
+        assertEquals( 0 , new ReportIndex( indexFile ).update( roots ) );
+        
+        // changed metadata gets picked up
+        Files.write( sidecar.toPath() , "tag=weekly\n".getBytes( "ISO-8859-1" ) );
+        sidecar.setLastModified( now + 1000 );
+        final ReportIndex index = new ReportIndex( indexFile );
+        assertEquals( 1 , index.update( roots ) );
+        assertEquals( "weekly" , index.getFiles().get(0).metadata.get( "tag" ) );
+        
+        // ... as does a removed sidecar
+        Files.delete( sidecar.toPath() );
+        assertEquals( 1 , index.update( roots ) );
+        assertEquals( 0 , index.update( roots ) );
+    }
+    
+    @Test
+    public void testArchiveDirectoryWithSidecarsAndIndex() throws IOException 
+    {
+        final File host1 = tmp.newFolder( "host1" );
+        createResultsFile( host1 , "run1.txt" );
+        createResultsFile( host1 , "run2.txt" );
+        Files.write( new File( host1 , "run1.txt.properties" ).toPath() , Arrays.asList( "tag=nightly" ) );
+        Files.write( new File( host1 , "notes.txt" ).toPath() , Arrays.asList( "not a results file" ) );
+        new ReportIndex( new File( host1 , "archive.idx" ) ).update( Collections.singletonList( host1 ) );
+        
+        final List<File> files = ReportAggregator.listFiles( Collections.singletonList( host1 ) );
+        assertEquals( Arrays.asList( "notes.txt" , "run1.txt" , "run2.txt" ) , files.stream().map( File::getName ).collect( Collectors.toList() ) );
+        
+        // notes.txt is not a results file and gets skipped
+        assertEquals( 2 , ReportAggregator.aggregate( files , 2 ).getRunCount() );
+    }
+    
+    @Test
+    public void testIndexesCompressedFiles() throws IOException 
+    {
+        final File dir = tmp.newFolder( "host1" );
+        final File plain = createResultsFile( dir , "a.txt" );
+        try ( OutputStream out = new GZIPOutputStream( new FileOutputStream( new File( dir , "b.txt.gz" ) ) ) ) {
+            Files.copy( plain.toPath() , out );
+        }
+        try ( OutputStream out = new XZOutputStream( new FileOutputStream( new File( dir , "c.txt.xz" ) ) , new LZMA2Options() ) ) {
+            Files.copy( plain.toPath() , out );
+        }
+        
+        final ReportIndex index = new ReportIndex( new File( tmp.getRoot() , "index.bin" ) );
+        assertEquals( 3 , index.update( Collections.singletonList( dir ) ) );
+        
+        final List<ReportIndex.ReportInfo> reports = index.query( r -> r.reportName.equals( "Reader report" ) );
+        assertEquals( 3 , reports.size() );
+        final int[] expected = ReportIndex.load( reports.get(0) ).getFileEntry( 64 ).values;
+        for ( ReportIndex.ReportInfo info : reports ) 
+        {
+            assertEquals( reports.get(0).offset , info.offset );
+            assertArrayEquals( expected , ReportIndex.load( info ).getFileEntry( 64 ).values );
+        }
+    }
+}